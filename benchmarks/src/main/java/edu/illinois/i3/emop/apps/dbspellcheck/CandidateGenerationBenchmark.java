@@ -0,0 +1,103 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Generating the (valid) candidate suggestions of the sample book tokens, for tokens with few or many applicable
+ * transformations, using each of the candidate generators
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CandidateGenerationBenchmark {
+
+	private static final int TOKENS = 20;
+
+	@Param({ "few", "many" })
+	public String ruleMatches;
+
+	@Param({ "powerset", "trie", "bestfirst" })
+	public String generator;
+
+	private DAWGDictionary _dictionary;
+	private OCRCheck.ValidSuggestionPredicate _predicate;
+	private final List<Misspelling> _misspellings = Lists.newArrayList();
+	private final List<List<Transformation>> _transformations = Lists.newArrayList();
+
+	@Setup
+	public void setup() throws Exception {
+		_dictionary = Fixtures.loadDictionary();
+		_predicate = new OCRCheck.ValidSuggestionPredicate(_dictionary);
+
+		OCRCheck ocrCheck = new OCRCheck(new OCRDocument("sample-book.xml", Collections.<String>emptyIterator()), null);
+		OCRRuleMatcher ruleMatcher = new OCRRuleMatcher(Fixtures.loadRules());
+
+		// "few": up to 3 transformations, "many": 8 or more (the power set enumeration is exponential)
+		int minTransformations = "few".equals(ruleMatches) ? 1 : 8;
+		int maxTransformations = "few".equals(ruleMatches) ? 3 : Integer.MAX_VALUE;
+
+		Set<String> seen = Sets.newHashSet();
+		for (String token : Fixtures.loadSampleTokens()) {
+			String cleanedToken = ocrCheck.cleanToken(token.trim());
+			if (cleanedToken.isEmpty() || !seen.add(cleanedToken)) continue;
+
+			Misspelling misspelling = new Misspelling(cleanedToken, 0, 0);
+			List<Transformation> transformations = ocrCheck.computePossibleTransformations(misspelling, ruleMatcher);
+			if (transformations.size() < minTransformations || transformations.size() > maxTransformations) continue;
+
+			_misspellings.add(misspelling);
+			_transformations.add(transformations);
+			if (_misspellings.size() == TOKENS) break;
+		}
+
+		if (_misspellings.size() < TOKENS)
+			throw new IllegalStateException("Not enough sample tokens with " + ruleMatches + " rule matches");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TOKENS)
+	public void generate(Blackhole blackhole) {
+		for (int i = 0; i < TOKENS; i++)
+			for (Suggestion suggestion : createGenerator(_misspellings.get(i), _transformations.get(i)))
+				blackhole.consume(suggestion);
+	}
+
+	private Iterable<Suggestion> createGenerator(Misspelling misspelling, List<Transformation> transformations) {
+		switch (generator) {
+			case "trie":
+				return new TrieCandidateSuggestionsGenerator(misspelling, transformations, _dictionary, _predicate);
+
+			case "bestfirst":
+				return new BestFirstCandidateSuggestionsGenerator(misspelling, transformations, _dictionary, _predicate,
+						BestFirstCandidateSuggestionsGenerator.DEFAULT_MAX_SUGGESTIONS, BestFirstCandidateSuggestionsGenerator.DEFAULT_COST_SLACK);
+
+			default:
+				return new OCRCandidateSuggestionsGenerator(misspelling, transformations, _predicate);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Resources;
+
+/**
+ * In-memory versions of the resources normally loaded from the DB, built from the fixtures bundled with the
+ * benchmarks: a word list (standing in for the dictionary table, from which the n-gram counts are also derived),
+ * a set of OCR rules and a sample book
+ *
+ * @author capitanu
+ */
+public class Fixtures {
+
+	private static final String WORDS = "fixtures/words.txt";
+	private static final String RULES = "fixtures/transformations.json";
+	private static final String SAMPLE_BOOK = "fixtures/sample-book.xml";
+
+	public static List<String> loadWords() throws IOException {
+		List<String> words = Lists.newArrayList();
+		for (String line : Resources.readLines(Resources.getResource(WORDS), Charsets.UTF_8))
+			if (!line.trim().isEmpty())
+				words.add(line.trim());
+
+		return words;
+	}
+
+	public static DAWGDictionary loadDictionary() throws IOException {
+		return DAWGDictionary.build(loadWords());
+	}
+
+	/**
+	 * Counts the 2-grams and 3-grams of the words, padded with the boundary marker as when scoring
+	 */
+	public static NGramModel loadNGramModel() throws IOException {
+		Map<String, Integer> counts = Maps.newHashMap();
+
+		for (String word : loadWords()) {
+			String padded = NGramModel.BOUNDARY + word.toLowerCase() + NGramModel.BOUNDARY;
+			for (int n = 2; n <= 3; n++)
+				for (int i = 0; i + n <= padded.length(); i++) {
+					String ngram = padded.substring(i, i + n);
+					Integer count = counts.get(ngram);
+					counts.put(ngram, count == null ? 1 : count + 1);
+				}
+		}
+
+		NGramModel ngramModel = new NGramModel(counts.size());
+		for (Map.Entry<String, Integer> entry : counts.entrySet())
+			ngramModel.add(entry.getKey(), entry.getValue());
+
+		return ngramModel;
+	}
+
+	/**
+	 * Reads the OCR rules, in the same format (and with the same semantics) as the rules file given to {@link Main}
+	 */
+	public static Map<String, Set<String>> loadRules() throws IOException, JSONException {
+		Map<String, Set<String>> rules = Maps.newHashMap();
+		InputStream stream = Resources.getResource(RULES).openStream();
+
+		try {
+			JSONObject jsonRules = new JSONObject(CharStreams.toString(new InputStreamReader(stream, Charsets.UTF_8)));
+			@SuppressWarnings("unchecked")
+			Iterator<String> keys = jsonRules.keys();
+
+			while (keys.hasNext()) {
+				String key = keys.next();
+				Object value = jsonRules.get(key);
+				JSONArray ocrErrors = (value instanceof JSONArray) ? (JSONArray) value : new JSONArray().put(value);
+
+				for (int i = 0; i < ocrErrors.length(); i++) {
+					String ocrErr = ocrErrors.getString(i);
+					Set<String> replacements = rules.get(ocrErr);
+					if (replacements == null) {
+						replacements = new HashSet<String>();
+						rules.put(ocrErr, replacements);
+					}
+
+					replacements.add(key);
+				}
+			}
+
+			return rules;
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+	public static byte[] loadSampleBook() throws IOException {
+		InputStream stream = Resources.getResource(SAMPLE_BOOK).openStream();
+
+		try {
+			return ByteStreams.toByteArray(stream);
+		}
+		finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * @return The (raw) tokens of the sample book
+	 */
+	public static List<String> loadSampleTokens() throws IOException, XMLStreamException {
+		OCRXMLStreamTokenIterator tokenIterator = new OCRXMLStreamTokenIterator(new ByteArrayInputStream(loadSampleBook()));
+		List<String> tokens = Lists.newArrayList();
+		while (tokenIterator.hasNext())
+			tokens.add(tokenIterator.next());
+
+		return tokens;
+	}
+}
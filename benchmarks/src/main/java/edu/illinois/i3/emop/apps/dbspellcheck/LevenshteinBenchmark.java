@@ -0,0 +1,77 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link Levenshtein#distance} between sample book tokens and dictionary words; "long" pairs (over 64 characters)
+ * exercise the dynamic programming fallback instead of the bit-parallel algorithm
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevenshteinBenchmark {
+
+	private static final int PAIRS = 1000;
+
+	@Param({ "short", "long" })
+	public String length;
+
+	private final String[] _sources = new String[PAIRS];
+	private final String[] _targets = new String[PAIRS];
+
+	@Setup
+	public void setup() throws Exception {
+		List<String> tokens = Fixtures.loadSampleTokens();
+		List<String> words = Fixtures.loadWords();
+		Random random = new Random(42);
+
+		for (int i = 0; i < PAIRS; i++) {
+			StringBuilder source = new StringBuilder(tokens.get(random.nextInt(tokens.size())));
+			StringBuilder target = new StringBuilder(words.get(random.nextInt(words.size())));
+
+			if ("long".equals(length))
+				while (source.length() <= 64 || target.length() <= 64) {
+					source.append(tokens.get(random.nextInt(tokens.size())));
+					target.append(words.get(random.nextInt(words.size())));
+				}
+
+			_sources[i] = source.toString();
+			_targets[i] = target.toString();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void distance(Blackhole blackhole) {
+		for (int i = 0; i < PAIRS; i++)
+			blackhole.consume(Levenshtein.distance(_sources[i], _targets[i]));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void boundedDistance(Blackhole blackhole) {
+		for (int i = 0; i < PAIRS; i++)
+			blackhole.consume(Levenshtein.distance(_sources[i], _targets[i], 2));
+	}
+}
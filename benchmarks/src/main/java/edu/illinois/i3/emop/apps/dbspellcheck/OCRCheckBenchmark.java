@@ -0,0 +1,79 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The per-token steps of {@link OCRCheck}: cleaning, n-gram scoring and matching the OCR rules, over all the tokens
+ * of the sample book (the scores are for the whole book)
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OCRCheckBenchmark {
+
+	private OCRCheck _ocrCheck;
+	private OCRRuleMatcher _ruleMatcher;
+	private List<String> _tokens;
+	private List<String> _words;
+	private List<Misspelling> _misspellings;
+
+	@Setup
+	public void setup() throws Exception {
+		_ocrCheck = new OCRCheck(new OCRDocument("sample-book.xml", Collections.<String>emptyIterator()), null);
+		_ocrCheck.setNGramModel(Fixtures.loadNGramModel());
+		_ruleMatcher = new OCRRuleMatcher(Fixtures.loadRules());
+
+		_tokens = Fixtures.loadSampleTokens();
+		_words = Lists.newArrayList();
+		_misspellings = Lists.newArrayList();
+
+		for (String token : _tokens) {
+			String cleanedToken = _ocrCheck.cleanToken(token.trim());
+			if (cleanedToken.isEmpty()) continue;
+
+			_words.add(OCRCheck.normalizeToken(cleanedToken));
+			_misspellings.add(new Misspelling(cleanedToken, 0, 0));
+		}
+	}
+
+	@Benchmark
+	public void cleanToken(Blackhole blackhole) {
+		for (String token : _tokens)
+			blackhole.consume(_ocrCheck.cleanToken(token));
+	}
+
+	@Benchmark
+	public void computeNGramScores(Blackhole blackhole) {
+		for (String word : _words) {
+			_ocrCheck.computeNGramScores(word);
+			blackhole.consume(_ocrCheck._ngramScores[2] + _ocrCheck._ngramScores[3]);
+		}
+	}
+
+	@Benchmark
+	public void computePossibleTransformations(Blackhole blackhole) {
+		for (Misspelling misspelling : _misspellings)
+			blackhole.consume(_ocrCheck.computePossibleTransformations(misspelling, _ruleMatcher));
+	}
+}
@@ -0,0 +1,51 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Enumerating all the subsets of a set with {@link PowerSetGenerator}
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PowerSetGeneratorBenchmark {
+
+	@Param({ "8", "12", "16" })
+	public int size;
+
+	private List<Integer> _items;
+
+	@Setup
+	public void setup() {
+		_items = Lists.newArrayListWithCapacity(size);
+		for (int i = 0; i < size; i++)
+			_items.add(i);
+	}
+
+	@Benchmark
+	public void iterate(Blackhole blackhole) {
+		for (List<Integer> subset : new PowerSetGenerator<Integer>(_items))
+			blackhole.consume(subset);
+	}
+}
@@ -0,0 +1,61 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Cleaning the sample book tokens with the regular expressions previously used by {@link OCRCheck} ("regex")
+ * and with {@link TokenCleaner} ("table"); TokenCleanerTest checks that the two give the same results
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCleanerBenchmark {
+
+	@Param({ "regex", "table" })
+	public String cleaner;
+
+	private String[] _tokens;
+
+	@Setup
+	public void setup() throws Exception {
+		List<String> tokens = Lists.newArrayList();
+		for (String token : Fixtures.loadSampleTokens())
+			tokens.add(token.trim());
+		_tokens = tokens.toArray(new String[tokens.size()]);
+	}
+
+	@Benchmark
+	public void clean(Blackhole blackhole) {
+		boolean useRegex = "regex".equals(cleaner);
+
+		for (String token : _tokens)
+			blackhole.consume(useRegex ? regexClean(token) : TokenCleaner.clean(token));
+	}
+
+	private static String regexClean(String token) {
+		if (token.replaceAll("[\\p{N}.,]", "").isEmpty()) return "";
+
+		return token.replaceAll("^[^\\p{Alnum}]+", "").replaceAll("[^\\p{Alnum}]+$", "");
+	}
+}
@@ -0,0 +1,53 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizing the sample book with the DOM/XPath ({@link OCRXMLTokenIterator}) and the StAX
+ * ({@link OCRXMLStreamTokenIterator}) token iterators
+ *
+ * @author capitanu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenIteratorBenchmark {
+
+	@Param({ "dom", "stax" })
+	public String parser;
+
+	private byte[] _book;
+
+	@Setup
+	public void setup() throws Exception {
+		_book = Fixtures.loadSampleBook();
+	}
+
+	@Benchmark
+	public void tokenize(Blackhole blackhole) throws Exception {
+		InputStream stream = new ByteArrayInputStream(_book);
+		OCRTokenIterator tokenIterator = "dom".equals(parser) ?
+				new OCRXMLTokenIterator(stream) : new OCRXMLStreamTokenIterator(stream);
+
+		while (tokenIterator.hasNext())
+			blackhole.consume(tokenIterator.next());
+	}
+}
@@ -0,0 +1,231 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Generates candidate suggestions in increasing order of cost - the number of transformations applied, then the
+ * Levenshtein distance to the misspelling - by expanding the combinations of transformations best-first through a
+ * priority queue, instead of enumerating all of them.
+ *
+ * The search stops as soon as a given number of valid suggestions (satisfying the predicate) has been found, or when
+ * the number of transformations exceeds that of the best valid suggestion by more than a given slack. The candidates
+ * with as many transformations and the same Levenshtein distance are tried in increasing order of the summed costs of
+ * their corrections, so if the rules are weighed by their usage in earlier runs (see
+ * {@link OCRRuleMatcher#orderedBy(long[], boolean)}), the most likely candidates are found before the search stops.
+ * If a dictionary is provided, branches whose (lowercased) output is not a prefix of a dictionary word are abandoned.
+ *
+ * @author capitanu
+ */
+public class BestFirstCandidateSuggestionsGenerator implements Iterable<Suggestion> {
+
+	public static final int DEFAULT_MAX_SUGGESTIONS = 10;
+	public static final int DEFAULT_COST_SLACK = 1;
+
+	private final Misspelling _misspelling;
+	private final ImmutableList<Transformation> _transformations;
+	private final double[] _costs;			// the cost of each transformation
+	private final PrefixLexicon _lexicon;
+	private final Predicate<Suggestion> _predicate;
+	private final int _maxSuggestions;
+	private final int _costSlack;
+	private List<Suggestion> _suggestions;
+
+	/**
+	 * @param misspelling     The misspelling
+	 * @param transformations The possible transformations, ordered by index (then original, then replacement)
+	 * @param ruleMatcher     The OCR rules giving the cost of the transformations (see {@link OCRRuleMatcher#getCorrectionCost(String, String)})
+	 * @param lexicon         The dictionary words used to prune the search (null to not prune it)
+	 * @param predicate       The predicate the returned suggestions must satisfy
+	 * @param maxSuggestions  The number of valid suggestions after which the search stops
+	 * @param costSlack       The number of transformations, beyond those of the best valid suggestion, after which
+	 *                        the search stops
+	 */
+	public BestFirstCandidateSuggestionsGenerator(Misspelling misspelling, Collection<Transformation> transformations,
+												  OCRRuleMatcher ruleMatcher, PrefixLexicon lexicon, Predicate<Suggestion> predicate,
+												  int maxSuggestions, int costSlack) {
+		_misspelling = misspelling;
+		_transformations = ImmutableList.copyOf(transformations);
+		_costs = new double[_transformations.size()];
+		for (int t = 0; t < _costs.length; t++)
+			_costs[t] = ruleMatcher.getCorrectionCost(_transformations.get(t).getOriginal(), _transformations.get(t).getReplacement());
+		_lexicon = lexicon;
+		_predicate = predicate;
+		_maxSuggestions = maxSuggestions;
+		_costSlack = costSlack;
+	}
+
+	public Iterator<Suggestion> iterator() {
+		if (_suggestions == null)
+			_suggestions = new CandidateSearch().run();
+
+		return _suggestions.iterator();
+	}
+
+	/**
+	 * A partial rewrite of the misspelling: the output produced for the characters before a position,
+	 * using a number of transformations
+	 */
+	private static class State {
+		final int pos;
+		final int next;		// the position in the transformation list of the first transformation that may still be applied
+		final int node;
+		final String output;
+		final int[] chosen;
+
+		State(int pos, int next, int node, String output, int[] chosen) {
+			this.pos = pos;
+			this.next = next;
+			this.node = node;
+			this.output = output;
+			this.chosen = chosen;
+		}
+	}
+
+	private static final Comparator<State> COST_COMPARATOR = new Comparator<State>() {
+		public int compare(State s1, State s2) {
+			return Integer.compare(s1.chosen.length, s2.chosen.length);
+		}
+	};
+
+	/**
+	 * A complete rewrite of the misspelling, along with the summed cost of its transformations
+	 */
+	private static class Candidate {
+		final Suggestion suggestion;
+		final double cost;
+
+		Candidate(Suggestion suggestion, double cost) {
+			this.suggestion = suggestion;
+			this.cost = cost;
+		}
+	}
+
+	private static final Comparator<Candidate> CANDIDATE_COMPARATOR = new Comparator<Candidate>() {
+		public int compare(Candidate c1, Candidate c2) {
+			int c = c1.suggestion.getEditDistance().compareTo(c2.suggestion.getEditDistance());
+			if (c == 0)
+				c = Double.compare(c1.cost, c2.cost);
+			return c != 0 ? c : c1.suggestion.getSuggestion().compareTo(c2.suggestion.getSuggestion());
+		}
+	};
+
+	private class CandidateSearch {
+		private final String _word = _misspelling.getMisspelledWord();
+		private final PriorityQueue<State> _queue = new PriorityQueue<State>(64, COST_COMPARATOR);
+		private final Set<String> _generated = Sets.newHashSet();
+		private final List<Suggestion> _valid = Lists.newArrayList();
+
+		List<Suggestion> run() {
+			int root = (_lexicon != null) ? _lexicon.getRoot() : 0;
+			_queue.add(new State(0, 0, root, "", new int[0]));
+
+			int bestCost = -1;
+
+			while (!_queue.isEmpty()) {
+				int cost = _queue.peek().chosen.length;
+				if (bestCost >= 0 && cost > bestCost + _costSlack)
+					break;
+
+				// Complete all the rewrites with the current number of transformations
+				List<Candidate> candidates = Lists.newArrayList();
+				while (!_queue.isEmpty() && _queue.peek().chosen.length == cost)
+					expand(_queue.poll(), candidates);
+
+				// ...and try them in order of edit distance, then of the cost of their corrections
+				Collections.sort(candidates, CANDIDATE_COMPARATOR);
+
+				for (Candidate c : candidates) {
+					Suggestion candidate = c.suggestion;
+					if (!_predicate.apply(candidate))
+						continue;
+
+					_valid.add(candidate);
+					if (bestCost < 0)
+						bestCost = cost;
+					if (_valid.size() >= _maxSuggestions)
+						return _valid;
+				}
+			}
+
+			return _valid;
+		}
+
+		/**
+		 * Keeps the characters of the misspelling from the position of the state on, queueing a new state (with one more
+		 * transformation) for each transformation that can be applied along the way
+		 */
+		private void expand(State state, List<Candidate> candidates) {
+			StringBuilder output = new StringBuilder(_word.length() + 8).append(state.output);
+			int node = state.node;
+			int next = state.next;
+
+			for (int pos = state.pos; ; pos++) {
+				for (; next < _transformations.size() && _transformations.get(next).getIndex() < pos; next++);
+
+				for (int t = next; t < _transformations.size() && _transformations.get(t).getIndex() == pos; t++) {
+					Transformation transformation = _transformations.get(t);
+					int child = append(node, transformation.getReplacement());
+					if (child == -1) continue;
+
+					int[] chosen = Arrays.copyOf(state.chosen, state.chosen.length + 1);
+					chosen[state.chosen.length] = t;
+					_queue.add(new State(pos + transformation.getOriginal().length(), t + 1, child,
+							output.toString() + transformation.getReplacement(), chosen));
+				}
+
+				if (pos == _word.length()) {
+					if (state.chosen.length > 0 && (_lexicon == null || _lexicon.isWord(node)))
+						addCandidate(output.toString(), state.chosen, candidates);
+					return;
+				}
+
+				char c = _word.charAt(pos);
+				if (_lexicon != null) {
+					node = _lexicon.getChild(node, Character.toLowerCase(c));
+					if (node == -1) return;
+				}
+				output.append(c);
+			}
+		}
+
+		private int append(int node, String text) {
+			if (_lexicon == null)
+				return node;
+
+			for (int i = 0, iMax = text.length(); i < iMax && node != -1; i++)
+				node = _lexicon.getChild(node, Character.toLowerCase(text.charAt(i)));
+
+			return node;
+		}
+
+		private void addCandidate(String suggestion, int[] chosen, List<Candidate> candidates) {
+			// The same suggestion reached with more transformations is not a better candidate
+			if (!_generated.add(suggestion))
+				return;
+
+			ImmutableSet.Builder<Transformation> rules = ImmutableSet.builder();
+			double cost = 0;
+			for (int t : chosen) {
+				rules.add(_transformations.get(t));
+				cost += _costs[t];
+			}
+
+			Suggestion candidate = new Suggestion(_misspelling, suggestion, rules.build());
+			candidate.setEditDistance(Levenshtein.distance(_word, suggestion));
+			candidates.add(new Candidate(candidate, cost));
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the results as length-prefixed binary records (big-endian, strings in {@link DataOutputStream#writeUTF}
+ * format): an int with the length of the rest of the record, followed by a type byte and the fields of the record
+ *
+ * <pre>
+ * misspelling ({@value #RECORD_MISSPELLING}): document, misspelling, 2gram score (double), 3gram score (double),
+ *     suggestion count (int), and for each suggestion: suggestion, levenshtein score (int), 2gram score (double),
+ *     3gram score (double), transformation count (int), and for each transformation: original, replacement, index (int)
+ * count ({@value #RECORD_COUNT}): document, misspelling, count (int)
+ * </pre>
+ *
+ * @author capitanu
+ */
+public class BinaryResultSink extends FileResultSink {
+
+	public static final String EXTENSION = ".bin";
+
+	public static final byte RECORD_MISSPELLING = 1;
+	public static final byte RECORD_COUNT = 2;
+
+	public BinaryResultSink(File directory, Mode mode, long rollSize) {
+		super(directory, EXTENSION, mode, rollSize);
+	}
+
+	@Override
+	protected byte[] encodeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+		RecordOutput out = new RecordOutput(RECORD_MISSPELLING);
+		out.writeUTF(documentName);
+		out.writeUTF(misspelling.getMisspelledWord());
+		out.writeDouble(misspelling.getBigramScore());
+		out.writeDouble(misspelling.getTrigramScore());
+		out.writeInt(misspelling.getSuggestions().size());
+
+		for (Suggestion suggestion : misspelling.getSuggestions()) {
+			Score score = suggestion.getScore();
+			out.writeUTF(suggestion.getSuggestion());
+			out.writeInt(score.getLevenshteinScore());
+			out.writeDouble(score.getBigramScore());
+			out.writeDouble(score.getTrigramScore());
+			out.writeInt(suggestion.getTransformations().size());
+
+			for (Transformation transformation : suggestion.getTransformations()) {
+				out.writeUTF(transformation.getOriginal());
+				out.writeUTF(transformation.getReplacement());
+				out.writeInt(transformation.getIndex());
+			}
+		}
+
+		return out.toRecord();
+	}
+
+	@Override
+	protected byte[] encodeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+		RecordOutput out = new RecordOutput(RECORD_COUNT);
+		out.writeUTF(documentName);
+		out.writeUTF(misspelling.getMisspelledWord());
+		out.writeInt(count);
+
+		return out.toRecord();
+	}
+
+	/**
+	 * Accumulates the fields of a record, leaving room for the length prefix
+	 */
+	private static class RecordOutput extends DataOutputStream {
+		RecordOutput(byte type) throws IOException {
+			super(new ByteArrayOutputStream(128));
+			writeInt(0);
+			writeByte(type);
+		}
+
+		byte[] toRecord() {
+			byte[] record = ((ByteArrayOutputStream) out).toByteArray();
+			int length = record.length - 4;
+			record[0] = (byte) (length >>> 24);
+			record[1] = (byte) (length >>> 16);
+			record[2] = (byte) (length >>> 8);
+			record[3] = (byte) length;
+
+			return record;
+		}
+	}
+}
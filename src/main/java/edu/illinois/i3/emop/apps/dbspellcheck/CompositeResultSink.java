@@ -0,0 +1,80 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Forwards the results to several sinks
+ *
+ * @author capitanu
+ */
+public class CompositeResultSink implements ResultSink {
+
+	private final List<ResultSink> _sinks;
+
+	public CompositeResultSink(List<? extends ResultSink> sinks) {
+		_sinks = ImmutableList.copyOf(sinks);
+	}
+
+	public void startDocument(String documentName) throws IOException {
+		for (ResultSink sink : _sinks)
+			sink.startDocument(documentName);
+	}
+
+	public void writeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+		for (ResultSink sink : _sinks)
+			sink.writeMisspelling(documentName, misspelling);
+	}
+
+	public void writeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+		for (ResultSink sink : _sinks)
+			sink.writeCount(documentName, misspelling, count);
+	}
+
+	public void endDocument(String documentName) throws IOException {
+		for (ResultSink sink : _sinks)
+			sink.endDocument(documentName);
+	}
+
+	/**
+	 * Aborts the document in all the sinks, even if some of them fail to
+	 */
+	public void abortDocument(String documentName) throws IOException {
+		IOException error = null;
+
+		for (ResultSink sink : _sinks) {
+			try {
+				sink.abortDocument(documentName);
+			}
+			catch (IOException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Closes all the sinks, even if some of them fail to close
+	 */
+	public void close() throws IOException {
+		IOException error = null;
+
+		for (ResultSink sink : _sinks) {
+			try {
+				sink.close();
+			}
+			catch (IOException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+
+		if (error != null)
+			throw error;
+	}
+}
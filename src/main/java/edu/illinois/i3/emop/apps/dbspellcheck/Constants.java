@@ -14,4 +14,8 @@ public class Constants {
 	public static final String TABLE_MISSPELLINGS = "misspellings";
 	public static final String TABLE_SUGGESTIONS = "suggestions";
 
+	// The widths of the misspelling and suggestion columns of the result tables
+	public static final int MAX_MISSPELLING_LENGTH = 50;
+	public static final int MAX_SUGGESTION_LENGTH = 100;
+
 }
@@ -0,0 +1,262 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spellchecks a corpus type by type rather than token by token, in two phases: the cleaned tokens of each document
+ * are counted first ({@link #collect(File)}); each distinct token of the corpus is then checked once, in parallel
+ * ({@link #checkTypes()}), and the results are fanned back out to the misspelling counts of each document
+ * ({@link #finish(String)}). The work of the check therefore grows with the vocabulary of the corpus rather
+ * than with its length, at the cost of keeping the token counts of all the documents in memory.
+ *
+ * The results are the same as when checking each document on its own; only the order in which the misspellings
+ * of a document are passed to the result sink differs.
+ *
+ * @author capitanu
+ */
+public class CorpusTypeCheck {
+
+    /**
+     * The number of tokens below which a fork-join task checks its tokens instead of splitting them
+     */
+    public static final int DEFAULT_TASK_SIZE = 256;
+
+    private static final Logger log = LoggerFactory.getLogger(CorpusTypeCheck.class);
+
+    private final DocumentProcessor _processor;
+    private final ForkJoinPool _forkJoinPool;
+    private final int _taskSize;
+    private final Map<String, Multiset<String>> _documentTokens = Maps.newConcurrentMap();
+    private final Map<String, TokenCheckResult> _results = Maps.newConcurrentMap();
+    private final Map<String, List<String>> _splitTokens = Maps.newConcurrentMap();	// the cleaned parts of the split tokens
+
+    /**
+     * @param processor    The processor providing the settings of the check and the documents receiving the results
+     * @param forkJoinPool The pool checking the distinct tokens
+     */
+    public CorpusTypeCheck(DocumentProcessor processor, ForkJoinPool forkJoinPool) {
+        this(processor, forkJoinPool, DEFAULT_TASK_SIZE);
+    }
+
+    /**
+     * @param processor    The processor providing the settings of the check and the documents receiving the results
+     * @param forkJoinPool The pool checking the distinct tokens
+     * @param taskSize     The number of tokens below which a task checks its tokens instead of splitting them
+     */
+    public CorpusTypeCheck(DocumentProcessor processor, ForkJoinPool forkJoinPool, int taskSize) {
+        _processor = processor;
+        _forkJoinPool = forkJoinPool;
+        _taskSize = taskSize;
+    }
+
+    /**
+     * First phase: counts the cleaned tokens of a document; documents may be collected concurrently
+     *
+     * @param file The OCR XML file
+     * @throws OCRCheckException If the document is malformed
+     * @throws Exception
+     */
+    public void collect(File file) throws Exception {
+        log.info("Collecting tokens: " + file);
+        InputStream documentStream = new FileInputStream(file);
+
+        try {
+            OCRTokenIterator tokenIterator = _processor.openTokenIterator(documentStream, file);
+            OCRDocument document = new OCRDocument(file.getName(), tokenIterator);
+            Multiset<String> tokenCounts = HashMultiset.create();
+
+            try {
+                _processor.createOCRCheck(document).collectTokens(tokenCounts);
+            }
+            catch (RuntimeException e) {
+                // The token iterators report parse errors as unchecked exceptions
+                throw new OCRCheckException("Cannot process " + file, e);
+            }
+
+            Metrics metrics = _processor.getMetrics();
+            if (metrics != null)
+                _processor.recordParseTime(tokenIterator, metrics.getRecorder());
+
+            _documentTokens.put(file.getName(), tokenCounts);
+        }
+        finally {
+            documentStream.close();
+        }
+    }
+
+    /**
+     * Second phase: checks each distinct token of the collected documents once, along with the parts
+     * of the tokens split by the check
+     *
+     * @throws Exception
+     */
+    public void checkTypes() throws Exception {
+        Set<String> types = Sets.newHashSet();
+        for (Multiset<String> tokenCounts : _documentTokens.values())
+            types.addAll(tokenCounts.elementSet());
+
+        log.info("Checking {} distinct tokens of {} document(s)", types.size(), _documentTokens.size());
+
+        while (!types.isEmpty()) {
+            long start = System.nanoTime();
+            String[] tokens = types.toArray(new String[types.size()]);
+
+            try {
+                _forkJoinPool.invoke(new CheckTypesTask(tokens, 0, tokens.length));
+            }
+            catch (CheckFailedException e) {
+                // The pool may rethrow a copy of the exception, wrapping the original one
+                Throwable cause = e.getCause();
+                if (cause instanceof CheckFailedException)
+                    cause = cause.getCause();
+                throw (Exception) cause;
+            }
+
+            log.info(String.format("Checked %,d tokens in %.2f s", tokens.length, (System.nanoTime() - start) / 1e9));
+
+            // The parts of the split tokens not seen yet are checked next
+            types.clear();
+            for (String token : tokens) {
+                List<String> parts = _splitTokens.get(token);
+                if (parts == null) continue;
+
+                for (String part : parts)
+                    if (!_results.containsKey(part))
+                        types.add(part);
+            }
+        }
+    }
+
+    /**
+     * Names of the collected documents
+     */
+    public Set<String> getDocumentNames() {
+        return _documentTokens.keySet();
+    }
+
+    /**
+     * Last phase: passes the misspellings of a collected document to the result sink, once the tokens are checked;
+     * the token counts of the document are released
+     *
+     * @param documentName The document
+     * @return The document
+     * @throws IOException
+     */
+    public OCRDocument finish(String documentName) throws IOException {
+        Multiset<String> tokenCounts = _documentTokens.remove(documentName);
+        if (tokenCounts == null)
+            throw new IllegalArgumentException("Document not collected: " + documentName);
+
+        Metrics metrics = _processor.getMetrics();
+        Metrics.Recorder recorder = (metrics != null) ? metrics.getRecorder() : Metrics.Recorder.DISABLED;
+
+        OCRDocument document = _processor.createDocument(documentName, Iterators.<String>emptyIterator());
+        document.start();
+
+        for (Multiset.Entry<String> entry : tokenCounts.entrySet())
+            addOccurrences(document, entry.getElement(), entry.getCount(), recorder);
+
+        document.finish();
+
+        return document;
+    }
+
+    private void addOccurrences(OCRDocument document, String cleanedToken, int count, Metrics.Recorder recorder) throws IOException {
+        TokenCheckResult result = _results.get(cleanedToken);
+
+        switch (result.getType()) {
+            case CORRECT:
+                recorder.add(Metrics.Counter.DICTIONARY_HITS, count);
+                break;
+
+            case MISSPELLING:
+                recorder.add(Metrics.Counter.MISSPELLINGS, count);
+                document.addMisspelling(result.getMisspelling(), count);
+                break;
+
+            case SPLIT:
+                for (String part : _splitTokens.get(cleanedToken))
+                    addOccurrences(document, part, count, recorder);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Checks a range of tokens, splitting it in half while it is larger than the task size
+     */
+    @SuppressWarnings("serial")
+    private class CheckTypesTask extends RecursiveAction {
+        private final String[] _tokens;
+        private final int _from;
+        private final int _to;
+
+        CheckTypesTask(String[] tokens, int from, int to) {
+            _tokens = tokens;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > _taskSize) {
+                int middle = (_from + _to) >>> 1;
+                invokeAll(new CheckTypesTask(_tokens, _from, middle), new CheckTypesTask(_tokens, middle, _to));
+                return;
+            }
+
+            try {
+                List<String> tokens = Arrays.asList(_tokens).subList(_from, _to);
+                OCRCheck ocrCheck = _processor.createOCRCheck(new OCRDocument("", Iterators.<String>emptyIterator()));
+                List<TokenCheckResult> results = ocrCheck.checkTokens(tokens, _processor.getDictionary(), _processor.getRuleMatcher());
+
+                for (int i = 0, iMax = tokens.size(); i < iMax; i++) {
+                    String token = tokens.get(i);
+                    TokenCheckResult result = results.get(i);
+                    _results.put(token, result);
+
+                    if (result.getType() == TokenCheckResult.Type.SPLIT) {
+                        // The parts are cleaned like the tokens of a document
+                        List<String> parts = Lists.newArrayListWithCapacity(result.getParts().length);
+                        for (String part : result.getParts()) {
+                            String cleanedPart = ocrCheck.cleanToken(part.trim());
+                            if (!cleanedPart.isEmpty())
+                                parts.add(cleanedPart);
+                        }
+                        _splitTokens.put(token, parts);
+                    }
+                }
+            }
+            catch (Exception e) {
+                throw new CheckFailedException(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class CheckFailedException extends RuntimeException {
+        CheckFailedException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import edu.illinois.i3.spellcheck.engine.SpellDictionary;
+import edu.illinois.i3.spellcheck.engine.Word;
+
+/**
+ * Immutable dictionary stored as a minimal acyclic automaton (DAWG), built from the sorted word list with the
+ * incremental algorithm of Daciuk et al. The transitions of all states are packed into primitive arrays, sorted by
+ * label, so {@link #isCorrect(String)} and prefix traversal do not allocate. The arrays can be written to a file and
+ * read back as views of a (memory-mapped) buffer, see {@link #writeTo(DataOutputStream)} and {@link #readFrom(ByteBuffer)}.
+ *
+ * Only the parts of {@link SpellDictionary} used by the spellchecker are supported: words cannot be added after
+ * the dictionary is built, and {@link #getSuggestions(String, int)} returns the words within a (unit cost)
+ * edit distance of the given word rather than Jazzy's phonetic suggestions.
+ *
+ * @author capitanu
+ */
+public class DAWGDictionary implements SpellDictionary, PrefixLexicon {
+
+	/** The cost of an edit operation, on the same scale as Jazzy's suggestion scores */
+	public static final int EDIT_COST = 100;
+
+	private static final int ROOT = 0;
+
+	private final IntBuffer _transitionStart;	// transitions of state s are at [_transitionStart[s], _transitionStart[s + 1])
+	private final CharBuffer _labels;
+	private final IntBuffer _targets;
+	private final ByteBuffer _isFinal;			// 1 for the final states
+	private final int _wordCount;
+
+	private DAWGDictionary(IntBuffer transitionStart, CharBuffer labels, IntBuffer targets, ByteBuffer isFinal, int wordCount) {
+		_transitionStart = transitionStart;
+		_labels = labels;
+		_targets = targets;
+		_isFinal = isFinal;
+		_wordCount = wordCount;
+	}
+
+	/**
+	 * Reads a dictionary written by {@link #writeTo(DataOutputStream)}; the dictionary is a view of the buffer,
+	 * which is not copied
+	 *
+	 * @param buffer The buffer, positioned at the start of the dictionary (its position is moved past the dictionary)
+	 * @return The dictionary
+	 */
+	public static DAWGDictionary readFrom(ByteBuffer buffer) {
+		int stateCount = buffer.getInt();
+		int transitionCount = buffer.getInt();
+		int wordCount = buffer.getInt();
+		buffer.getInt();
+
+		IntBuffer transitionStart = slice(buffer, 4 * (stateCount + 1)).asIntBuffer();
+		IntBuffer targets = slice(buffer, 4 * transitionCount).asIntBuffer();
+		CharBuffer labels = slice(buffer, 2 * transitionCount).asCharBuffer();
+		ByteBuffer isFinal = slice(buffer, stateCount);
+
+		return new DAWGDictionary(transitionStart, labels, targets, isFinal, wordCount);
+	}
+
+	/**
+	 * Writes the automaton arrays, to be read back by {@link #readFrom(ByteBuffer)}
+	 *
+	 * @param out The output
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(getStateCount());
+		out.writeInt(getTransitionCount());
+		out.writeInt(_wordCount);
+		out.writeInt(0);
+
+		for (int i = 0, iMax = _transitionStart.limit(); i < iMax; i++)
+			out.writeInt(_transitionStart.get(i));
+		for (int i = 0, iMax = _targets.limit(); i < iMax; i++)
+			out.writeInt(_targets.get(i));
+		for (int i = 0, iMax = _labels.limit(); i < iMax; i++)
+			out.writeChar(_labels.get(i));
+		for (int i = 0, iMax = _isFinal.limit(); i < iMax; i++)
+			out.writeByte(_isFinal.get(i));
+	}
+
+	/**
+	 * Builds a dictionary from a collection of words (in any order)
+	 *
+	 * @param words The words
+	 * @return The dictionary
+	 */
+	public static DAWGDictionary build(List<String> words) {
+		List<String> sortedWords = Lists.newArrayList(words);
+		Collections.sort(sortedWords);
+
+		Builder builder = new Builder();
+		for (String word : sortedWords)
+			builder.add(word);
+
+		return builder.build();
+	}
+
+	public boolean contains(CharSequence word) {
+		int node = ROOT;
+		for (int i = 0, iMax = word.length(); i < iMax && node != -1; i++)
+			node = getChild(node, word.charAt(i));
+
+		return node != -1 && isWord(node);
+	}
+
+	/**
+	 * Same semantics as Jazzy's dictionaries: a word is correct if either it or its lowercase form is in the dictionary
+	 */
+	public boolean isCorrect(String word) {
+		if (contains(word))
+			return true;
+
+		int node = ROOT;
+		for (int i = 0, iMax = word.length(); i < iMax && node != -1; i++)
+			node = getChild(node, Character.toLowerCase(word.charAt(i)));
+
+		return node != -1 && isWord(node);
+	}
+
+	public void addWord(String word) {
+		throw new UnsupportedOperationException("DAWGDictionary is immutable");
+	}
+
+	/**
+	 * Finds the dictionary words within an edit distance of a word
+	 *
+	 * @param sourceWord     The word
+	 * @param scoreThreshold The maximum cost of the suggestions ({@link #EDIT_COST} per edit)
+	 * @return The suggestions, lowest cost first
+	 */
+	public List<Word> getSuggestions(String sourceWord, int scoreThreshold) {
+		final Map<String, Integer> costs = new HashMap<String, Integer>();
+		int maxDistance = scoreThreshold / EDIT_COST;
+
+		int[] row = new int[sourceWord.length() + 1];
+		for (int i = 0; i < row.length; i++)
+			row[i] = i;
+
+		collectSuggestions(ROOT, new StringBuilder(), sourceWord, row, maxDistance, costs);
+
+		List<String> words = new ArrayList<String>(costs.keySet());
+		Collections.sort(words, new Comparator<String>() {
+			public int compare(String w1, String w2) {
+				int c = costs.get(w1).compareTo(costs.get(w2));
+				return c != 0 ? c : w1.compareTo(w2);
+			}
+		});
+
+		List<Word> suggestions = Lists.newArrayListWithCapacity(words.size());
+		for (String word : words)
+			suggestions.add(new Word(word, costs.get(word)));
+
+		return suggestions;
+	}
+
+	public List<Word> getSuggestions(String sourceWord, int scoreThreshold, int[][] matrix) {
+		return getSuggestions(sourceWord, scoreThreshold);
+	}
+
+	public int getRoot() {
+		return ROOT;
+	}
+
+	public int getChild(int node, char c) {
+		int low = _transitionStart.get(node);
+		int high = _transitionStart.get(node + 1) - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char label = _labels.get(mid);
+
+			if (label < c)
+				low = mid + 1;
+			else if (label > c)
+				high = mid - 1;
+			else
+				return _targets.get(mid);
+		}
+
+		return -1;
+	}
+
+	public boolean isWord(int node) {
+		return _isFinal.get(node) != 0;
+	}
+
+	/**
+	 * @return All the words of the dictionary, in sorted order
+	 */
+	public List<String> getWords() {
+		List<String> words = Lists.newArrayListWithCapacity(_wordCount);
+		collectWords(ROOT, new StringBuilder(), words);
+
+		return words;
+	}
+
+	public int getWordCount() {
+		return _wordCount;
+	}
+
+	public int getStateCount() {
+		return _isFinal.limit();
+	}
+
+	public int getTransitionCount() {
+		return _labels.limit();
+	}
+
+	/**
+	 * @return The approximate size of the automaton arrays, in bytes
+	 */
+	public long getSizeInBytes() {
+		return 4L * _transitionStart.limit() + 2L * _labels.limit() + 4L * _targets.limit() + _isFinal.limit();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DAWGDictionary[words: %,d, states: %,d, transitions: %,d, size: %,d bytes]",
+				_wordCount, getStateCount(), getTransitionCount(), getSizeInBytes());
+	}
+
+	/**
+	 * Depth-first traversal computing one row of the Levenshtein matrix per character of the prefix
+	 */
+	private void collectSuggestions(int node, StringBuilder prefix, String word, int[] row, int maxDistance, Map<String, Integer> costs) {
+		int distance = row[word.length()];
+		if (isWord(node) && distance <= maxDistance)
+			costs.put(prefix.toString(), distance * EDIT_COST);
+
+		for (int t = _transitionStart.get(node), tMax = _transitionStart.get(node + 1); t < tMax; t++) {
+			char c = _labels.get(t);
+			int[] nextRow = new int[row.length];
+			nextRow[0] = row[0] + 1;
+			int rowMin = nextRow[0];
+
+			for (int i = 1; i < row.length; i++) {
+				int cost = (word.charAt(i - 1) == c) ? 0 : 1;
+				nextRow[i] = Math.min(Math.min(nextRow[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+				rowMin = Math.min(rowMin, nextRow[i]);
+			}
+
+			if (rowMin <= maxDistance) {
+				prefix.append(c);
+				collectSuggestions(_targets.get(t), prefix, word, nextRow, maxDistance, costs);
+				prefix.setLength(prefix.length() - 1);
+			}
+		}
+	}
+
+	private void collectWords(int node, StringBuilder prefix, List<String> words) {
+		if (isWord(node))
+			words.add(prefix.toString());
+
+		for (int t = _transitionStart.get(node), tMax = _transitionStart.get(node + 1); t < tMax; t++) {
+			prefix.append(_labels.get(t));
+			collectWords(_targets.get(t), prefix, words);
+			prefix.setLength(prefix.length() - 1);
+		}
+	}
+
+	/**
+	 * @return A buffer over the next bytes of a buffer, whose position is moved past them
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+
+		return slice;
+	}
+
+	/**
+	 * Incremental construction of a minimal automaton from words added in sorted order
+	 */
+	public static class Builder {
+		private final Map<State, State> _register = new HashMap<State, State>();
+		private final List<State> _path = new ArrayList<State>();	// states along the last word added
+		private String _previousWord = "";
+		private int _wordCount = 0;
+		private boolean _built = false;
+
+		public Builder() {
+			_path.add(new State());
+		}
+
+		/**
+		 * Adds a word; words must be added in sorted ({@link String#compareTo(String)}) order, duplicates are ignored
+		 *
+		 * @param word The word
+		 */
+		public void add(String word) {
+			if (_built)
+				throw new IllegalStateException("The dictionary has already been built");
+
+			int cmp = word.compareTo(_previousWord);
+			if (cmp < 0)
+				throw new IllegalArgumentException(
+						String.format("Words must be added in sorted order: '%s' after '%s'", word, _previousWord));
+			if (cmp == 0 && _wordCount > 0)
+				return;
+
+			int common = 0;
+			int maxCommon = Math.min(word.length(), _previousWord.length());
+			while (common < maxCommon && word.charAt(common) == _previousWord.charAt(common))
+				common++;
+
+			minimize(common);
+
+			for (int i = common, iMax = word.length(); i < iMax; i++) {
+				State state = new State();
+				_path.get(i).addTransition(word.charAt(i), state);
+				_path.add(state);
+			}
+
+			_path.get(word.length()).isFinal = true;
+			_previousWord = word;
+			_wordCount++;
+		}
+
+		public DAWGDictionary build() {
+			minimize(0);
+			_built = true;
+
+			// Number the states in breadth-first order, starting from the root
+			State root = _path.get(0);
+			Map<State, Integer> ids = new IdentityHashMap<State, Integer>();
+			List<State> states = new ArrayList<State>();
+			ids.put(root, 0);
+			states.add(root);
+
+			int transitionCount = 0;
+			for (int i = 0; i < states.size(); i++) {
+				State state = states.get(i);
+				transitionCount += state.size;
+
+				for (int t = 0; t < state.size; t++) {
+					State target = state.targets[t];
+					if (!ids.containsKey(target)) {
+						ids.put(target, states.size());
+						states.add(target);
+					}
+				}
+			}
+
+			int[] transitionStart = new int[states.size() + 1];
+			char[] labels = new char[transitionCount];
+			int[] targets = new int[transitionCount];
+			byte[] isFinal = new byte[states.size()];
+
+			int t = 0;
+			for (int s = 0; s < states.size(); s++) {
+				State state = states.get(s);
+				transitionStart[s] = t;
+				isFinal[s] = (byte) (state.isFinal ? 1 : 0);
+
+				for (int i = 0; i < state.size; i++, t++) {
+					labels[t] = state.labels[i];
+					targets[t] = ids.get(state.targets[i]);
+				}
+			}
+			transitionStart[states.size()] = t;
+
+			return new DAWGDictionary(IntBuffer.wrap(transitionStart), CharBuffer.wrap(labels), IntBuffer.wrap(targets),
+					ByteBuffer.wrap(isFinal), _wordCount);
+		}
+
+		/**
+		 * Replaces (or registers) the states of the previous word below the given depth by equivalent registered states
+		 */
+		private void minimize(int depth) {
+			for (int i = _path.size() - 1; i > depth; i--) {
+				State child = _path.get(i);
+				State registered = _register.get(child);
+
+				if (registered != null)
+					_path.get(i - 1).replaceLastTarget(registered);
+				else
+					_register.put(child, child);
+
+				_path.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Automaton state used during construction; the transitions are added in label order
+	 */
+	private static class State {
+		private char[] labels = new char[2];
+		private State[] targets = new State[2];
+		private int size = 0;
+		private boolean isFinal = false;
+
+		void addTransition(char label, State target) {
+			if (size == labels.length) {
+				labels = Arrays.copyOf(labels, size * 2);
+				targets = Arrays.copyOf(targets, size * 2);
+			}
+
+			labels[size] = label;
+			targets[size] = target;
+			size++;
+		}
+
+		void replaceLastTarget(State target) {
+			targets[size - 1] = target;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this) return true;
+			if (!(other instanceof State)) return false;
+
+			State s = (State) other;
+			if (isFinal != s.isFinal || size != s.size) return false;
+
+			for (int i = 0; i < size; i++)
+				if (labels[i] != s.labels[i] || targets[i] != s.targets[i])
+					return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = isFinal ? 1 : 0;
+			for (int i = 0; i < size; i++)
+				hash = 31 * (31 * hash + labels[i]) + System.identityHashCode(targets[i]);
+
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import static edu.illinois.i3.emop.utils.DBUtils.releaseConnection;
+import static edu.illinois.i3.emop.utils.DBUtils.rollbackTransaction;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.jolbox.bonecp.BoneCP;
+
+/**
+ * Persists the misspellings (and their suggestions) found in the documents to the DB.
+ *
+ * Misspellings are queued by the spellcheck workers and written by a dedicated thread using JDBC batch inserts,
+ * so DB latency does not stall the spellchecking (unless the bounded queue fills up). For best throughput with
+ * MySQL, the connection URL should enable "rewriteBatchedStatements". The misspelling rows are upserted, adding the
+ * reported counts to the stored count; the suggestions are written along with the first report of a misspelling.
+ * Aborting a document deletes all its rows (in queue order, so after any of its rows still waiting to be written).
+ *
+ * @author capitanu
+ */
+public class DBResultWriter implements ResultSink {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final Logger log = LoggerFactory.getLogger(DBResultWriter.class);
+
+	private static final MisspellingRecord END_OF_DATA = new MisspellingRecord(RecordType.END_OF_DATA, null, null, 0, false);
+
+	/**
+	 * Notified (by the writer thread) once all the rows of a document have been committed
+	 */
+	public interface CommitListener {
+		void documentCommitted(String documentName);
+	}
+
+	private final BoneCP _connectionPool;
+	private final BlockingQueue<MisspellingRecord> _queue;
+	private final int _batchSize;
+	private final Thread _writerThread;
+
+	private volatile Exception _error;
+	private volatile CommitListener _commitListener;
+	private long _misspellingRowCount = 0;
+	private long _suggestionRowCount = 0;
+
+	public DBResultWriter(BoneCP connectionPool) {
+		this(connectionPool, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param connectionPool The DB connection pool
+	 * @param queueCapacity  The maximum number of misspellings waiting to be written
+	 * @param batchSize      The maximum number of rows per batch insert
+	 */
+	public DBResultWriter(BoneCP connectionPool, int queueCapacity, int batchSize) {
+		_connectionPool = connectionPool;
+		_queue = new ArrayBlockingQueue<MisspellingRecord>(queueCapacity);
+		_batchSize = batchSize;
+
+		_writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "DBResultWriter");
+		_writerThread.setDaemon(true);
+		_writerThread.start();
+	}
+
+	public void setCommitListener(CommitListener commitListener) {
+		_commitListener = commitListener;
+	}
+
+	public void startDocument(String documentName) {
+	}
+
+	/**
+	 * Queues a misspelling and its suggestions to be written, waiting if the queue is full
+	 */
+	public void writeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+		enqueue(new MisspellingRecord(RecordType.MISSPELLING, documentName, misspelling, 0, true));
+	}
+
+	/**
+	 * Queues the count of a misspelling to be added to the count stored in the DB, waiting if the queue is full
+	 */
+	public void writeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+		enqueue(new MisspellingRecord(RecordType.MISSPELLING, documentName, misspelling, count, false));
+	}
+
+	/**
+	 * Queues the end of the document, so the commit listener (if any) is notified once its rows are committed
+	 */
+	public void endDocument(String documentName) throws IOException {
+		if (_commitListener != null)
+			enqueue(new MisspellingRecord(RecordType.END_OF_DOCUMENT, documentName, null, 0, false));
+	}
+
+	/**
+	 * Queues the deletion of all the rows of the document
+	 */
+	public void abortDocument(String documentName) throws IOException {
+		enqueue(new MisspellingRecord(RecordType.ABORT_DOCUMENT, documentName, null, 0, false));
+	}
+
+	/**
+	 * Writes all the queued misspellings and stops the writer thread
+	 *
+	 * @throws IOException If the writer failed
+	 */
+	public void close() throws IOException {
+		try {
+			if (_writerThread.isAlive()) {
+				_queue.put(END_OF_DATA);
+				_writerThread.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the results to be written", e);
+		}
+
+		if (_error != null)
+			throw new IOException("Error writing results to the DB", _error);
+
+		log.info(String.format("Wrote %,d misspelling rows and %,d suggestion rows", _misspellingRowCount, _suggestionRowCount));
+	}
+
+	private void enqueue(MisspellingRecord record) throws IOException {
+		if (_error != null)
+			throw new IOException("Error writing results to the DB", _error);
+
+		try {
+			_queue.put(record);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing results", e);
+		}
+	}
+
+	private void writeLoop() {
+		Connection connection = null;
+		PreparedStatement stmtMisspelling = null;
+		PreparedStatement stmtSuggestion = null;
+		PreparedStatement stmtDeleteMisspellings = null;
+		PreparedStatement stmtDeleteSuggestions = null;
+
+		try {
+			connection = _connectionPool.getConnection();
+			connection.setAutoCommit(false);
+
+			stmtMisspelling = connection.prepareStatement(String.format(
+					"INSERT INTO %s (document, document_hash, misspelling, 2gram_score, 3gram_score, count) VALUES (?, UNHEX(MD5(?)), ?, ?, ?, ?) " +
+					"ON DUPLICATE KEY UPDATE count = count + VALUES(count)", Constants.TABLE_MISSPELLINGS));
+			stmtSuggestion = connection.prepareStatement(String.format(
+					"INSERT INTO %s (document, document_hash, misspelling, suggestion, levenshtein_score, 2gram_score, 3gram_score, transformations) " +
+					"VALUES (?, UNHEX(MD5(?)), ?, ?, ?, ?, ?, ?)", Constants.TABLE_SUGGESTIONS));
+			stmtDeleteMisspellings = connection.prepareStatement(String.format(
+					"DELETE FROM %s WHERE document_hash = UNHEX(MD5(?))", Constants.TABLE_MISSPELLINGS));
+			stmtDeleteSuggestions = connection.prepareStatement(String.format(
+					"DELETE FROM %s WHERE document_hash = UNHEX(MD5(?))", Constants.TABLE_SUGGESTIONS));
+
+			List<MisspellingRecord> records = Lists.newArrayListWithCapacity(_batchSize);
+			List<String> committedDocuments = Lists.newArrayList();
+			boolean done = false;
+
+			while (!done) {
+				records.clear();
+				committedDocuments.clear();
+				records.add(_queue.take());
+				_queue.drainTo(records, _batchSize - 1);
+
+				int misspellingRows = 0, suggestionRows = 0;
+
+				for (MisspellingRecord record : records) {
+					if (record == END_OF_DATA) {
+						done = true;
+						break;
+					}
+
+					if (record.type == RecordType.END_OF_DOCUMENT) {
+						committedDocuments.add(record.documentName);
+						continue;
+					}
+
+					if (record.type == RecordType.ABORT_DOCUMENT) {
+						// The rows batched so far may belong to the document
+						executeBatches(stmtMisspelling, misspellingRows, stmtSuggestion, suggestionRows);
+						_misspellingRowCount += misspellingRows;
+						_suggestionRowCount += suggestionRows;
+						misspellingRows = suggestionRows = 0;
+
+						stmtDeleteMisspellings.setString(1, record.documentName);
+						stmtDeleteSuggestions.setString(1, record.documentName);
+						int deletedRows = stmtDeleteMisspellings.executeUpdate() + stmtDeleteSuggestions.executeUpdate();
+						log.debug("Deleted {} rows of {}", deletedRows, record.documentName);
+						continue;
+					}
+
+					Misspelling misspelling = record.misspelling;
+					stmtMisspelling.setString(1, record.documentName);
+					stmtMisspelling.setString(2, record.documentName);
+					stmtMisspelling.setString(3, misspelling.getMisspelledWord());
+					stmtMisspelling.setDouble(4, misspelling.getBigramScore());
+					stmtMisspelling.setDouble(5, misspelling.getTrigramScore());
+					stmtMisspelling.setInt(6, record.count);
+					stmtMisspelling.addBatch();
+					misspellingRows++;
+
+					if (!record.withSuggestions)
+						continue;
+
+					for (Suggestion suggestion : misspelling.getSuggestions()) {
+						Score score = suggestion.getScore();
+						stmtSuggestion.setString(1, record.documentName);
+						stmtSuggestion.setString(2, record.documentName);
+						stmtSuggestion.setString(3, misspelling.getMisspelledWord());
+						stmtSuggestion.setString(4, suggestion.getSuggestion());
+						stmtSuggestion.setInt(5, score.getLevenshteinScore());
+						stmtSuggestion.setDouble(6, score.getBigramScore());
+						stmtSuggestion.setDouble(7, score.getTrigramScore());
+						stmtSuggestion.setString(8, formatTransformations(suggestion));
+						stmtSuggestion.addBatch();
+						suggestionRows++;
+					}
+				}
+
+				executeBatches(stmtMisspelling, misspellingRows, stmtSuggestion, suggestionRows);
+				connection.commit();
+
+				_misspellingRowCount += misspellingRows;
+				_suggestionRowCount += suggestionRows;
+
+				CommitListener commitListener = _commitListener;
+				if (commitListener != null)
+					for (String documentName : committedDocuments)
+						commitListener.documentCommitted(documentName);
+			}
+		}
+		catch (Exception e) {
+			log.error("Error writing results to the DB", e);
+			rollbackTransaction(connection);
+			_error = e;
+
+			// Unblock any producers waiting on a full queue; later writes fail fast
+			_queue.clear();
+		}
+		finally {
+			releaseConnection(connection, stmtMisspelling, stmtSuggestion, stmtDeleteMisspellings, stmtDeleteSuggestions);
+		}
+	}
+
+	private static void executeBatches(PreparedStatement stmtMisspelling, int misspellingRows,
+									   PreparedStatement stmtSuggestion, int suggestionRows) throws SQLException {
+		if (misspellingRows > 0)
+			stmtMisspelling.executeBatch();
+		if (suggestionRows > 0)
+			stmtSuggestion.executeBatch();
+	}
+
+	private static String formatTransformations(Suggestion suggestion) {
+		List<String> transformations = Lists.newArrayListWithCapacity(suggestion.getTransformations().size());
+		for (Transformation transformation : suggestion.getTransformations())
+			transformations.add(String.format("%s->%s@%d",
+					transformation.getOriginal(), transformation.getReplacement(), transformation.getIndex()));
+
+		return Joiner.on(';').join(transformations);
+	}
+
+	private enum RecordType { MISSPELLING, END_OF_DOCUMENT, ABORT_DOCUMENT, END_OF_DATA }
+
+	private static class MisspellingRecord {
+		final RecordType type;
+		final String documentName;
+		final Misspelling misspelling;
+		final int count;
+		final boolean withSuggestions;
+
+		MisspellingRecord(RecordType type, String documentName, Misspelling misspelling, int count, boolean withSuggestions) {
+			this.type = type;
+			this.documentName = documentName;
+			this.misspelling = misspelling;
+			this.count = count;
+			this.withSuggestions = withSuggestions;
+		}
+	}
+}
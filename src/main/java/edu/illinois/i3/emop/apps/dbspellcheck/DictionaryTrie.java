@@ -0,0 +1,131 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Arrays;
+
+/**
+ * Array-based character trie over the dictionary words, used to prune candidate suggestions by prefix;
+ * the children of each node are kept in a linked list ordered by character
+ *
+ * @author capitanu
+ */
+public class DictionaryTrie implements PrefixLexicon {
+
+	private static final int ROOT = 0;
+
+	private char[] _labels;
+	private int[] _firstChild;
+	private int[] _nextSibling;
+	private boolean[] _isWord;
+	private int _nodeCount;
+	private int _wordCount;
+
+	public DictionaryTrie() {
+		this(1024);
+	}
+
+	/**
+	 * @param expectedNodes The expected number of nodes (roughly the total number of characters of all the words)
+	 */
+	public DictionaryTrie(int expectedNodes) {
+		int capacity = Math.max(expectedNodes, 16);
+		_labels = new char[capacity];
+		_firstChild = new int[capacity];
+		_nextSibling = new int[capacity];
+		_isWord = new boolean[capacity];
+		_nodeCount = 0;
+
+		newNode('\0');
+	}
+
+	/**
+	 * Adds a word to the trie
+	 *
+	 * @param word The word
+	 * @return True if the word was added, False if it was already present
+	 */
+	public boolean addWord(String word) {
+		int node = ROOT;
+
+		for (int i = 0, iMax = word.length(); i < iMax; i++) {
+			char c = word.charAt(i);
+
+			// Find the child labeled 'c', or the position where it should be inserted to keep the children ordered
+			int prev = -1;
+			int child = _firstChild[node];
+			while (child != -1 && _labels[child] < c) {
+				prev = child;
+				child = _nextSibling[child];
+			}
+
+			if (child == -1 || _labels[child] != c) {
+				int newChild = newNode(c);
+				_nextSibling[newChild] = child;
+				if (prev == -1)
+					_firstChild[node] = newChild;
+				else
+					_nextSibling[prev] = newChild;
+				child = newChild;
+			}
+
+			node = child;
+		}
+
+		if (_isWord[node]) return false;
+
+		_isWord[node] = true;
+		_wordCount++;
+
+		return true;
+	}
+
+	public boolean contains(String word) {
+		int node = ROOT;
+		for (int i = 0, iMax = word.length(); i < iMax && node != -1; i++)
+			node = getChild(node, word.charAt(i));
+
+		return node != -1 && _isWord[node];
+	}
+
+	public int getRoot() {
+		return ROOT;
+	}
+
+	public int getChild(int node, char c) {
+		for (int child = _firstChild[node]; child != -1; child = _nextSibling[child]) {
+			char label = _labels[child];
+			if (label == c) return child;
+			if (label > c) break;
+		}
+
+		return -1;
+	}
+
+	public boolean isWord(int node) {
+		return _isWord[node];
+	}
+
+	public int getWordCount() {
+		return _wordCount;
+	}
+
+	public int getNodeCount() {
+		return _nodeCount;
+	}
+
+	private int newNode(char label) {
+		if (_nodeCount == _labels.length) {
+			int capacity = _labels.length * 2;
+			_labels = Arrays.copyOf(_labels, capacity);
+			_firstChild = Arrays.copyOf(_firstChild, capacity);
+			_nextSibling = Arrays.copyOf(_nextSibling, capacity);
+			_isWord = Arrays.copyOf(_isWord, capacity);
+		}
+
+		int node = _nodeCount++;
+		_labels[node] = label;
+		_firstChild[node] = -1;
+		_nextSibling[node] = -1;
+
+		return node;
+	}
+}
@@ -0,0 +1,357 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import com.google.common.collect.Iterators;
+import com.jolbox.bonecp.BoneCP;
+
+import edu.illinois.i3.spellcheck.engine.SpellDictionary;
+
+/**
+ * Spellchecks OCR documents, passing the results to a (shared) result sink; the dictionary, n-gram model and OCR
+ * rules are only read, so a processor can be shared between concurrent workers
+ *
+ * @author capitanu
+ */
+public class DocumentProcessor {
+
+	private static final Logger log = LoggerFactory.getLogger(DocumentProcessor.class);
+
+	private final SpellDictionary _dictionary;
+	private final OCRRuleMatcher _ruleMatcher;
+	private final ResultSink _resultSink;
+	private final BoneCP _connectionPool;
+	private boolean _useDomParser = false;
+	private PrefixLexicon _prefixLexicon;
+	private NGramModel _ngramModel;
+	private SymSpellIndex _symSpellIndex;
+	private int _symSpellDistance = 0;
+	private TokenCache _tokenCache;
+	private int _bestFirstLimit = 0;
+	private int _bestFirstSlack = 0;
+	private int _maxSuggestions = 0;
+	private int _maxPendingCounts = 0;
+	private WordSegmenter _wordSegmenter;
+	private Metrics _metrics;
+	private int _pagesPerTask = 0;
+	private ExecutorService _pageExecutor;
+
+	/**
+	 * @param dictionary     The dictionary
+	 * @param ruleMatcher    The (compiled) OCR rules
+	 * @param resultSink     The sink receiving the results
+	 * @param connectionPool The DB connection pool
+	 */
+	public DocumentProcessor(SpellDictionary dictionary, OCRRuleMatcher ruleMatcher, ResultSink resultSink, BoneCP connectionPool) {
+		_dictionary = dictionary;
+		_ruleMatcher = ruleMatcher;
+		_resultSink = resultSink;
+		_connectionPool = connectionPool;
+	}
+
+	/**
+	 * Creates a processor with the settings of another processor, but other OCR rules and result sink
+	 *
+	 * @param processor   The processor
+	 * @param ruleMatcher The (compiled) OCR rules
+	 * @param resultSink  The sink receiving the results
+	 */
+	public DocumentProcessor(DocumentProcessor processor, OCRRuleMatcher ruleMatcher, ResultSink resultSink) {
+		this(processor._dictionary, ruleMatcher, resultSink, processor._connectionPool);
+
+		_useDomParser = processor._useDomParser;
+		_prefixLexicon = processor._prefixLexicon;
+		_ngramModel = processor._ngramModel;
+		_symSpellIndex = processor._symSpellIndex;
+		_symSpellDistance = processor._symSpellDistance;
+		_tokenCache = processor._tokenCache;
+		_bestFirstLimit = processor._bestFirstLimit;
+		_bestFirstSlack = processor._bestFirstSlack;
+		_maxSuggestions = processor._maxSuggestions;
+		_maxPendingCounts = processor._maxPendingCounts;
+		_wordSegmenter = processor._wordSegmenter;
+		_metrics = processor._metrics;
+		_pagesPerTask = processor._pagesPerTask;
+		_pageExecutor = processor._pageExecutor;
+	}
+
+	/**
+	 * @param useDomParser True to tokenize the files using the DOM/XPath parser, False to use the streaming parser
+	 */
+	public void setUseDomParser(boolean useDomParser) {
+		_useDomParser = useDomParser;
+	}
+
+	/**
+	 * @param prefixLexicon The dictionary words used to prune candidate suggestions (null to enumerate all transformation subsets)
+	 */
+	public void setPrefixLexicon(PrefixLexicon prefixLexicon) {
+		_prefixLexicon = prefixLexicon;
+	}
+
+	/**
+	 * @param ngramModel The n-gram counts
+	 */
+	public void setNGramModel(NGramModel ngramModel) {
+		_ngramModel = ngramModel;
+	}
+
+	/**
+	 * @param symSpellIndex The index used to add the dictionary words close to the misspellings to the suggestions (may be null)
+	 * @param maxDistance   The maximum edit distance of the suggestions found through the index
+	 */
+	public void setSymSpellIndex(SymSpellIndex symSpellIndex, int maxDistance) {
+		_symSpellIndex = symSpellIndex;
+		_symSpellDistance = maxDistance;
+	}
+
+	/**
+	 * @param tokenCache The (shared) token result cache
+	 */
+	public void setTokenCache(TokenCache tokenCache) {
+		_tokenCache = tokenCache;
+	}
+
+	/**
+	 * @param maxSuggestions The number of valid suggestions after which the best-first candidate search stops (0 to not search best-first)
+	 * @param costSlack      The number of transformations, beyond those of the best valid suggestion, after which the best-first search stops
+	 */
+	public void setBestFirstSearch(int maxSuggestions, int costSlack) {
+		_bestFirstLimit = maxSuggestions;
+		_bestFirstSlack = costSlack;
+	}
+
+	/**
+	 * @param maxSuggestions The maximum number of suggestions kept per misspelling (0 to keep all of them)
+	 */
+	public void setMaxSuggestions(int maxSuggestions) {
+		_maxSuggestions = maxSuggestions;
+	}
+
+	/**
+	 * @param maxPendingCounts The maximum number of distinct misspellings whose counts are kept in memory before
+	 *                         being passed to the sink (0 to keep all the misspellings of the document in memory)
+	 */
+	public void setMaxPendingCounts(int maxPendingCounts) {
+		_maxPendingCounts = maxPendingCounts;
+	}
+
+	/**
+	 * @param wordSegmenter The segmenter suggesting segmentations of run-together words (null to not segment words)
+	 */
+	public void setWordSegmenter(WordSegmenter wordSegmenter) {
+		_wordSegmenter = wordSegmenter;
+	}
+
+	/**
+	 * @param metrics The metrics receiving the counters and stage timings (null to not record any)
+	 */
+	public void setMetrics(Metrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Checks the documents with more than a given number of pages by splitting them into ranges of pages
+	 * checked concurrently (see {@link PageParallelOCRCheck})
+	 *
+	 * @param pagesPerTask The number of pages checked by each task (0 to check each document sequentially)
+	 * @param executor     The executor running the tasks (must not be the one running the documents, to avoid deadlocks)
+	 */
+	public void setPageParallelism(int pagesPerTask, ExecutorService executor) {
+		_pagesPerTask = pagesPerTask;
+		_pageExecutor = executor;
+	}
+
+	/**
+	 * Spellchecks a single OCR document
+	 *
+	 * @param file The OCR XML file
+	 * @return The processed document
+	 * @throws OCRCheckException If the document is malformed
+	 * @throws Exception
+	 */
+	public OCRDocument process(File file) throws Exception {
+		log.info("Processing file: " + file);
+		Metrics.Recorder recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+		long start = recorder.startTimer();
+
+		PageIndex pageIndex = (_pagesPerTask > 0) ? PageIndex.build(file) : null;
+		if (pageIndex != null && pageIndex.getPageCount() <= _pagesPerTask)
+			pageIndex = null;
+
+		InputStream documentStream = (pageIndex == null) ? new FileInputStream(file) : null;
+
+		try {
+			Iterator<String> tokenIterator = (documentStream == null) ?
+					Iterators.<String>emptyIterator() : openTokenIterator(documentStream, file.toString(), recorder);
+
+			OCRDocument document = createDocument(file.getName(), tokenIterator);
+			OCRCheck ocrCheck;
+			if (pageIndex != null) {
+				log.debug("Checking {} ({}) in ranges of {} pages", file, pageIndex, _pagesPerTask);
+				ocrCheck = new PageParallelOCRCheck(document, pageIndex, _pagesPerTask, _useDomParser, _pageExecutor, _connectionPool);
+				configure(ocrCheck);
+			}
+			else
+				ocrCheck = createOCRCheck(document);
+
+			try {
+				ocrCheck.processDocument(_dictionary, _ruleMatcher);
+			}
+			catch (RuntimeException e) {
+				// The token iterators report parse errors as unchecked exceptions
+				throw new OCRCheckException("Cannot process " + file, e);
+			}
+			recordParseTime(tokenIterator, recorder);
+			recorder.record(Metrics.Stage.DOCUMENT, start);
+
+			return document;
+		}
+		finally {
+			if (documentStream != null)
+				documentStream.close();
+		}
+	}
+
+	/**
+	 * Spellchecks a single OCR document read from a stream (sequentially)
+	 *
+	 * @param documentName   The document name
+	 * @param documentStream The OCR XML document
+	 * @return The processed document
+	 * @throws OCRCheckException If the document is malformed
+	 * @throws Exception
+	 */
+	public OCRDocument process(String documentName, InputStream documentStream) throws Exception {
+		Metrics.Recorder recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+		long start = recorder.startTimer();
+
+		OCRTokenIterator tokenIterator = openTokenIterator(documentStream, documentName, recorder);
+		OCRDocument document = createDocument(documentName, tokenIterator);
+		try {
+			createOCRCheck(document).processDocument(_dictionary, _ruleMatcher);
+		}
+		catch (RuntimeException e) {
+			// The token iterators report parse errors as unchecked exceptions
+			throw new OCRCheckException("Cannot process " + documentName, e);
+		}
+		recordParseTime(tokenIterator, recorder);
+		recorder.record(Metrics.Stage.DOCUMENT, start);
+
+		return document;
+	}
+
+	/**
+	 * Tokenizes an OCR document
+	 *
+	 * @param documentStream The OCR XML document
+	 * @param file           The file of the document
+	 * @return The tokens
+	 * @throws OCRCheckException If the document cannot be parsed
+	 */
+	public OCRTokenIterator openTokenIterator(InputStream documentStream, File file) throws OCRCheckException {
+		Metrics.Recorder recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+		return openTokenIterator(documentStream, file.toString(), recorder);
+	}
+
+	/**
+	 * Records the time spent parsing a document, if its tokens were opened by this processor with the metrics enabled
+	 *
+	 * @param tokenIterator The tokens of the document, all read
+	 * @param recorder      The recorder of the current thread
+	 */
+	public void recordParseTime(Iterator<String> tokenIterator, Metrics.Recorder recorder) {
+		if (tokenIterator instanceof TimedTokenIterator)
+			recorder.recordNanos(Metrics.Stage.PARSE, ((TimedTokenIterator) tokenIterator).getNanos());
+	}
+
+	/**
+	 * Tokenizes an OCR document, timing the parsing if the metrics are recorded (see {@link TimedTokenIterator})
+	 */
+	private OCRTokenIterator openTokenIterator(InputStream documentStream, String documentName, Metrics.Recorder recorder)
+			throws OCRCheckException {
+		if (!recorder.isEnabled())
+			return openTokenIterator(documentStream, documentName);
+
+		long start = System.nanoTime();
+		OCRTokenIterator tokenIterator = openTokenIterator(documentStream, documentName);
+
+		return new TimedTokenIterator(tokenIterator, System.nanoTime() - start);
+	}
+
+	private OCRTokenIterator openTokenIterator(InputStream documentStream, String documentName) throws OCRCheckException {
+		try {
+			return _useDomParser ?
+					new OCRXMLTokenIterator(documentStream) : new OCRXMLStreamTokenIterator(documentStream);
+		}
+		catch (XMLStreamException | SAXException | ParserConfigurationException | XPathExpressionException | IOException e) {
+			throw new OCRCheckException("Cannot parse " + documentName, e);
+		}
+	}
+
+	/**
+	 * Creates a document passing its results to the result sink
+	 *
+	 * @param name          The document name
+	 * @param tokenIterator The document tokens
+	 * @return The document
+	 */
+	public OCRDocument createDocument(String name, Iterator<String> tokenIterator) {
+		return (_maxPendingCounts > 0) ?
+				new StreamingOCRDocument(name, tokenIterator, _resultSink, _maxPendingCounts) :
+				new OCRDocument(name, tokenIterator, _resultSink);
+	}
+
+	/**
+	 * Creates a check of a document, using the settings of this processor
+	 *
+	 * @param document The document
+	 * @return The check
+	 * @throws SQLException
+	 */
+	public OCRCheck createOCRCheck(OCRDocument document) throws SQLException {
+		OCRCheck ocrCheck = new OCRCheck(document, _connectionPool);
+		configure(ocrCheck);
+
+		return ocrCheck;
+	}
+
+	public SpellDictionary getDictionary() {
+		return _dictionary;
+	}
+
+	public OCRRuleMatcher getRuleMatcher() {
+		return _ruleMatcher;
+	}
+
+	public Metrics getMetrics() {
+		return _metrics;
+	}
+
+	private void configure(OCRCheck ocrCheck) {
+		ocrCheck.setNGramModel(_ngramModel);
+		ocrCheck.setTokenCache(_tokenCache);
+		ocrCheck.setPrefixLexicon(_prefixLexicon);
+		ocrCheck.setMaxSuggestions(_maxSuggestions);
+		ocrCheck.setWordSegmenter(_wordSegmenter);
+		ocrCheck.setMetrics(_metrics);
+		if (_symSpellIndex != null)
+			ocrCheck.setSymSpellIndex(_symSpellIndex, _symSpellDistance);
+		if (_bestFirstLimit > 0)
+			ocrCheck.setBestFirstSearch(_bestFirstLimit, _bestFirstSlack);
+	}
+}
@@ -0,0 +1,199 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Files;
+
+/**
+ * Base class for the sinks writing the results to files, either one file per document or a single file per run
+ * (rolled over to a new file once it reaches a given size).
+ *
+ * Each result is encoded into a self-contained record as soon as it is received and appended to a buffered
+ * file channel, so no more than one buffer's worth of results is held in memory per open file.
+ *
+ * @author capitanu
+ */
+public abstract class FileResultSink implements ResultSink {
+
+	public enum Mode { DOCUMENT, RUN }
+
+	public static final int BUFFER_SIZE = 64 * 1024;
+	public static final long DEFAULT_ROLL_SIZE = 256L * 1024 * 1024;
+
+	private static final Logger log = LoggerFactory.getLogger(FileResultSink.class);
+
+	private final File _directory;
+	private final String _extension;
+	private final Mode _mode;
+	private final long _rollSize;
+	private final String _runName;
+	private final Map<String, Output> _documentOutputs = new ConcurrentHashMap<String, Output>();
+	private Output _runOutput;
+	private int _runFileCount = 0;
+
+	/**
+	 * @param directory The directory where the files are created
+	 * @param extension The extension of the files (including the dot)
+	 * @param mode      Whether to create a file per document or per run
+	 * @param rollSize  The size (in bytes) after which a new run file is started (0 to never roll over)
+	 */
+	protected FileResultSink(File directory, String extension, Mode mode, long rollSize) {
+		_directory = directory;
+		_extension = extension;
+		_mode = mode;
+		_rollSize = rollSize;
+		_runName = "results-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+	}
+
+	/**
+	 * Encodes a misspelling (and its suggestions) into a record
+	 */
+	protected abstract byte[] encodeMisspelling(String documentName, Misspelling misspelling) throws IOException;
+
+	/**
+	 * Encodes the count of a misspelling into a record
+	 */
+	protected abstract byte[] encodeCount(String documentName, Misspelling misspelling, int count) throws IOException;
+
+	public void startDocument(String documentName) throws IOException {
+		if (_mode == Mode.DOCUMENT) {
+			File file = new File(_directory, Files.getNameWithoutExtension(documentName) + _extension);
+			_documentOutputs.put(documentName, new Output(file));
+		}
+	}
+
+	public void writeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+		write(documentName, encodeMisspelling(documentName, misspelling));
+	}
+
+	public void writeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+		write(documentName, encodeCount(documentName, misspelling, count));
+	}
+
+	public void endDocument(String documentName) throws IOException {
+		if (_mode == Mode.DOCUMENT) {
+			Output output = _documentOutputs.remove(documentName);
+			if (output != null)
+				output.close();
+		}
+	}
+
+	/**
+	 * Deletes the file of the document when writing a file per document; when writing a file per run,
+	 * the records already written for the document cannot be removed
+	 */
+	public void abortDocument(String documentName) throws IOException {
+		if (_mode == Mode.DOCUMENT) {
+			Output output = _documentOutputs.remove(documentName);
+			if (output != null)
+				output.close();
+
+			File file = new File(_directory, Files.getNameWithoutExtension(documentName) + _extension);
+			if (file.exists() && !file.delete())
+				throw new IOException("Could not delete " + file);
+		}
+		else
+			log.warn("The results already written for {} cannot be removed from the run files", documentName);
+	}
+
+	public synchronized void close() throws IOException {
+		for (Output output : _documentOutputs.values())
+			output.close();
+		_documentOutputs.clear();
+
+		if (_runOutput != null) {
+			_runOutput.close();
+			_runOutput = null;
+		}
+	}
+
+	private void write(String documentName, byte[] record) throws IOException {
+		if (_mode == Mode.DOCUMENT) {
+			// A document is only processed by one worker at a time, so its output is not shared
+			Output output = _documentOutputs.get(documentName);
+			if (output == null)
+				throw new IllegalStateException("Results received for a document that was not started: " + documentName);
+
+			output.write(record);
+			return;
+		}
+
+		synchronized (this) {
+			if (_runOutput == null || (_rollSize > 0 && _runOutput.getSize() > 0 && _runOutput.getSize() + record.length > _rollSize)) {
+				if (_runOutput != null)
+					_runOutput.close();
+
+				File file = new File(_directory, String.format("%s-%03d%s", _runName, ++_runFileCount, _extension));
+				_runOutput = new Output(file);
+			}
+
+			_runOutput.write(record);
+		}
+	}
+
+	/**
+	 * A file written through a buffered channel
+	 */
+	private static class Output {
+		private final File _file;
+		private final FileChannel _channel;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private long _size = 0;
+
+		Output(File file) throws IOException {
+			_file = file;
+			_channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+			log.debug("Writing results to {}", file);
+		}
+
+		long getSize() {
+			return _size;
+		}
+
+		void write(byte[] record) throws IOException {
+			if (record.length > _buffer.remaining())
+				flush();
+
+			if (record.length > _buffer.capacity()) {
+				ByteBuffer data = ByteBuffer.wrap(record);
+				while (data.hasRemaining())
+					_channel.write(data);
+			}
+			else
+				_buffer.put(record);
+
+			_size += record.length;
+		}
+
+		void flush() throws IOException {
+			_buffer.flip();
+			while (_buffer.hasRemaining())
+				_channel.write(_buffer);
+			_buffer.clear();
+		}
+
+		void close() throws IOException {
+			try {
+				flush();
+			}
+			finally {
+				_channel.close();
+			}
+
+			log.debug(String.format("Wrote %,d bytes to %s", _size, _file));
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes the results as JSON Lines, one JSON object per line:
+ *
+ * <pre>
+ * {"type": "misspelling", "document": ..., "misspelling": ..., "2gram_score": ..., "3gram_score": ...,
+ *  "suggestions": [{"suggestion": ..., "levenshtein_score": ..., "2gram_score": ..., "3gram_score": ...,
+ *                   "transformations": [{"original": ..., "replacement": ..., "index": ...}, ...]}, ...]}
+ * {"type": "count", "document": ..., "misspelling": ..., "count": ...}
+ * </pre>
+ *
+ * @author capitanu
+ */
+public class JsonLinesResultSink extends FileResultSink {
+
+	public static final String EXTENSION = ".jsonl";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public JsonLinesResultSink(File directory, Mode mode, long rollSize) {
+		super(directory, EXTENSION, mode, rollSize);
+	}
+
+	@Override
+	protected byte[] encodeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+		try {
+			return toLine(toMisspellingRecord(documentName, misspelling));
+		}
+		catch (JSONException e) {
+			throw new IOException("Cannot encode misspelling: " + misspelling.getMisspelledWord(), e);
+		}
+	}
+
+	@Override
+	protected byte[] encodeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+		try {
+			return toLine(toCountRecord(documentName, misspelling, count));
+		}
+		catch (JSONException e) {
+			throw new IOException("Cannot encode count of misspelling: " + misspelling.getMisspelledWord(), e);
+		}
+	}
+
+	/**
+	 * @return The "misspelling" record of a misspelling, along with its suggestions
+	 */
+	static JSONObject toMisspellingRecord(String documentName, Misspelling misspelling) throws JSONException {
+		JSONArray suggestions = new JSONArray();
+		for (Suggestion suggestion : misspelling.getSuggestions()) {
+			JSONArray transformations = new JSONArray();
+			for (Transformation transformation : suggestion.getTransformations())
+				transformations.put(new JSONObject()
+						.put("original", transformation.getOriginal())
+						.put("replacement", transformation.getReplacement())
+						.put("index", transformation.getIndex()));
+
+			Score score = suggestion.getScore();
+			suggestions.put(new JSONObject()
+					.put("suggestion", suggestion.getSuggestion())
+					.put("levenshtein_score", score.getLevenshteinScore())
+					.put("2gram_score", score.getBigramScore())
+					.put("3gram_score", score.getTrigramScore())
+					.put("transformations", transformations));
+		}
+
+		return new JSONObject()
+				.put("type", "misspelling")
+				.put("document", documentName)
+				.put("misspelling", misspelling.getMisspelledWord())
+				.put("2gram_score", misspelling.getBigramScore())
+				.put("3gram_score", misspelling.getTrigramScore())
+				.put("suggestions", suggestions);
+	}
+
+	/**
+	 * @return The "count" record of a misspelling
+	 */
+	static JSONObject toCountRecord(String documentName, Misspelling misspelling, int count) throws JSONException {
+		return new JSONObject()
+				.put("type", "count")
+				.put("document", documentName)
+				.put("misspelling", misspelling.getMisspelledWord())
+				.put("count", count);
+	}
+
+	static byte[] toLine(JSONObject record) {
+		return (record.toString() + "\n").getBytes(UTF8);
+	}
+}
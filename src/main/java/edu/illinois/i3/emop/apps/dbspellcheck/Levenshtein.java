@@ -4,25 +4,122 @@ package edu.illinois.i3.emop.apps.dbspellcheck;
  * Calculate Levenshtein distance between two strings
  * (code adapted for Java based on http://en.wikipedia.org/wiki/Levenshtein_distance)
  *
+ * Strings where the shorter one has at most 64 characters use the bit-parallel algorithm of Myers (as formulated
+ * by Hyyro); longer strings fall back to dynamic programming. The work buffers are kept per thread.
+ *
  * @author capitanu
  *
  */
 public class Levenshtein {
 
+	private static final int MAX_BIT_PARALLEL_LENGTH = 64;
+
+	private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
 	public static int distance(String source, String target) {
 	    // degenerate cases
 	    if (source == target) return 0;
 	    if (source.length() == 0) return target.length();
 	    if (target.length() == 0) return source.length();
 
-	    // create two work vectors of integer distances
-	    int[] v0 = new int[target.length() + 1];
-	    int[] v1 = new int[target.length() + 1];
+	    return compute(source, target, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Calculates the Levenshtein distance between two strings, giving up as soon as it is known to exceed a maximum
+	 *
+	 * @param source      The source string
+	 * @param target      The target string
+	 * @param maxDistance The maximum distance of interest
+	 * @return The distance if at most maxDistance, or maxDistance + 1 otherwise
+	 */
+	public static int distance(String source, String target, int maxDistance) {
+		if (maxDistance < 0) return 0;
+
+		// The distance never exceeds the longer length (this also keeps maxDistance + 1 from overflowing)
+		maxDistance = Math.min(maxDistance, Math.max(source.length(), target.length()));
+		if (Math.abs(source.length() - target.length()) > maxDistance) return maxDistance + 1;
+
+		if (source == target) return 0;
+		if (source.length() == 0) return target.length();
+		if (target.length() == 0) return source.length();
+
+		return Math.min(compute(source, target, maxDistance), maxDistance + 1);
+	}
+
+	private static int compute(String source, String target, int maxDistance) {
+		// The distance is symmetric - use the shorter string as the pattern
+		String pattern = source.length() <= target.length() ? source : target;
+		String text = (pattern == source) ? target : source;
+
+		Buffers buffers = BUFFERS.get();
+
+		if (pattern.length() <= MAX_BIT_PARALLEL_LENGTH)
+			return bitParallelDistance(pattern, text, maxDistance, buffers);
+
+		return (maxDistance == Integer.MAX_VALUE) ?
+				dynamicProgrammingDistance(pattern, text, buffers) :
+				bandedDistance(pattern, text, maxDistance, buffers);
+	}
+
+	/**
+	 * Myers' bit-vector algorithm; each bit of the vectors holds the vertical delta of one pattern character
+	 */
+	private static int bitParallelDistance(String pattern, String text, int maxDistance, Buffers buffers) {
+		int m = pattern.length();
+		int n = text.length();
+
+		buffers.setPattern(pattern);
+
+		long highBit = 1L << (m - 1);
+		long pv = -1L;
+		long mv = 0L;
+		int score = m;
+
+		try {
+			for (int j = 0; j < n; j++) {
+				long eq = buffers.getMask(text.charAt(j));
+				long xv = eq | mv;
+				long xh = (((eq & pv) + pv) ^ pv) | eq;
+				long ph = mv | ~(xh | pv);
+				long mh = pv & xh;
+
+				if ((ph & highBit) != 0)
+					score++;
+				else if ((mh & highBit) != 0)
+					score--;
+
+				// The remaining text characters can lower the score by at most one each
+				if (score - (n - j - 1) > maxDistance)
+					return maxDistance + 1;
+
+				ph = (ph << 1) | 1L;
+				mh <<= 1;
+				pv = mh | ~(xv | ph);
+				mv = ph & xv;
+			}
+
+			return score;
+		}
+		finally {
+			buffers.clearPattern(pattern);
+		}
+	}
+
+	private static int dynamicProgrammingDistance(String source, String target, Buffers buffers) {
+	    // two work vectors of integer distances
+	    int[] v0 = buffers.getRow0(target.length() + 1);
+	    int[] v1 = buffers.getRow1(target.length() + 1);
 
 	    // initialize v0 (the previous row of distances)
 	    // this row is A[0][i]: edit distance for an empty s
 	    // the distance is just the number of characters to delete from t
-	    for (int i = 0; i < v0.length; i++)
+	    for (int i = 0; i <= target.length(); i++)
 	        v0[i] = i;
 
 	    for (int i = 0; i < source.length(); i++) {
@@ -33,18 +130,126 @@ public class Levenshtein {
 	        v1[0] = i + 1;
 
 	        // use formula to fill in the rest of the row
+	        char c = source.charAt(i);
 	        for (int j = 0; j < target.length(); j++)
 	        {
-	            int cost = (source.charAt(i) == target.charAt(j)) ? 0 : 1;
+	            int cost = (c == target.charAt(j)) ? 0 : 1;
 	            v1[j + 1] = Math.min(Math.min(v1[j] + 1, v0[j + 1] + 1), v0[j] + cost);
 	        }
 
-	        // copy v1 (current row) to v0 (previous row) for next iteration
-	        for (int j = 0; j < v0.length; j++)
-	            v0[j] = v1[j];
+	        // swap v1 (current row) and v0 (previous row) for next iteration
+	        int[] tmp = v0;
+	        v0 = v1;
+	        v1 = tmp;
 	    }
 
-	    return v1[target.length()];
+	    return v0[target.length()];
+	}
+
+	/**
+	 * Dynamic programming restricted to the diagonal band of width 2 * maxDistance + 1 (cells outside of it
+	 * exceed maxDistance), stopping as soon as a whole row exceeds maxDistance
+	 */
+	private static int bandedDistance(String source, String target, int maxDistance, Buffers buffers) {
+		int n = target.length();
+		int outside = maxDistance + 1;
+
+		int[] v0 = buffers.getRow0(n + 1);
+		int[] v1 = buffers.getRow1(n + 1);
+
+		for (int j = 0; j <= n; j++)
+			v0[j] = Math.min(j, outside);
+
+		for (int i = 1; i <= source.length(); i++) {
+			int from = Math.max(1, i - maxDistance);
+			int to = Math.min(n, i + maxDistance);
+
+			v1[from - 1] = (from == 1) ? Math.min(i, outside) : outside;
+			int rowMin = v1[from - 1];
+
+			char c = source.charAt(i - 1);
+			for (int j = from; j <= to; j++) {
+				int cost = (c == target.charAt(j - 1)) ? 0 : 1;
+				int up = (j <= i - 1 + maxDistance) ? v0[j] : outside;
+				int value = Math.min(Math.min(v1[j - 1] + 1, up + 1), v0[j - 1] + cost);
+				v1[j] = Math.min(value, outside);
+				rowMin = Math.min(rowMin, v1[j]);
+			}
+
+			if (to < n)
+				v1[to + 1] = outside;
+
+			if (rowMin > maxDistance)
+				return outside;
+
+			int[] tmp = v0;
+			v0 = v1;
+			v1 = tmp;
+		}
+
+		return v0[n];
 	}
 
+	/**
+	 * Per-thread work buffers
+	 */
+	private static class Buffers {
+		private final long[] _latinMasks = new long[256];
+		private final char[] _otherChars = new char[MAX_BIT_PARALLEL_LENGTH];
+		private final long[] _otherMasks = new long[MAX_BIT_PARALLEL_LENGTH];
+		private int _otherCount = 0;
+		private int[] _row0 = new int[64];
+		private int[] _row1 = new int[64];
+
+		void setPattern(String pattern) {
+			for (int i = 0, iMax = pattern.length(); i < iMax; i++) {
+				char c = pattern.charAt(i);
+				long bit = 1L << i;
+
+				if (c < 256) {
+					_latinMasks[c] |= bit;
+					continue;
+				}
+
+				int k = 0;
+				while (k < _otherCount && _otherChars[k] != c) k++;
+				if (k == _otherCount) {
+					_otherChars[k] = c;
+					_otherMasks[k] = 0;
+					_otherCount++;
+				}
+				_otherMasks[k] |= bit;
+			}
+		}
+
+		long getMask(char c) {
+			if (c < 256)
+				return _latinMasks[c];
+
+			for (int k = 0; k < _otherCount; k++)
+				if (_otherChars[k] == c)
+					return _otherMasks[k];
+
+			return 0L;
+		}
+
+		void clearPattern(String pattern) {
+			for (int i = 0, iMax = pattern.length(); i < iMax; i++) {
+				char c = pattern.charAt(i);
+				if (c < 256)
+					_latinMasks[c] = 0;
+			}
+			_otherCount = 0;
+		}
+
+		int[] getRow0(int size) {
+			if (_row0.length < size) _row0 = new int[size * 2];
+			return _row0;
+		}
+
+		int[] getRow1(int size) {
+			if (_row1.length < size) _row1 = new int[size * 2];
+			return _row1;
+		}
+	}
 }
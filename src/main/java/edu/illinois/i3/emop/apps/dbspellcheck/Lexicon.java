@@ -0,0 +1,49 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import edu.illinois.i3.spellcheck.engine.SpellDictionary;
+
+/**
+ * The (read-only) lexical resources shared by all the spellcheck workers
+ *
+ * @author capitanu
+ */
+public class Lexicon {
+
+    private final SpellDictionary _dictionary;
+    private final PrefixLexicon _prefixLexicon;
+    private final NGramModel _ngramModel;
+    private final SymSpellIndex _symSpellIndex;
+
+    public Lexicon(SpellDictionary dictionary, PrefixLexicon prefixLexicon, NGramModel ngramModel) {
+        this(dictionary, prefixLexicon, ngramModel, null);
+    }
+
+    /**
+     * @param dictionary    The dictionary
+     * @param prefixLexicon The dictionary words used to prune candidate suggestions (may be null)
+     * @param ngramModel    The n-gram counts
+     * @param symSpellIndex The edit distance index of the dictionary words (may be null)
+     */
+    public Lexicon(SpellDictionary dictionary, PrefixLexicon prefixLexicon, NGramModel ngramModel, SymSpellIndex symSpellIndex) {
+        _dictionary = dictionary;
+        _prefixLexicon = prefixLexicon;
+        _ngramModel = ngramModel;
+        _symSpellIndex = symSpellIndex;
+    }
+
+    public SpellDictionary getDictionary() {
+        return _dictionary;
+    }
+
+    public PrefixLexicon getPrefixLexicon() {
+        return _prefixLexicon;
+    }
+
+    public NGramModel getNGramModel() {
+        return _ngramModel;
+    }
+
+    public SymSpellIndex getSymSpellIndex() {
+        return _symSpellIndex;
+    }
+}
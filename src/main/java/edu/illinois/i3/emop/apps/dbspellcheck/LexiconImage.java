@@ -0,0 +1,165 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * A binary image of the dictionary and the n-gram counts, mapped into memory instead of being loaded into the heap:
+ * the processes of a node opening the same image share its pages (through the OS page cache), and opening an image
+ * only reads its header. The image contains, in order:
+ *
+ * <pre>
+ * int     magic, format
+ * UTF     version of the lexicon tables the image was built from (see {@link LexiconLoader#getVersion()})
+ * section the dictionary (see {@link DAWGDictionary#writeTo(DataOutputStream)})
+ * section the n-gram counts (see {@link NGramModel#writeTo(DataOutputStream)})
+ * </pre>
+ *
+ * where each section is a long length followed by the section bytes, aligned on 8 bytes. Each section is mapped
+ * on its own, so it must be smaller than 2 GB. An image is replaced by renaming a new image over it, so the processes
+ * that mapped the previous image keep using it.
+ *
+ * @author capitanu
+ */
+public class LexiconImage {
+
+	private static final int MAGIC = 0x4C584931;	// "LXI1"
+	private static final int FORMAT = 1;
+	private static final int ALIGNMENT = 8;
+
+	private LexiconImage() { }
+
+	/**
+	 * Writes an image (replacing an existing image atomically, so processes may write it concurrently)
+	 *
+	 * @param file       The image file
+	 * @param version    The version of the lexicon tables
+	 * @param dictionary The dictionary
+	 * @param ngramModel The n-gram counts
+	 * @throws IOException
+	 */
+	public static void write(File file, String version, DAWGDictionary dictionary, NGramModel ngramModel) throws IOException {
+		File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+
+		try {
+			CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+			DataOutputStream out = new DataOutputStream(counter);
+
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeUTF(version);
+
+				for (int s = 0; s < 2; s++) {
+					pad(out, counter.getCount());
+					out.flush();
+					long sectionStart = counter.getCount();
+
+					// The length is filled in once the section is written (the stream keeps appending past it)
+					out.writeLong(0);
+					if (s == 0)
+						dictionary.writeTo(out);
+					else
+						ngramModel.writeTo(out);
+					out.flush();
+
+					long sectionLength = counter.getCount() - sectionStart - 8;
+					if (sectionLength > Integer.MAX_VALUE)
+						throw new IOException(String.format("Section %d of the lexicon image too large: %,d bytes", s, sectionLength));
+
+					try (RandomAccessFile image = new RandomAccessFile(tempFile, "rw")) {
+						image.seek(sectionStart);
+						image.writeLong(sectionLength);
+					}
+				}
+			}
+			finally {
+				out.close();
+			}
+
+			java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Reads the version of the lexicon tables an image was built from
+	 *
+	 * @param file The image file
+	 * @return The version
+	 * @throws IOException If the file is not a lexicon image
+	 */
+	public static String readVersion(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return readHeader(in, file);
+		}
+	}
+
+	/**
+	 * Opens an image, mapping its sections into memory
+	 *
+	 * @param file The image file
+	 * @return The dictionary (also the prefix lexicon) and the n-gram counts of the image
+	 * @throws IOException If the file is not a lexicon image
+	 */
+	public static Lexicon open(File file) throws IOException {
+		try (RandomAccessFile image = new RandomAccessFile(file, "r")) {
+			FileChannel channel = image.getChannel();
+			readHeader(image, file);
+			long position = image.getFilePointer();
+
+			ByteBuffer[] sections = new ByteBuffer[2];
+			for (int s = 0; s < sections.length; s++) {
+				position += getPadding(position);
+				image.seek(position);
+				long sectionLength = image.readLong();
+				position += 8;
+
+				if (sectionLength < 0 || position + sectionLength > channel.size())
+					throw new IOException("Truncated lexicon image: " + file);
+
+				sections[s] = channel.map(FileChannel.MapMode.READ_ONLY, position, sectionLength);
+				position += sectionLength;
+			}
+
+			DAWGDictionary dictionary = DAWGDictionary.readFrom(sections[0]);
+			NGramModel ngramModel = NGramModel.readFrom(sections[1]);
+
+			return new Lexicon(dictionary, dictionary, ngramModel);
+		}
+	}
+
+	private static String readHeader(DataInput in, File file) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a lexicon image: " + file);
+
+		int format = in.readInt();
+		if (format != FORMAT)
+			throw new IOException(String.format("Unsupported lexicon image format %d (expected %d): %s", format, FORMAT, file));
+
+		return in.readUTF();
+	}
+
+	private static void pad(DataOutputStream out, long position) throws IOException {
+		for (int i = getPadding(position); i > 0; i--)
+			out.writeByte(0);
+	}
+
+	private static int getPadding(long position) {
+		return (int) ((ALIGNMENT - position % ALIGNMENT) % ALIGNMENT);
+	}
+}
@@ -0,0 +1,395 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import static edu.illinois.i3.emop.utils.DBUtils.releaseConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jolbox.bonecp.BoneCP;
+
+import edu.illinois.i3.spellcheck.engine.SpellDictionary;
+import edu.illinois.i3.spellcheck.engine.SpellDictionaryHashMap;
+
+/**
+ * Loads the dictionary and the n-gram tables from the DB concurrently, each on its own pooled connection,
+ * streaming the rows instead of letting the driver buffer the whole result set
+ *
+ * @author capitanu
+ */
+public class LexiconLoader {
+
+	private static final Logger log = LoggerFactory.getLogger(LexiconLoader.class);
+
+	private final BoneCP _connectionPool;
+	private int _symSpellDistance = 0;
+	private File _symSpellIndexFile;
+	private File _imageFile;
+
+	public LexiconLoader(BoneCP connectionPool) {
+		_connectionPool = connectionPool;
+	}
+
+	/**
+	 * Also builds a {@link SymSpellIndex} over the dictionary words; if an index file is given, the index is read
+	 * from it when it exists (and was built from the same versions of the tables, for the same distance), otherwise
+	 * it is written to it once built
+	 *
+	 * @param maxDistance The maximum edit distance supported by the index (0 to not build it)
+	 * @param indexFile   The index file (may be null)
+	 */
+	public void setSymSpellIndex(int maxDistance, File indexFile) {
+		_symSpellDistance = maxDistance;
+		_symSpellIndexFile = indexFile;
+	}
+
+	/**
+	 * Maps the dictionary and the n-gram counts from a {@link LexiconImage} instead of loading them into the heap;
+	 * the image is (re)built from the lexicon tables first if it does not exist or was built from other versions
+	 * of the tables. The dictionary of an image is always a {@link DAWGDictionary}.
+	 *
+	 * @param imageFile The image file (null to load the lexicon from the tables)
+	 */
+	public void setImage(File imageFile) {
+		_imageFile = imageFile;
+	}
+
+	/**
+	 * Loads the lexicon
+	 *
+	 * @param useDAWG           True to build a {@link DAWGDictionary}, False to use Jazzy's {@link SpellDictionaryHashMap}
+	 *                          (not used if the lexicon is mapped from an image)
+	 * @param usePrefixLexicon  True if the dictionary words are needed for prefix traversal
+	 * @return The lexicon
+	 * @throws Exception
+	 */
+	public Lexicon load(boolean useDAWG, boolean usePrefixLexicon) throws Exception {
+		// The image and the SymSpell index file are only used if built from the current tables
+		String version = (_imageFile != null || (_symSpellDistance > 0 && _symSpellIndexFile != null)) ? getVersion() : null;
+
+		if (_imageFile != null)
+			return loadImage(version, usePrefixLexicon);
+
+		return loadTables(useDAWG, usePrefixLexicon, _symSpellDistance > 0, version);
+	}
+
+	/**
+	 * Builds the image of the lexicon tables set by {@link #setImage(File)}, replacing an existing image
+	 *
+	 * @param version The version of the lexicon tables (see {@link #getVersion()})
+	 * @throws Exception
+	 */
+	public void buildImage(String version) throws Exception {
+		Lexicon lexicon = loadTables(true, false, false, version);
+
+		long start = System.nanoTime();
+		LexiconImage.write(_imageFile, version, (DAWGDictionary) lexicon.getDictionary(), lexicon.getNGramModel());
+		log.info(String.format("Wrote lexicon image %s (%,d bytes) in %.2f s", _imageFile, _imageFile.length(),
+				(System.nanoTime() - start) / 1e9));
+	}
+
+	private Lexicon loadImage(String version, boolean usePrefixLexicon) throws Exception {
+		String imageVersion = null;
+		if (_imageFile.exists()) {
+			try {
+				imageVersion = LexiconImage.readVersion(_imageFile);
+			}
+			catch (IOException e) {
+				log.warn("Ignoring lexicon image {}: {}", _imageFile, e.getMessage());
+			}
+		}
+
+		if (!version.equals(imageVersion)) {
+			if (imageVersion != null)
+				log.info("Lexicon image {} is stale (built from tables {}, current tables {}) - rebuilding it",
+						_imageFile, imageVersion, version);
+			buildImage(version);
+		}
+
+		long start = System.nanoTime();
+		Lexicon image = LexiconImage.open(_imageFile);
+		DAWGDictionary dictionary = (DAWGDictionary) image.getDictionary();
+		log.info(String.format("Mapped %s and %s from %s in %.1f ms", dictionary, image.getNGramModel(), _imageFile,
+				(System.nanoTime() - start) / 1e6));
+
+		SymSpellIndex symSpellIndex = null;
+		if (_symSpellDistance > 0) {
+			symSpellIndex = readSymSpellIndex(version);
+			if (symSpellIndex == null)
+				symSpellIndex = buildSymSpellIndex(dictionary.getWords(), version);
+		}
+
+		return new Lexicon(dictionary, usePrefixLexicon ? dictionary : null, image.getNGramModel(), symSpellIndex);
+	}
+
+	/**
+	 * @param buildSymSpellIndex True to also build (or read) the SymSpell index
+	 * @param version            The version of the tables (null if not needed)
+	 */
+	private Lexicon loadTables(final boolean useDAWG, final boolean usePrefixLexicon, final boolean buildSymSpellIndex,
+							   final String version) throws Exception {
+		final int wordCount = countRows(Constants.TABLE_DICT);
+		final int bigramCount = countRows(Constants.TABLE_DICT_2GRAMS);
+		final int trigramCount = countRows(Constants.TABLE_DICT_3GRAMS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			// Loads the dictionary, along with the words used for prefix traversal (if needed)
+			Future<Lexicon> dictionaryLoader = executor.submit(new Callable<Lexicon>() {
+				public Lexicon call() throws Exception {
+					DictionaryTrie dictionaryTrie = (usePrefixLexicon && !useDAWG) ? new DictionaryTrie(wordCount * 4) : null;
+					List<String> words = (useDAWG || buildSymSpellIndex) ? new ArrayList<String>(wordCount) : null;
+					SpellDictionary dictionary = loadDictionary(useDAWG, words, dictionaryTrie);
+
+					// The DAWG dictionary supports prefix traversal itself
+					PrefixLexicon prefixLexicon = !usePrefixLexicon ? null :
+							(useDAWG ? (DAWGDictionary) dictionary : dictionaryTrie);
+
+					SymSpellIndex symSpellIndex = buildSymSpellIndex ? getSymSpellIndex(words, version) : null;
+
+					return new Lexicon(dictionary, prefixLexicon, null, symSpellIndex);
+				}
+			});
+
+			// The 3-grams are loaded into a model sized for both orders, and the 2-grams are merged into it once loaded
+			Future<NGramModel> bigramLoader = executor.submit(new Callable<NGramModel>() {
+				public NGramModel call() throws Exception {
+					return loadNGramCounts(2, new NGramModel(bigramCount));
+				}
+			});
+			Future<NGramModel> trigramLoader = executor.submit(new Callable<NGramModel>() {
+				public NGramModel call() throws Exception {
+					return loadNGramCounts(3, new NGramModel(bigramCount + trigramCount));
+				}
+			});
+
+			NGramModel ngramModel = get(trigramLoader);
+			ngramModel.addAll(get(bigramLoader));
+			log.info("Loaded {}", ngramModel);
+
+			Lexicon dictionary = get(dictionaryLoader);
+
+			return new Lexicon(dictionary.getDictionary(), dictionary.getPrefixLexicon(), ngramModel, dictionary.getSymSpellIndex());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes a version identifier of the lexicon tables, which changes whenever their contents change
+	 *
+	 * @return The version (the hex-encoded checksums of the tables)
+	 * @throws SQLException
+	 */
+	public String getVersion() throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = _connectionPool.getConnection();
+			stmt = connection.createStatement();
+
+			ResultSet rs = stmt.executeQuery(String.format("CHECKSUM TABLE %s, %s, %s",
+					Constants.TABLE_DICT, Constants.TABLE_DICT_2GRAMS, Constants.TABLE_DICT_3GRAMS));
+
+			StringBuilder version = new StringBuilder();
+			while (rs.next()) {
+				if (version.length() > 0)
+					version.append('-');
+				version.append(Long.toHexString(rs.getLong("Checksum")));
+			}
+
+			return version.toString();
+		}
+		finally {
+			releaseConnection(connection, stmt);
+		}
+	}
+
+	private SymSpellIndex getSymSpellIndex(List<String> words, String version) throws Exception {
+		SymSpellIndex index = readSymSpellIndex(version);
+
+		return (index != null) ? index : buildSymSpellIndex(words, version);
+	}
+
+	/**
+	 * @param version The version of the tables
+	 * @return The index read from the index file, or null if there is none (for the versions and the distance)
+	 */
+	private SymSpellIndex readSymSpellIndex(String version) throws IOException {
+		if (_symSpellIndexFile == null || !_symSpellIndexFile.exists())
+			return null;
+
+		String indexVersion;
+		try {
+			indexVersion = SymSpellIndex.readVersion(_symSpellIndexFile);
+		}
+		catch (IOException e) {
+			log.warn("Ignoring {}: {}", _symSpellIndexFile, e.getMessage());
+			return null;
+		}
+
+		if (!version.equals(indexVersion)) {
+			log.info("SymSpell index {} is stale (built from tables {}, current tables {}) - rebuilding it",
+					_symSpellIndexFile, indexVersion, version);
+			return null;
+		}
+
+		SymSpellIndex index = SymSpellIndex.readFrom(_symSpellIndexFile);
+		if (index.getMaxDistance() != _symSpellDistance) {
+			log.warn("Ignoring {} - built for a different distance ({})", _symSpellIndexFile, index.getMaxDistance());
+			return null;
+		}
+
+		log.info("Read {} from {}", index, _symSpellIndexFile);
+		return index;
+	}
+
+	private SymSpellIndex buildSymSpellIndex(List<String> words, String version) throws Exception {
+		long start = System.nanoTime();
+		SymSpellIndex index = SymSpellIndex.build(words, _symSpellDistance, Runtime.getRuntime().availableProcessors());
+		log.info(String.format("Built %s in %.2f s", index, (System.nanoTime() - start) / 1e9));
+
+		if (_symSpellIndexFile != null) {
+			index.writeTo(_symSpellIndexFile, version);
+			log.info("Wrote SymSpell index to {}", _symSpellIndexFile);
+		}
+
+		return index;
+	}
+
+	/**
+	 * @param useDAWG        True to build a {@link DAWGDictionary}, False to use Jazzy's {@link SpellDictionaryHashMap}
+	 * @param words          The list receiving the words (required when building a DAWG, null if not needed otherwise)
+	 * @param dictionaryTrie The trie receiving the words (null if not needed)
+	 */
+	private SpellDictionary loadDictionary(boolean useDAWG, List<String> words, DictionaryTrie dictionaryTrie)
+			throws SQLException, IOException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = _connectionPool.getConnection();
+			stmt = createStreamingStatement(connection);
+
+			log.debug("Loading dictionary...");
+			long start = System.nanoTime();
+
+			String sqlQueryWords = String.format("SELECT word FROM %s", Constants.TABLE_DICT);
+			ResultSet rs = stmt.executeQuery(sqlQueryWords);
+
+			SpellDictionary dictionary = useDAWG ? null : new SpellDictionaryHashMap();
+			int wordCount = 0;
+
+			while (rs.next()) {
+				String word = rs.getString(1);
+				if (words != null)
+					words.add(word);
+				if (!useDAWG)
+					dictionary.addWord(word);
+				if (dictionaryTrie != null)
+					dictionaryTrie.addWord(word);
+				wordCount++;
+			}
+
+			logLoadRate(Constants.TABLE_DICT, wordCount, start);
+
+			if (useDAWG) {
+				dictionary = DAWGDictionary.build(words);
+				log.info("Built {}", dictionary);
+			}
+
+			return dictionary;
+		}
+		finally {
+			releaseConnection(connection, stmt);
+		}
+	}
+
+	private NGramModel loadNGramCounts(int n, NGramModel ngramModel) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = _connectionPool.getConnection();
+			stmt = createStreamingStatement(connection);
+
+			log.debug("Loading {}-gram counts...", n);
+			long start = System.nanoTime();
+
+			String tableName = (n == 2) ? Constants.TABLE_DICT_2GRAMS : Constants.TABLE_DICT_3GRAMS;
+			String sqlQueryNgramCounts = String.format("SELECT ngram, count FROM %s", tableName);
+			ResultSet rs = stmt.executeQuery(sqlQueryNgramCounts);
+
+			int ngramCount = 0;
+			while (rs.next()) {
+				ngramModel.add(rs.getString(1), rs.getInt(2));
+				ngramCount++;
+			}
+
+			logLoadRate(tableName, ngramCount, start);
+
+			return ngramModel;
+		}
+		finally {
+			releaseConnection(connection, stmt);
+		}
+	}
+
+	private int countRows(String tableName) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = _connectionPool.getConnection();
+			stmt = connection.createStatement();
+
+			ResultSet rs = stmt.executeQuery(String.format("SELECT COUNT(*) FROM %s", tableName));
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+		finally {
+			releaseConnection(connection, stmt);
+		}
+	}
+
+	/**
+	 * Creates a statement whose result sets are streamed row by row (MySQL Connector/J requires a forward-only,
+	 * read-only statement with a fetch size of Integer.MIN_VALUE)
+	 */
+	private static Statement createStreamingStatement(Connection connection) throws SQLException {
+		Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(Integer.MIN_VALUE);
+
+		return stmt;
+	}
+
+	private static void logLoadRate(String tableName, int rowCount, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		log.info(String.format("Loaded %,d rows from %s in %.2f s (%,.0f rows/s)",
+				rowCount, tableName, seconds, seconds > 0 ? rowCount / seconds : 0));
+	}
+
+	private static <T> T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : e;
+		}
+	}
+}
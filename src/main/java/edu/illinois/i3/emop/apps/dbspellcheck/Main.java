@@ -11,21 +11,29 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Maps;
+import javax.management.JMException;
+
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multisets;
+import com.google.common.io.Files;
 import edu.illinois.i3.spellcheck.engine.SpellDictionary;
-import edu.illinois.i3.spellcheck.engine.SpellDictionaryHashMap;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -35,10 +43,15 @@ import org.slf4j.LoggerFactory;
 
 import com.jolbox.bonecp.BoneCP;
 import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPException;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.ParseException;
 import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.StringParser;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.stringparsers.EnumeratedStringParser;
 import com.martiansoftware.jsap.stringparsers.FileStringParser;
 
 import edu.illinois.i3.emop.utils.DBUtils;
@@ -54,6 +67,20 @@ public class Main {
 
 	private static final Logger log = LoggerFactory.getLogger(Main.class);
 
+	/**
+	 * Parses an integer of at least 1
+	 */
+	private static final StringParser POSITIVE_INTEGER_PARSER = new StringParser() {
+		@Override
+		public Object parse(String arg) throws ParseException {
+			Integer value = (Integer) JSAP.INTEGER_PARSER.parse(arg);
+			if (value < 1)
+				throw new ParseException("Must be at least 1: " + arg);
+
+			return value;
+		}
+	};
+
 	public static void main(String[] args) throws Exception {
 		JSAPResult cmdLine = parseArguments(args);
 
@@ -61,21 +88,135 @@ public class Main {
 		String dbUser = cmdLine.getString("dbUser");
 		String dbPasswd = cmdLine.getString("dbPasswd");
 
+		// The directory is not needed when serving requests or only building the lexicon image
 		File directory = cmdLine.getFile("directory");
-		log.info("Using data directory: {}", directory);
+		int port = cmdLine.getInt("serve");
+		boolean buildLexiconImageOnly = cmdLine.getBoolean("buildLexiconImage") && cmdLine.getFile("lexiconImage") != null;
+		if (directory == null && port <= 0 && !buildLexiconImageOnly) {
+			System.err.println("A directory to process (-d) is required, unless serving requests (--serve) or building the lexicon image");
+			System.exit(1);
+		}
 
 		File rulesFile = cmdLine.getFile("transformations");
 		log.info("Using rules file: {}", rulesFile);
 
-		BoneCP connectionPool = DBUtils.createDBConnectionPool(Constants.DB_DRIVER_CLASS, dbUrl, dbUser, dbPasswd);
-		SpellDictionary dictionary = getDictionary(connectionPool);
-		Map<String, Integer> bigramCounts = getNGramCounts(2, connectionPool);
-		Map<String, Integer> trigramCounts = getNGramCounts(3, connectionPool);
+		final boolean useDomParser = "dom".equals(cmdLine.getString("parser"));
+		log.info("Using {} XML parser", useDomParser ? "DOM" : "StAX");
+
+		int threads = cmdLine.getInt("threads");
+		log.info("Using {} worker thread(s)", threads);
+
+		final BoneCP connectionPool = DBUtils.createDBConnectionPool(Constants.DB_DRIVER_CLASS, dbUrl, dbUser, dbPasswd);
+
+		String candidates = cmdLine.getString("candidates");
+		final boolean useTrieCandidates = !"powerset".equals(candidates);
+		final boolean useBestFirstCandidates = "bestfirst".equals(candidates);
+		if (useBestFirstCandidates)
+			log.info("Generating candidate suggestions best-first, stopping after {} valid suggestions",
+					cmdLine.getInt("bestFirstLimit"));
+		else
+			log.info("Generating candidate suggestions using {}", useTrieCandidates ? "the dictionary trie" : "all transformation subsets");
+
+		// A lexicon image always holds a DAWG dictionary
+		final boolean useDAWGDictionary = "dawg".equals(cmdLine.getString("dictionary")) || cmdLine.getFile("lexiconImage") != null;
+		log.info("Using {} dictionary", useDAWGDictionary ? "DAWG" : "hash map");
+
+		final int symSpellDistance = cmdLine.getInt("symSpellDistance");
+		if (symSpellDistance > 0)
+			log.info("Adding the dictionary words within edit distance {} to the candidate suggestions", symSpellDistance);
+
+		final boolean segmentWords = cmdLine.getBoolean("segmentWords");
+		if (segmentWords)
+			log.info("Suggesting segmentations of run-together words into dictionary words");
+
+		LexiconLoader lexiconLoader = new LexiconLoader(connectionPool);
+		lexiconLoader.setSymSpellIndex(symSpellDistance, cmdLine.getFile("symSpellIndex"));
+
+		File lexiconImage = cmdLine.getFile("lexiconImage");
+		if (lexiconImage != null) {
+			lexiconLoader.setImage(lexiconImage);
+			log.info("Using lexicon image: {}", lexiconImage);
+
+			if (cmdLine.getBoolean("buildLexiconImage")) {
+				lexiconLoader.buildImage(lexiconLoader.getVersion());
+				log.info("Finished");
+				return;
+			}
+		}
 
-		setupDatabase(connectionPool);
+		Lexicon lexicon = lexiconLoader.load(useDAWGDictionary, useTrieCandidates || segmentWords);
+		final SpellDictionary dictionary = lexicon.getDictionary();
+		final PrefixLexicon prefixLexicon = lexicon.getPrefixLexicon();
+		final NGramModel ngramModel = lexicon.getNGramModel();
+		final SymSpellIndex symSpellIndex = lexicon.getSymSpellIndex();
 
 		InputStream rulesStream = new FileInputStream(rulesFile);
-		Map<String, Set<String>> ocrRules = getTransformationRules(rulesStream);
+		final OCRRuleMatcher ruleMatcher = new OCRRuleMatcher(getTransformationRules(rulesStream));
+		log.info("Compiled {}", ruleMatcher);
+
+		// The corrections are weighed by their usage in the earlier runs, if any
+		final File ruleUsageFile = cmdLine.getFile("ruleUsage");
+		final boolean skipUnusedRules = cmdLine.getBoolean("skipUnusedRules");
+		final RuleUsage ruleUsage = (ruleUsageFile != null) ? new RuleUsage(ruleMatcher) : null;
+		OCRRuleMatcher checkRuleMatcher = (ruleUsage != null) ?
+				orderRules(ruleMatcher, ruleUsage, ruleUsageFile, skipUnusedRules) : ruleMatcher;
+
+		final int bestFirstLimit = useBestFirstCandidates ? cmdLine.getInt("bestFirstLimit") : 0;
+		final int bestFirstSlack = cmdLine.getInt("bestFirstSlack");
+		final int maxSuggestions = cmdLine.getInt("maxSuggestions");
+		final int maxPendingCounts = cmdLine.getInt("maxPendingCounts");
+		if (maxPendingCounts > 0)
+			log.info("Streaming the results of each document, keeping at most {} pending misspelling counts", maxPendingCounts);
+
+		final TokenCache tokenCache = new TokenCache(cmdLine.getLong("cacheSize"), threads);
+		final Metrics metrics = createMetrics(cmdLine);
+
+		// The settings of the processors of the documents (or of the requests, when serving them)
+		final DocumentProcessor processorSettings = new DocumentProcessor(dictionary, checkRuleMatcher, null, connectionPool);
+		processorSettings.setUseDomParser(useDomParser);
+		processorSettings.setPrefixLexicon(useTrieCandidates ? prefixLexicon : null);
+		if (segmentWords)
+			processorSettings.setWordSegmenter(new WordSegmenter(prefixLexicon));
+		processorSettings.setNGramModel(ngramModel);
+		if (symSpellIndex != null)
+			processorSettings.setSymSpellIndex(symSpellIndex, symSpellDistance);
+		processorSettings.setTokenCache(tokenCache);
+		if (bestFirstLimit > 0)
+			processorSettings.setBestFirstSearch(bestFirstLimit, bestFirstSlack);
+		processorSettings.setMaxSuggestions(maxSuggestions);
+		processorSettings.setMaxPendingCounts(maxPendingCounts);
+		processorSettings.setMetrics(metrics);
+
+		if (port > 0) {
+			// The lexicon stays loaded, and the requests are checked until the process is stopped; the results are
+			// only returned in the responses (the rule usage only weighs the rules, and is not updated)
+			final SpellCheckServer server = new SpellCheckServer(processorSettings, rulesFile, cmdLine.getLong("cacheSize"), threads);
+			server.setRuleUsage(ruleUsageFile, skipUnusedRules);
+			server.start(port);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					server.stop(5);
+
+					try {
+						if (metrics != null)
+							metrics.close();
+					}
+					catch (IOException e) {
+						log.warn("Could not report the final metrics", e);
+					}
+				}
+			});
+			return;
+		}
+
+		log.info("Using data directory: {}", directory);
+
+		final boolean writeResults = !cmdLine.getBoolean("noDbOutput");
+		if (writeResults)
+			setupDatabase(connectionPool);
+		else
+			log.info("Not writing the results to the DB");
 
 		File[] files = directory.listFiles(new FilenameFilter() {
 			public boolean accept(File dir, String fileName) {
@@ -83,30 +224,311 @@ public class Main {
 			}
 		});
 
-        Multiset<Transformation> transformCounts = HashMultiset.create();
-
-        for (File file : files) {
-			log.info("Processing file: " + file);
-			InputStream documentStream = new FileInputStream(file);
-			OCRXMLTokenIterator tokenIterator = new OCRXMLTokenIterator(documentStream);
-			OCRDocument document = new OCRDocument(file.getName(), tokenIterator);
-			OCRCheck ocrCheck = new OCRCheck(document, connectionPool);
-			ocrCheck.setBigramCounts(bigramCounts);
-			ocrCheck.setTrigramCounts(trigramCounts);
-			ocrCheck.processDocument(dictionary, ocrRules);
-
-            log.info("Updating applied transformations counts...");
-            for (Misspelling misspelling : document.getMisspellings())
-                for (Suggestion suggestion : misspelling.getSuggestions())
-                    transformCounts.addAll(suggestion.getTransformations());
+		File journalFile = cmdLine.getFile("journal");
+		final RunJournal journal = (journalFile != null) ?
+				new RunJournal(journalFile, lexiconLoader.getVersion(), RunJournal.hash(rulesFile), writeResults) : null;
+		if (journal != null)
+			log.info("Using {}", journal);
+
+		final File quarantineDir = cmdLine.getFile("quarantineDir");
+		final AtomicInteger skippedCount = new AtomicInteger();
+		final AtomicInteger quarantinedCount = new AtomicInteger();
+
+		// Keep the usage of the completed documents if the run crashes
+		if (ruleUsage != null)
+			ruleUsage.setOutputFile(ruleUsageFile);
+
+		final TransformationCountSink transformCountSink = new TransformationCountSink();
+		final ResultSink resultSink = createResultSink(cmdLine, writeResults ? connectionPool : null, transformCountSink, ruleUsage, journal);
+		final DocumentProcessor documentProcessor = new DocumentProcessor(processorSettings, checkRuleMatcher, resultSink);
+
+		final boolean typeLevel = cmdLine.getBoolean("typeLevel");
+		if (typeLevel)
+			log.info("Checking each distinct token of the corpus once");
+
+		// The page ranges run on their own pool, since the document workers wait for them
+		int pagesPerTask = cmdLine.getInt("pagesPerTask");
+		ExecutorService pageExecutor = null;
+		if (pagesPerTask > 0 && !typeLevel) {
+			pageExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			documentProcessor.setPageParallelism(pagesPerTask, pageExecutor);
+			log.info("Checking the documents with more than {} pages in concurrent page ranges", pagesPerTask);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ForkJoinPool forkJoinPool = typeLevel ? new ForkJoinPool(threads) : null;
+		try {
+			List<Future<OCRDocument>> results = Lists.newArrayListWithCapacity(files.length);
+
+			if (typeLevel) {
+				final CorpusTypeCheck corpusCheck = new CorpusTypeCheck(documentProcessor, forkJoinPool);
+
+				// Count the tokens of the documents, then check the distinct tokens
+				for (final File file : files)
+					results.add(executor.submit(new Callable<OCRDocument>() {
+						public OCRDocument call() throws Exception {
+							String sha1 = (journal != null) ? RunJournal.hash(file) : null;
+							if (!startFile(file, sha1, journal, resultSink, transformCountSink)) {
+								skippedCount.incrementAndGet();
+								return null;
+							}
+
+							try {
+								corpusCheck.collect(file);
+							}
+							catch (OCRCheckException e) {
+								quarantineFile(file, sha1, e, resultSink, journal, quarantineDir);
+								quarantinedCount.incrementAndGet();
+							}
+
+							return null;
+						}
+					}));
+
+				waitFor(results);
+				results.clear();
+
+				corpusCheck.checkTypes();
+
+				// Pass the results of each document to the sink
+				for (final String documentName : Lists.newArrayList(corpusCheck.getDocumentNames()))
+					results.add(executor.submit(new Callable<OCRDocument>() {
+						public OCRDocument call() throws Exception {
+							OCRDocument document = corpusCheck.finish(documentName);
+
+							if (journal != null)
+								journal.documentProcessed(documentName);
+
+							return document;
+						}
+					}));
+			}
+			else
+				for (final File file : files)
+					results.add(executor.submit(new Callable<OCRDocument>() {
+						public OCRDocument call() throws Exception {
+							String sha1 = (journal != null) ? RunJournal.hash(file) : null;
+							if (!startFile(file, sha1, journal, resultSink, transformCountSink)) {
+								skippedCount.incrementAndGet();
+								return null;
+							}
+
+							try {
+								OCRDocument document = documentProcessor.process(file);
+
+								if (journal != null)
+									journal.documentProcessed(file.getName());
+
+								return document;
+							}
+							catch (OCRCheckException e) {
+								quarantineFile(file, sha1, e, resultSink, journal, quarantineDir);
+								quarantinedCount.incrementAndGet();
+								return null;
+							}
+						}
+					}));
+
+			waitFor(results);
+		}
+		finally {
+			executor.shutdownNow();
+			if (forkJoinPool != null)
+				forkJoinPool.shutdownNow();
+			if (pageExecutor != null)
+				pageExecutor.shutdownNow();
+		}
+
+		resultSink.close();
+
+		if (journal != null)
+			journal.close();
+
+		if (ruleUsage != null) {
+			ruleUsage.writeTo(ruleUsageFile);
+			log.info("Wrote the usage of the corrections to {}", ruleUsageFile);
 		}
 
+		if (skippedCount.get() > 0)
+			log.info("Skipped {} file(s) already processed", skippedCount.get());
+		if (quarantinedCount.get() > 0)
+			log.warn("Quarantined {} file(s) that could not be processed", quarantinedCount.get());
+
+		if (metrics != null)
+			metrics.close();
+
+		Multiset<Transformation> transformCounts = transformCountSink.getTransformationCounts();
         for (Transformation transformation : Multisets.copyHighestCountFirst(transformCounts).elementSet())
             log.info("{}: {}", transformation, transformCounts.count(transformation));
 
+		log.info("Token cache: {}", tokenCache);
+
 		log.info("Finished");
 	}
 
+	/**
+	 * Derives the rule matcher weighing the corrections by their usage in the earlier runs, if any
+	 * (see {@link OCRRuleMatcher#orderedBy(long[], boolean)})
+	 *
+	 * @param ruleMatcher     The OCR rules
+	 * @param ruleUsage       The usage of the corrections of the rules, receiving the counts of the earlier runs
+	 * @param ruleUsageFile   The file holding the counts of the earlier runs (may not exist)
+	 * @param skipUnusedRules True to also drop the corrections never used
+	 * @return The weighed rule matcher, or the rule matcher itself if no corrections were used in earlier runs
+	 * @throws IOException
+	 */
+	static OCRRuleMatcher orderRules(OCRRuleMatcher ruleMatcher, RuleUsage ruleUsage, File ruleUsageFile,
+									 boolean skipUnusedRules) throws IOException {
+		long uses = ruleUsageFile.exists() ? ruleUsage.readFrom(ruleUsageFile) : 0;
+		if (uses == 0) {
+			log.info("No corrections used in earlier runs - not weighing them");
+			return ruleMatcher;
+		}
+
+		log.info("Weighing the corrections by their {} use(s) in earlier runs{}", uses,
+				skipUnusedRules ? ", skipping the unused ones" : "");
+
+		return ruleMatcher.orderedBy(ruleUsage.getPreviousCounts(), skipUnusedRules);
+	}
+
+	/**
+	 * Journals the start of the processing of a file, unless the journal shows it can be skipped
+	 *
+	 * @param file The file
+	 * @param sha1 The hash of the file (null if not journaling)
+	 * @param journal The run journal (may be null)
+	 * @param resultSink The sink receiving the results
+	 * @param transformCountSink The sink counting the applied transformations, which receives the counts of a skipped file
+	 * @return False if the file was already processed and is skipped
+	 * @throws IOException
+	 */
+	private static boolean startFile(File file, String sha1, RunJournal journal, ResultSink resultSink,
+									 TransformationCountSink transformCountSink) throws IOException {
+		if (journal == null)
+			return true;
+
+		String documentName = file.getName();
+		if (journal.canSkip(documentName, sha1)) {
+			log.info("Skipping file: {} ({} in the journal)", file, journal.getState(documentName).toString().toLowerCase());
+			transformCountSink.addTransformationCounts(journal.getTransformationCounts(documentName));
+			return false;
+		}
+
+		// Discard any (partial) results of an earlier run
+		if (journal.getState(documentName) != null)
+			resultSink.abortDocument(documentName);
+
+		journal.documentStarted(documentName, sha1);
+
+		return true;
+	}
+
+	/**
+	 * Waits for the workers, rethrowing the first error
+	 */
+	private static void waitFor(List<Future<OCRDocument>> results) throws Exception {
+		for (Future<OCRDocument> result : results) {
+			try {
+				result.get();
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw (cause instanceof Exception) ? (Exception) cause : e;
+			}
+		}
+	}
+
+	/**
+	 * Sets aside a file that could not be processed, instead of aborting the run: its results are discarded,
+	 * it is moved to the quarantine directory (if any) and it is journaled as quarantined (if journaling)
+	 *
+	 * @param file The file
+	 * @param sha1 The hash of the file (null if not journaling)
+	 * @param error The error
+	 * @param resultSink The sink receiving the results
+	 * @param journal The run journal (may be null)
+	 * @param quarantineDir The quarantine directory (may be null)
+	 * @throws IOException
+	 */
+	private static void quarantineFile(File file, String sha1, OCRCheckException error, ResultSink resultSink,
+									   RunJournal journal, File quarantineDir) throws IOException {
+		log.error("Quarantining file: " + file, error);
+
+		resultSink.abortDocument(file.getName());
+
+		if (quarantineDir != null)
+			Files.move(file, new File(quarantineDir, file.getName()));
+
+		if (journal != null)
+			journal.documentQuarantined(file.getName(), sha1, error.getCause() != null ? error.getCause() : error);
+	}
+
+	/**
+	 * Creates the run metrics, according to the command line options
+	 *
+	 * @param cmdLine The command line options
+	 * @return The metrics (registered with JMX and reporting periodically), or null if disabled
+	 * @throws JMException
+	 */
+	private static Metrics createMetrics(JSAPResult cmdLine) throws JMException {
+		if (!cmdLine.getBoolean("metrics"))
+			return null;
+
+		Metrics metrics = new Metrics();
+		metrics.registerMBean();
+
+		int interval = cmdLine.getInt("metricsInterval");
+		File csvFile = cmdLine.getFile("metricsCsv");
+		metrics.startReporting(interval, csvFile);
+
+		log.info("Recording metrics (JMX: {}, reported every {} s{})", Metrics.OBJECT_NAME, interval,
+				csvFile != null ? " to " + csvFile : "");
+
+		return metrics;
+	}
+
+	/**
+	 * Creates the sink(s) receiving the results, according to the command line options
+	 *
+	 * @param cmdLine The command line options
+	 * @param connectionPool The DB connection pool (null to not write the results to the DB)
+	 * @param transformCountSink The sink counting the applied transformations
+	 * @param ruleUsage The sink counting the usage of the OCR corrections (null if not counting it)
+	 * @param journal The run journal (null if not journaling)
+	 * @return The result sink
+	 */
+	private static ResultSink createResultSink(JSAPResult cmdLine, BoneCP connectionPool, TransformationCountSink transformCountSink,
+											   RuleUsage ruleUsage, RunJournal journal) {
+		List<ResultSink> sinks = Lists.<ResultSink>newArrayList(transformCountSink);
+
+		if (ruleUsage != null)
+			sinks.add(ruleUsage);
+
+		if (journal != null)
+			sinks.add(journal);
+
+		if (connectionPool != null) {
+			DBResultWriter dbResultWriter = new DBResultWriter(connectionPool);
+			dbResultWriter.setCommitListener(journal);
+			sinks.add(dbResultWriter);
+		}
+
+		File outputDir = cmdLine.getFile("outputDir");
+		if (outputDir != null) {
+			FileResultSink.Mode mode = "run".equals(cmdLine.getString("outputMode")) ?
+					FileResultSink.Mode.RUN : FileResultSink.Mode.DOCUMENT;
+			long rollSize = cmdLine.getLong("outputRollSize");
+
+			log.info("Writing {} results to {} (one file per {})", cmdLine.getString("outputFormat"), outputDir,
+					mode.toString().toLowerCase());
+
+			sinks.add("binary".equals(cmdLine.getString("outputFormat")) ?
+					new BinaryResultSink(outputDir, mode, rollSize) : new JsonLinesResultSink(outputDir, mode, rollSize));
+		}
+
+		return (sinks.size() == 1) ? sinks.get(0) : new CompositeResultSink(sinks);
+	}
+
 	/**
 	 * Reads the transformation rules from a stream and constructs a dictionary mapping the replacement rules
      *
@@ -115,7 +537,7 @@ public class Main {
 	 * @throws IOException
 	 * @throws JSONException
 	 */
-	private static Map<String, Set<String>> getTransformationRules(InputStream rulesStream) throws IOException, JSONException {
+	static Map<String, Set<String>> getTransformationRules(InputStream rulesStream) throws IOException, JSONException {
 		Map<String, Set<String>> transformRules = new HashMap<String, Set<String>>();
 		Reader reader = new BufferedReader(new InputStreamReader(rulesStream));
 
@@ -159,88 +581,39 @@ public class Main {
 			connection = connectionPool.getConnection();
 			stmt = connection.createStatement();
 
+			// The misspellings are compared case-sensitively (like Misspelling.equals), and the documents are keyed on the
+			// MD5 of their name, keeping the keys within the InnoDB limit of 767 bytes whatever the character set
 			String sqlCreateTableMisspellings = String.format(
 					"CREATE TABLE IF NOT EXISTS %s (" +
 					"   id INT UNSIGNED NOT NULL AUTO_INCREMENT, " +
-					"   misspelling VARCHAR(50) NOT NULL, " +
+					"   document VARCHAR(255) NOT NULL, " +
+					"   document_hash BINARY(16) NOT NULL, " +
+					"   misspelling VARCHAR(%d) BINARY NOT NULL, " +
 					"   2gram_score FLOAT NOT NULL, " +
-					"   3gram_score FLOAT NOT NULL " +
-					")", Constants.TABLE_MISSPELLINGS);
-
-
-		}
-		finally {
-			releaseConnection(connection, stmt);
-		}
-
-	}
-
-	private static Map<String, Integer> getNGramCounts(int n, BoneCP connectionPool) throws SQLException {
-		Connection connection = null;
-		Statement stmt = null;
-
-		try {
-			connection = connectionPool.getConnection();
-			stmt = connection.createStatement();
-
-			log.debug("Loading {}-gram counts...", n);
+					"   3gram_score FLOAT NOT NULL, " +
+					"   count INT UNSIGNED NOT NULL, " +
+					"   PRIMARY KEY (id), " +
+					"   UNIQUE KEY document_misspelling (document_hash, misspelling) " +
+					")", Constants.TABLE_MISSPELLINGS, Constants.MAX_MISSPELLING_LENGTH);
 
-			String tableName = (n == 2) ? Constants.TABLE_DICT_2GRAMS : Constants.TABLE_DICT_3GRAMS;
-			String sqlQueryNgramCounts = String.format("SELECT ngram, count FROM %s", tableName);
-			ResultSet rs = stmt.executeQuery(sqlQueryNgramCounts);
-
-			Map<String, Integer> ngramCounts = new HashMap<String, Integer>();
-
-			int sum = 0;
-			while (rs.next()) {
-				String ngram = rs.getString("ngram");
-				int count = rs.getInt("count");
-				ngramCounts.put(ngram, count);
-
-				sum += count;
-			}
-
-			log.info(String.format("Loaded %,d %d-grams", ngramCounts.size(), n));
-
-			// Store the sum of the counts using the special key "+"
-			ngramCounts.put("+", sum);
-
-			return ngramCounts;
-		}
-		finally {
-			releaseConnection(connection, stmt);
+			String sqlCreateTableSuggestions = String.format(
+					"CREATE TABLE IF NOT EXISTS %s (" +
+					"   id INT UNSIGNED NOT NULL AUTO_INCREMENT, " +
+					"   document VARCHAR(255) NOT NULL, " +
+					"   document_hash BINARY(16) NOT NULL, " +
+					"   misspelling VARCHAR(%d) BINARY NOT NULL, " +
+					"   suggestion VARCHAR(%d) NOT NULL, " +
+					"   levenshtein_score INT UNSIGNED NOT NULL, " +
+					"   2gram_score FLOAT NOT NULL, " +
+					"   3gram_score FLOAT NOT NULL, " +
+					"   transformations VARCHAR(255) NOT NULL, " +
+					"   PRIMARY KEY (id), " +
+					"   KEY document_misspelling (document_hash, misspelling) " +
+					")", Constants.TABLE_SUGGESTIONS, Constants.MAX_MISSPELLING_LENGTH, Constants.MAX_SUGGESTION_LENGTH);
+
+			stmt.executeUpdate(sqlCreateTableMisspellings);
+			stmt.executeUpdate(sqlCreateTableSuggestions);
 		}
-	}
-
-	private static SpellDictionary getDictionary(BoneCP connectionPool) throws SQLException {
-		Connection connection = null;
-		Statement stmt = null;
-
-		try {
-			connection = connectionPool.getConnection();
-			stmt = connection.createStatement();
-
-			log.debug("Loading dictionary...");
-
-			String sqlQueryWords = String.format("SELECT word FROM %s", Constants.TABLE_DICT);
-			ResultSet rs = stmt.executeQuery(sqlQueryWords);
-
-            SpellDictionary dictionary = null;
-            try {
-                dictionary = new SpellDictionaryHashMap();
-                int wordCount = 0;
-
-                while (rs.next()) {
-                    dictionary.addWord(rs.getString(1));
-                    wordCount++;
-                }
-
-                log.info(String.format("Loaded %,d dictionary words", wordCount));
-            }
-            catch (IOException ex) { }
-
-            return dictionary;
-        }
 		finally {
 			releaseConnection(connection, stmt);
 		}
@@ -248,7 +621,7 @@ public class Main {
 
 	private static Parameter[] getApplicationParameters() {
 		Parameter dbUrl = new FlaggedOption("dbUrl")
-								.setDefault("jdbc:mysql://localhost/emop")
+								.setDefault("jdbc:mysql://localhost/emop?rewriteBatchedStatements=true")
 								.setLongFlag("dburl")
 								.setHelp("DB identifier URL to use");
 
@@ -267,9 +640,8 @@ public class Main {
 										FileStringParser.getParser()
 											.setMustBeDirectory(true)
 											.setMustExist(true))
-								.setRequired(true)
 								.setShortFlag('d')
-								.setHelp("Directory containing the files to process");
+								.setHelp("Directory containing the files to process (not needed with --serve or --build-lexicon-image)");
 
 		Parameter transformations = new FlaggedOption("transformations")
 								.setStringParser(
@@ -280,7 +652,186 @@ public class Main {
 								.setShortFlag('t')
 								.setHelp("The transformation rules to use for OCR correction");
 
-		return new Parameter[] { dbUrl, dbUser, dbPasswd, directory, transformations };
+		Parameter threads = new FlaggedOption("threads")
+								.setStringParser(POSITIVE_INTEGER_PARSER)
+								.setDefault(String.valueOf(Runtime.getRuntime().availableProcessors()))
+								.setLongFlag("threads")
+								.setHelp("The number of documents to process concurrently");
+
+		Parameter cacheSize = new FlaggedOption("cacheSize")
+								.setStringParser(JSAP.LONG_PARSER)
+								.setDefault(String.valueOf(TokenCache.DEFAULT_MAXIMUM_SIZE))
+								.setLongFlag("cache-size")
+								.setHelp("The maximum number of distinct tokens whose spellcheck results are cached");
+
+		Parameter parser = new FlaggedOption("parser")
+								.setStringParser(EnumeratedStringParser.getParser("stax;dom"))
+								.setDefault("stax")
+								.setLongFlag("parser")
+								.setHelp("The XML parser used to tokenize the documents: 'stax' (streaming) or 'dom' (DOM + XPath)");
+
+		Parameter candidates = new FlaggedOption("candidates")
+								.setStringParser(EnumeratedStringParser.getParser("trie;powerset;bestfirst"))
+								.setDefault("trie")
+								.setLongFlag("candidates")
+								.setHelp("How candidate suggestions are generated: 'trie' (prune by dictionary prefix), 'powerset' (all transformation subsets) " +
+										"or 'bestfirst' (fewest transformations first, pruned by dictionary prefix, stopping early)");
+
+		Parameter bestFirstLimit = new FlaggedOption("bestFirstLimit")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault(String.valueOf(BestFirstCandidateSuggestionsGenerator.DEFAULT_MAX_SUGGESTIONS))
+								.setLongFlag("best-first-limit")
+								.setHelp("The number of valid suggestions after which the best-first candidate search stops");
+
+		Parameter bestFirstSlack = new FlaggedOption("bestFirstSlack")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault(String.valueOf(BestFirstCandidateSuggestionsGenerator.DEFAULT_COST_SLACK))
+								.setLongFlag("best-first-slack")
+								.setHelp("The number of transformations, beyond those of the best valid suggestion, after which the best-first candidate search stops");
+
+		Parameter dictionary = new FlaggedOption("dictionary")
+								.setStringParser(EnumeratedStringParser.getParser("dawg;hashmap"))
+								.setDefault("hashmap")
+								.setLongFlag("dictionary")
+								.setHelp("The dictionary implementation: 'dawg' (compact automaton) or 'hashmap' (Jazzy's SpellDictionaryHashMap)");
+
+		Parameter symSpellDistance = new FlaggedOption("symSpellDistance")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("0")
+								.setLongFlag("symspell-distance")
+								.setHelp("The maximum edit distance of the dictionary words added to the suggestions produced by the OCR rules, " +
+										"e.g. " + SymSpellIndex.DEFAULT_MAX_DISTANCE + " (0 to not add any; the index of the words is built on the heap)");
+
+		Parameter symSpellIndex = new FlaggedOption("symSpellIndex")
+								.setStringParser(FileStringParser.getParser())
+								.setLongFlag("symspell-index")
+								.setHelp("File caching the SymSpell index of the dictionary words (read if it exists, written otherwise)");
+
+		Parameter lexiconImage = new FlaggedOption("lexiconImage")
+								.setStringParser(FileStringParser.getParser())
+								.setLongFlag("lexicon-image")
+								.setHelp("Binary image of the dictionary and the n-gram counts, mapped into memory (and shared by the processes " +
+										"of a node) instead of loaded from the DB; (re)built from the DB if missing or stale (implies --dictionary dawg)");
+
+		Parameter buildLexiconImage = new Switch("buildLexiconImage")
+								.setLongFlag("build-lexicon-image")
+								.setHelp("Only build the --lexicon-image from the DB, then exit");
+
+		Parameter segmentWords = new Switch("segmentWords")
+								.setLongFlag("segment-words")
+								.setHelp("Suggest segmentations into dictionary words (possibly applying the transformation rules) " +
+										"for the misspellings without other suggestions, e.g. run-together words");
+
+		Parameter noDbOutput = new Switch("noDbOutput")
+								.setLongFlag("no-db-output")
+								.setHelp("Do not write the misspellings and suggestions to the DB");
+
+		Parameter outputDir = new FlaggedOption("outputDir")
+								.setStringParser(
+										FileStringParser.getParser()
+											.setMustBeDirectory(true)
+											.setMustExist(true))
+								.setLongFlag("output-dir")
+								.setHelp("Directory where the results are written to files (in addition to the DB)");
+
+		Parameter outputFormat = new FlaggedOption("outputFormat")
+								.setStringParser(EnumeratedStringParser.getParser("jsonl;binary"))
+								.setDefault("jsonl")
+								.setLongFlag("output-format")
+								.setHelp("The format of the result files: 'jsonl' (JSON Lines) or 'binary' (length-prefixed records)");
+
+		Parameter outputMode = new FlaggedOption("outputMode")
+								.setStringParser(EnumeratedStringParser.getParser("document;run"))
+								.setDefault("document")
+								.setLongFlag("output-mode")
+								.setHelp("Whether to write a result file per 'document' or per 'run'");
+
+		Parameter outputRollSize = new FlaggedOption("outputRollSize")
+								.setStringParser(JSAP.LONG_PARSER)
+								.setDefault(String.valueOf(FileResultSink.DEFAULT_ROLL_SIZE))
+								.setLongFlag("output-roll-size")
+								.setHelp("The size (in bytes) after which a new result file is started when writing a file per run (0 to never roll over)");
+
+		Parameter maxSuggestions = new FlaggedOption("maxSuggestions")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("0")
+								.setLongFlag("max-suggestions")
+								.setHelp("The maximum number of (best) suggestions kept per misspelling (0 to keep all of them)");
+
+		Parameter maxPendingCounts = new FlaggedOption("maxPendingCounts")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("0")
+								.setLongFlag("max-pending-counts")
+								.setHelp("Stream the results of each document, keeping at most this many distinct misspelling counts in memory (0 to keep all the misspellings of a document in memory)");
+
+		Parameter metrics = new Switch("metrics")
+								.setLongFlag("metrics")
+								.setHelp("Record counters and per-stage timings, exposed through JMX and reported periodically");
+
+		Parameter metricsInterval = new FlaggedOption("metricsInterval")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("60")
+								.setLongFlag("metrics-interval")
+								.setHelp("The period (in seconds) at which the metrics are reported (0 to only report them at the end of the run)");
+
+		Parameter metricsCsv = new FlaggedOption("metricsCsv")
+								.setStringParser(FileStringParser.getParser())
+								.setLongFlag("metrics-csv")
+								.setHelp("CSV file to which the metrics are appended at each report");
+
+		Parameter journal = new FlaggedOption("journal")
+								.setStringParser(FileStringParser.getParser())
+								.setLongFlag("journal")
+								.setHelp("Journal file recording the processed files; a run using an existing journal skips the files " +
+										"already processed with the same dictionary and rules");
+
+		Parameter quarantineDir = new FlaggedOption("quarantineDir")
+								.setStringParser(
+										FileStringParser.getParser()
+											.setMustBeDirectory(true)
+											.setMustExist(true))
+								.setLongFlag("quarantine-dir")
+								.setHelp("Directory where the files that cannot be processed are moved to");
+
+		Parameter pagesPerTask = new FlaggedOption("pagesPerTask")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("0")
+								.setLongFlag("pages-per-task")
+								.setHelp("Split the documents with more than this many pages into ranges of pages checked concurrently (0 to check each document sequentially)");
+
+		Parameter ruleUsage = new FlaggedOption("ruleUsage")
+								.setStringParser(FileStringParser.getParser())
+								.setLongFlag("rule-usage")
+								.setHelp("File accumulating across runs how often each correction of the OCR rules is used by the suggestions; " +
+										"the best-first candidate search (--candidates bestfirst) tries the corrections most used in the earlier runs first");
+
+		Parameter skipUnusedRules = new Switch("skipUnusedRules")
+								.setLongFlag("skip-unused-rules")
+								.setHelp("Skip the corrections never used in the earlier runs recorded by --rule-usage (the skipped " +
+										"corrections are not learned any more; run without this option to relearn them)");
+
+		Parameter serve = new FlaggedOption("serve")
+								.setStringParser(JSAP.INTEGER_PARSER)
+								.setDefault("0")
+								.setLongFlag("serve")
+								.setHelp("Instead of processing the directory, serve spellcheck requests for documents and token batches over HTTP " +
+										"on this port of the loopback interface, keeping the lexicon loaded (0 to not serve requests); " +
+										"the results are returned in the responses, and the rules file can be reloaded (see SpellCheckServer); " +
+										"the --rule-usage file, if any, weighs the rules but is not updated");
+
+		Parameter typeLevel = new Switch("typeLevel")
+								.setLongFlag("type-level")
+								.setHelp("Check each distinct token of the corpus once: the tokens of all the files are counted first, then checked " +
+										"in parallel, and the results are counted per file (keeps the token counts of all the files in memory; " +
+										"--pages-per-task is not used)");
+
+		return new Parameter[] {
+				dbUrl, dbUser, dbPasswd, directory, transformations, threads, cacheSize, parser,
+				candidates, bestFirstLimit, bestFirstSlack, dictionary, symSpellDistance, symSpellIndex, lexiconImage, buildLexiconImage, segmentWords,
+				noDbOutput, outputDir, outputFormat, outputMode, outputRollSize, maxSuggestions, maxPendingCounts,
+				metrics, metricsInterval, metricsCsv, journal, quarantineDir, pagesPerTask,
+				typeLevel, ruleUsage, skipUnusedRules, serve
+		};
 	}
 
 	private static String getApplicationHelp() {
@@ -0,0 +1,457 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Counters and per-stage latency histograms of a spellchecking run.
+ *
+ * Each worker thread records into its own {@link Recorder}, so recording is uncontended; the recorders are only
+ * summed when the metrics are read (through JMX or by the periodic report). The histograms have 4 buckets per power
+ * of two nanoseconds, so the reported percentiles are the upper bounds of their buckets (within 25%).
+ * When the metrics are disabled, {@link Recorder#DISABLED} is used instead, which neither records nor reads the clock.
+ *
+ * @author capitanu
+ */
+public class Metrics implements MetricsMXBean, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+	public static final String OBJECT_NAME = "edu.illinois.i3.emop.apps.dbspellcheck:type=Metrics";
+
+	public enum Counter {
+		TOKENS,
+		JUNK_TOKENS,
+		CACHE_HITS,
+		DICTIONARY_HITS,
+		MISSPELLINGS,
+		CANDIDATES_GENERATED,
+		CANDIDATES_ACCEPTED
+	}
+
+	public enum Stage {
+		/** Cleaning a token */
+		CLEAN,
+		/** Normalizing and n-gram scoring a token */
+		NGRAM_SCORING,
+		/** Matching the OCR rules against a misspelling */
+		TRANSFORMATION_MATCHING,
+		/** Generating and validating the candidate suggestions of a misspelling */
+		CANDIDATE_GENERATION,
+		/** Scoring the candidate suggestions of a misspelling */
+		SCORING,
+		/** Checking a (not cached) token, all stages included */
+		TOKEN_CHECK,
+		/** Parsing a whole document (reading its tokens), summed over its ranges of pages if checked in parallel */
+		PARSE,
+		/** Parsing and spellchecking a whole document */
+		DOCUMENT
+	}
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	private static final int SUM = BUCKETS;				// per-stage slot holding the sum of the latencies
+	private static final int MAX = BUCKETS + 1;			// per-stage slot holding the maximum latency
+	private static final int STAGE_SLOTS = BUCKETS + 2;
+
+	private final List<Recorder> _recorders = new CopyOnWriteArrayList<Recorder>();
+	private final ThreadLocal<Recorder> _threadRecorder = new ThreadLocal<Recorder>() {
+		@Override
+		protected Recorder initialValue() {
+			Recorder recorder = new Recorder(true);
+			_recorders.add(recorder);
+			return recorder;
+		}
+	};
+	private final long _startMillis = System.currentTimeMillis();
+
+	private ScheduledExecutorService _reporter;
+	private File _csvFile;
+	private ObjectName _objectName;
+
+	/**
+	 * @return The recorder of the calling thread
+	 */
+	public Recorder getRecorder() {
+		return _threadRecorder.get();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under {@value #OBJECT_NAME}
+	 *
+	 * @throws JMException
+	 */
+	public void registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(OBJECT_NAME);
+		server.registerMBean(this, objectName);
+		_objectName = objectName;
+	}
+
+	/**
+	 * Periodically logs a summary of the metrics and, if a file is given, appends them to it as a CSV row
+	 *
+	 * @param periodSeconds The reporting period, in seconds (0 to only report when closed)
+	 * @param csvFile       The CSV file (may be null)
+	 */
+	public void startReporting(long periodSeconds, File csvFile) {
+		_csvFile = csvFile;
+		if (periodSeconds <= 0)
+			return;
+
+		_reporter = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("metrics-reporter").setDaemon(true).build());
+		_reporter.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				report();
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Logs a summary of the metrics and appends them to the CSV file (if any)
+	 */
+	public void report() {
+		log.info("Metrics: {}", getSummary());
+		for (StageStatistics statistics : getStageStatistics())
+			if (statistics.getCount() > 0)
+				log.info("Metrics: {}", statistics);
+
+		if (_csvFile != null) {
+			try {
+				appendCsv(_csvFile);
+			}
+			catch (IOException e) {
+				log.warn("Could not write the metrics to " + _csvFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the periodic report, reports the final metrics and unregisters the MBean
+	 */
+	public void close() throws IOException {
+		if (_reporter != null)
+			_reporter.shutdownNow();
+
+		report();
+
+		if (_objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+			}
+			catch (JMException e) {
+				log.warn("Could not unregister " + _objectName, e);
+			}
+		}
+	}
+
+	public long getCount(Counter counter) {
+		long count = 0;
+		for (Recorder recorder : _recorders)
+			count += recorder._counters.get(counter.ordinal());
+
+		return count;
+	}
+
+	public long getTokens() {
+		return getCount(Counter.TOKENS);
+	}
+
+	public long getJunkTokens() {
+		return getCount(Counter.JUNK_TOKENS);
+	}
+
+	public long getCacheHits() {
+		return getCount(Counter.CACHE_HITS);
+	}
+
+	public long getDictionaryHits() {
+		return getCount(Counter.DICTIONARY_HITS);
+	}
+
+	public long getMisspellings() {
+		return getCount(Counter.MISSPELLINGS);
+	}
+
+	public long getCandidatesGenerated() {
+		return getCount(Counter.CANDIDATES_GENERATED);
+	}
+
+	public long getCandidatesAccepted() {
+		return getCount(Counter.CANDIDATES_ACCEPTED);
+	}
+
+	public StageStatistics getStageStatistics(Stage stage) {
+		long[] histogram = new long[STAGE_SLOTS];
+		int offset = stage.ordinal() * STAGE_SLOTS;
+
+		for (Recorder recorder : _recorders) {
+			for (int i = 0; i < BUCKETS + 1; i++)
+				histogram[i] += recorder._histograms.get(offset + i);
+			histogram[MAX] = Math.max(histogram[MAX], recorder._histograms.get(offset + MAX));
+		}
+
+		return new StageStatistics(stage, histogram);
+	}
+
+	public List<StageStatistics> getStageStatistics() {
+		List<StageStatistics> statistics = Lists.newArrayListWithCapacity(Stage.values().length);
+		for (Stage stage : Stage.values())
+			statistics.add(getStageStatistics(stage));
+
+		return statistics;
+	}
+
+	public String getSummary() {
+		long generated = getCandidatesGenerated();
+		long accepted = getCandidatesAccepted();
+		double seconds = (System.currentTimeMillis() - _startMillis) / 1e3;
+		long tokens = getTokens();
+
+		return String.format("tokens: %,d (%,.0f/s), junk: %,d, cache hits: %,d, dictionary hits: %,d, misspellings: %,d, " +
+						"candidates: %,d generated, %,d accepted (%.2f%%)",
+				tokens, seconds > 0 ? tokens / seconds : 0, getJunkTokens(), getCacheHits(), getDictionaryHits(),
+				getMisspellings(), generated, accepted, generated > 0 ? accepted * 100.0 / generated : 0);
+	}
+
+	private void appendCsv(File csvFile) throws IOException {
+		boolean writeHeader = !csvFile.exists() || csvFile.length() == 0;
+		Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile, true), Charset.forName("UTF-8"));
+
+		try {
+			StringBuilder row = new StringBuilder();
+
+			if (writeHeader) {
+				row.append("time");
+				for (Counter counter : Counter.values())
+					row.append(',').append(counter.toString().toLowerCase());
+				for (Stage stage : Stage.values()) {
+					String name = stage.toString().toLowerCase();
+					row.append(',').append(name).append("_count")
+					   .append(',').append(name).append("_mean_us")
+					   .append(',').append(name).append("_p50_us")
+					   .append(',').append(name).append("_p99_us")
+					   .append(',').append(name).append("_max_us");
+				}
+				row.append('\n');
+			}
+
+			row.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+			for (Counter counter : Counter.values())
+				row.append(',').append(getCount(counter));
+			for (StageStatistics statistics : getStageStatistics())
+				row.append(',').append(statistics.getCount())
+				   .append(',').append(String.format("%.3f", statistics.getMeanMicros()))
+				   .append(',').append(String.format("%.3f", statistics.getMedianMicros()))
+				   .append(',').append(String.format("%.3f", statistics.getP99Micros()))
+				   .append(',').append(String.format("%.3f", statistics.getMaxMicros()));
+			row.append('\n');
+
+			writer.write(row.toString());
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) Math.max(nanos, 0);
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return The largest value falling into a bucket
+	 */
+	private static long bucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Records the counters and stage latencies of a single thread
+	 */
+	public static class Recorder {
+
+		/** A recorder that records nothing */
+		public static final Recorder DISABLED = new Recorder(false);
+
+		private final boolean _enabled;
+		private final AtomicLongArray _counters;
+		private final AtomicLongArray _histograms;
+
+		private Recorder(boolean enabled) {
+			_enabled = enabled;
+			_counters = new AtomicLongArray(enabled ? Counter.values().length : 0);
+			_histograms = new AtomicLongArray(enabled ? Stage.values().length * STAGE_SLOTS : 0);
+		}
+
+		public boolean isEnabled() {
+			return _enabled;
+		}
+
+		/**
+		 * @return The current time in nanoseconds, or 0 if disabled
+		 */
+		public long startTimer() {
+			return _enabled ? System.nanoTime() : 0;
+		}
+
+		/**
+		 * Records the latency of a stage
+		 *
+		 * @param stage      The stage
+		 * @param startNanos The start time of the stage, as returned by {@link #startTimer()}
+		 * @return The current time in nanoseconds (the start time of the following stage), or 0 if disabled
+		 */
+		public long record(Stage stage, long startNanos) {
+			if (!_enabled)
+				return 0;
+
+			long now = System.nanoTime();
+			recordNanos(stage, now - startNanos);
+
+			return now;
+		}
+
+		/**
+		 * Records the latency of a stage measured by the caller
+		 *
+		 * @param stage The stage
+		 * @param nanos The latency, in nanoseconds
+		 */
+		public void recordNanos(Stage stage, long nanos) {
+			if (!_enabled)
+				return;
+
+			int offset = stage.ordinal() * STAGE_SLOTS;
+
+			// Only the owning thread writes, so ordered (lazy) writes suffice
+			int bucket = offset + bucketOf(nanos);
+			_histograms.lazySet(bucket, _histograms.get(bucket) + 1);
+			_histograms.lazySet(offset + SUM, _histograms.get(offset + SUM) + nanos);
+			if (nanos > _histograms.get(offset + MAX))
+				_histograms.lazySet(offset + MAX, nanos);
+		}
+
+		public void increment(Counter counter) {
+			add(counter, 1);
+		}
+
+		public void add(Counter counter, long value) {
+			if (!_enabled)
+				return;
+
+			int index = counter.ordinal();
+			_counters.lazySet(index, _counters.get(index) + value);
+		}
+	}
+
+	/**
+	 * The latency statistics of a stage
+	 */
+	public static class StageStatistics {
+		private final Stage _stage;
+		private final long[] _histogram;
+		private final long _count;
+
+		private StageStatistics(Stage stage, long[] histogram) {
+			_stage = stage;
+			_histogram = histogram;
+
+			long count = 0;
+			for (int i = 0; i < BUCKETS; i++)
+				count += histogram[i];
+			_count = count;
+		}
+
+		public String getStage() {
+			return _stage.toString();
+		}
+
+		public long getCount() {
+			return _count;
+		}
+
+		public double getTotalSeconds() {
+			return _histogram[SUM] / 1e9;
+		}
+
+		public double getMeanMicros() {
+			return (_count > 0) ? _histogram[SUM] / 1e3 / _count : 0;
+		}
+
+		public double getMedianMicros() {
+			return getPercentileMicros(50);
+		}
+
+		public double getP99Micros() {
+			return getPercentileMicros(99);
+		}
+
+		public double getMaxMicros() {
+			return _histogram[MAX] / 1e3;
+		}
+
+		/**
+		 * @param percentile The percentile (between 0 and 100)
+		 * @return The upper bound of the histogram bucket holding the percentile, in microseconds
+		 */
+		public double getPercentileMicros(double percentile) {
+			if (_count == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(_count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += _histogram[i];
+				if (seen >= Math.max(rank, 1))
+					return Math.min(bucketUpperBound(i), _histogram[MAX]) / 1e3;
+			}
+
+			return getMaxMicros();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %,d in %.2f s (mean: %.1f us, p50: %.1f us, p99: %.1f us, max: %.1f us)",
+					_stage.toString().toLowerCase(), _count, getTotalSeconds(), getMeanMicros(),
+					getMedianMicros(), getP99Micros(), getMaxMicros());
+		}
+	}
+}
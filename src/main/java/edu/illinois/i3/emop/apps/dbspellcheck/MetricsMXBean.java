@@ -0,0 +1,42 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link Metrics} of a run; all the values are cumulative since the start of the run
+ *
+ * @author capitanu
+ */
+public interface MetricsMXBean {
+
+	long getTokens();
+
+	long getJunkTokens();
+
+	long getCacheHits();
+
+	long getDictionaryHits();
+
+	long getMisspellings();
+
+	/**
+	 * @return The number of candidate suggestions tested by the suggestion predicate
+	 */
+	long getCandidatesGenerated();
+
+	/**
+	 * @return The number of candidate suggestions accepted by the suggestion predicate
+	 */
+	long getCandidatesAccepted();
+
+	/**
+	 * @return The latency statistics of each stage
+	 */
+	List<Metrics.StageStatistics> getStageStatistics();
+
+	/**
+	 * @return A one-line summary of the counters
+	 */
+	String getSummary();
+
+}
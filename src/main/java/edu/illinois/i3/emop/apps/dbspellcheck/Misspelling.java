@@ -1,24 +1,42 @@
 package edu.illinois.i3.emop.apps.dbspellcheck;
 
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Ordering;
 
 public class Misspelling {
 
 	private final String _misspelling;
 	private final double _bigramScore;
 	private final double _trigramScore;
-	private final Set<Suggestion> _suggestions;
+	private final NavigableSet<Suggestion> _suggestions;
+	private final Map<String, Suggestion> _suggestedWords;
+	private final int _maxSuggestions;
 
 	public Misspelling(String misspelling, double bigramScore, double trigramScore) {
+		this(misspelling, bigramScore, trigramScore, 0);
+	}
+
+	/**
+	 * @param misspelling    The misspelled word
+	 * @param bigramScore    The 2-gram score of the word
+	 * @param trigramScore   The 3-gram score of the word
+	 * @param maxSuggestions The maximum number of (best) suggestions to keep (0 to keep all of them)
+	 */
+	public Misspelling(String misspelling, double bigramScore, double trigramScore, int maxSuggestions) {
 		_misspelling = misspelling;
 		_bigramScore = bigramScore;
 		_trigramScore = trigramScore;
+		_maxSuggestions = maxSuggestions;
 
 		_suggestions = new TreeSet<Suggestion>(new SuggestionComparator());
+		_suggestedWords = new HashMap<String, Suggestion>();
 	}
 
 	public String getMisspelledWord() {
@@ -39,7 +57,43 @@ public class Misspelling {
 					String.format("Misspelling mismatch for suggestion %s - expected: %s, actual %s",
 							suggestion.getSuggestion(), getMisspelledWord(), suggestion.getMisspelling().getMisspelledWord()));
 
-		return _suggestions.add(suggestion);
+		// The same word may be reached through different transformations, and its (incrementally computed)
+		// n-gram scores may then differ by rounding, so the suggested words are deduplicated by themselves,
+		// keeping the same suggestion whatever the order the candidates are generated in
+		Suggestion previous = _suggestedWords.get(suggestion.getSuggestion());
+		if (previous != null) {
+			if (!isPreferred(suggestion, previous))
+				return false;
+			_suggestions.remove(previous);
+		}
+		_suggestedWords.put(suggestion.getSuggestion(), suggestion);
+
+		if (!_suggestions.add(suggestion))
+			return false;
+
+		// Keep only the best suggestions, dropping the worst one (and its word) once the limit is exceeded
+		if (_maxSuggestions > 0 && _suggestions.size() > _maxSuggestions) {
+			Suggestion worst = _suggestions.pollLast();
+			_suggestedWords.remove(worst.getSuggestion());
+			return worst != suggestion;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Chooses between two suggestions of the same word: the one applying fewer transformations,
+	 * then the one whose transformations come first (see {@link Transformation#ORDERING})
+	 */
+	private static boolean isPreferred(Suggestion suggestion, Suggestion other) {
+		int transformationCount = suggestion.getTransformations().size();
+		int otherTransformationCount = other.getTransformations().size();
+		if (transformationCount != otherTransformationCount)
+			return transformationCount < otherTransformationCount;
+
+		return Transformation.ORDERING.lexicographical().compare(
+				Transformation.ORDERING.sortedCopy(suggestion.getTransformations()),
+				Transformation.ORDERING.sortedCopy(other.getTransformations())) < 0;
 	}
 
 	public Set<Suggestion> getSuggestions() {
@@ -57,7 +111,7 @@ public class Misspelling {
 
 		Misspelling m = (Misspelling) other;
 
-		return _misspelling == m._misspelling;
+		return _misspelling.equals(m._misspelling);
 	}
 
 	@Override
@@ -76,17 +130,27 @@ public class Misspelling {
 	}
 
 	/**
-	 * Compares two suggestions based on their score, higher scores first
+	 * Compares two suggestions based on their score (lower edit distances first), breaking ties on
+	 * their 3-gram and 2-gram scores (higher scores first), then on the suggested words
 	 *
 	 * @author capitanu
 	 *
 	 */
 	private class SuggestionComparator implements Comparator<Suggestion> {
+		private final Ordering<Double> _ngramScoreOrdering = Ordering.natural().nullsFirst();
+
 		public int compare(Suggestion s1, Suggestion s2) {
 			Score score1 = s1.getScore();
 			Score score2 = s2.getScore();
-			if (score1 != score2)
-				return score1.compareTo(score2);
+			if (score1 != score2) {
+				int result = score1.compareTo(score2);
+				if (result == 0)
+					result = _ngramScoreOrdering.compare(score2.getTrigramScore(), score1.getTrigramScore());
+				if (result == 0)
+					result = _ngramScoreOrdering.compare(score2.getBigramScore(), score1.getBigramScore());
+				if (result != 0)
+					return result;
+			}
 
 			return s1.getSuggestion().compareTo(s2.getSuggestion());
 		}
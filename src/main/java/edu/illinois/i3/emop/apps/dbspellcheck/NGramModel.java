@@ -0,0 +1,401 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Character n-gram counts for orders {@value #MIN_ORDER} to {@value #MAX_ORDER}, stored in a single open-addressing
+ * hash table keyed by the n-grams packed into a primitive long (12 bits per character, using a compact alphabet
+ * built as n-grams are added).
+ *
+ * Words are scored as if surrounded by the {@value #BOUNDARY} boundary marker; the score of a word for order n is
+ * the product of count(ngram) / total(n) over all the n-grams of the padded word, where unknown n-grams have a count of 1
+ * (n-grams stored with a count of 0 keep it, giving a score of 0).
+ * The model must be fully loaded before being shared between threads; scoring is read-only and allocation-free.
+ * A loaded model can be written to a file and read back as a read-only view of a (memory-mapped) buffer, see
+ * {@link #writeTo(DataOutputStream)} and {@link #readFrom(ByteBuffer)}.
+ *
+ * @author capitanu
+ */
+public class NGramModel {
+
+    public static final int MIN_ORDER = 2;
+    public static final int MAX_ORDER = 5;
+    public static final char BOUNDARY = '#';
+
+    private static final int BITS_PER_CHAR = 12;
+    private static final int MAX_ALPHABET_SIZE = (1 << BITS_PER_CHAR) - 1;
+    private static final long[] ORDER_MASKS = new long[MAX_ORDER + 1];
+
+    static {
+        for (int n = 1; n <= MAX_ORDER; n++)
+            ORDER_MASKS[n] = (1L << (n * BITS_PER_CHAR)) - 1;
+    }
+
+    private final short[] _charCodes = new short[Character.MAX_VALUE + 1];  // 0 means "not in the alphabet"
+    private final char[] _alphabet = new char[MAX_ALPHABET_SIZE + 1];       // character of each code
+    private final long[] _totals = new long[MAX_ORDER + 1];
+    private int _alphabetSize = 0;
+
+    private LongBuffer _keys;   // 0 marks an empty slot (valid keys are never 0 since character codes start at 1)
+    private IntBuffer _counts;
+    private int _mask;
+    private int _size = 0;
+
+    public NGramModel() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize The expected number of n-grams (across all orders)
+     */
+    public NGramModel(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1;
+        _keys = LongBuffer.allocate(capacity);
+        _counts = IntBuffer.allocate(capacity);
+        _mask = capacity - 1;
+
+        encode(BOUNDARY);
+    }
+
+    /**
+     * Reads a model written by {@link #writeTo(DataOutputStream)}; the hash table of the model is a view of the buffer,
+     * which is not copied, so the model is read-only
+     *
+     * @param buffer The buffer, positioned at the start of the model (its position is moved past the model)
+     * @return The model
+     */
+    public static NGramModel readFrom(ByteBuffer buffer) {
+        int capacity = buffer.getInt();
+        int size = buffer.getInt();
+        int alphabetSize = buffer.getInt();
+        buffer.getInt();
+
+        NGramModel model = new NGramModel(0);
+        for (int n = 0; n <= MAX_ORDER; n++)
+            model._totals[n] = buffer.getLong();
+        for (int code = 2; code <= alphabetSize; code++)
+            model.encode(buffer.getChar());     // the boundary marker has code 1
+        buffer.position(buffer.position() + 2 * getAlphabetPadding(alphabetSize));
+
+        model._keys = slice(buffer, 8 * capacity).asLongBuffer();
+        model._counts = slice(buffer, 4 * capacity).asIntBuffer();
+        model._mask = capacity - 1;
+        model._size = size;
+
+        return model;
+    }
+
+    /**
+     * Writes the model, to be read back by {@link #readFrom(ByteBuffer)}
+     *
+     * @param out The output
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        int capacity = _keys.limit();
+        out.writeInt(capacity);
+        out.writeInt(_size);
+        out.writeInt(_alphabetSize);
+        out.writeInt(0);
+
+        for (int n = 0; n <= MAX_ORDER; n++)
+            out.writeLong(_totals[n]);
+
+        // The alphabet (without the boundary marker) is padded so the hash table is aligned on 8 bytes
+        for (int code = 2; code <= _alphabetSize; code++)
+            out.writeChar(_alphabet[code]);
+        for (int i = getAlphabetPadding(_alphabetSize); i > 0; i--)
+            out.writeChar(0);
+
+        for (int i = 0; i < capacity; i++)
+            out.writeLong(_keys.get(i));
+        for (int i = 0; i < capacity; i++)
+            out.writeInt(_counts.get(i));
+    }
+
+    /**
+     * Adds (or increments) the count of an n-gram
+     *
+     * @param ngram The n-gram (its length must be between {@value #MIN_ORDER} and {@value #MAX_ORDER})
+     * @param count The count
+     */
+    public void add(CharSequence ngram, int count) {
+        int n = ngram.length();
+        if (n < MIN_ORDER || n > MAX_ORDER)
+            throw new IllegalArgumentException(
+                    String.format("Unsupported n-gram '%s' - length must be between %d and %d", ngram, MIN_ORDER, MAX_ORDER));
+
+        if (_keys.isReadOnly())
+            throw new IllegalStateException("The model is read-only");
+
+        long key = 0;
+        for (int i = 0; i < n; i++)
+            key = (key << BITS_PER_CHAR) | encode(ngram.charAt(i));
+
+        if ((_size + 1) * 2 > _keys.limit())
+            rehash(_keys.limit() * 2);
+
+        int slot = findSlot(_keys, _mask, key);
+        if (_keys.get(slot) == 0) {
+            _keys.put(slot, key);
+            _size++;
+        }
+
+        _counts.put(slot, _counts.get(slot) + count);
+        _totals[n] += count;
+    }
+
+    /**
+     * Adds all the n-gram counts of another model to this model
+     *
+     * @param other The other model
+     */
+    public void addAll(NGramModel other) {
+        char[] ngram = new char[MAX_ORDER];
+
+        for (int i = 0, iMax = other._keys.limit(); i < iMax; i++) {
+            long key = other._keys.get(i);
+            if (key == 0) continue;
+
+            // Decode the n-gram using the other model's alphabet (the codes are non-zero, so the order is the number of codes)
+            int n = 0;
+            for (long k = key; k != 0; k >>>= BITS_PER_CHAR)
+                n++;
+
+            for (int j = n - 1; j >= 0; j--, key >>>= BITS_PER_CHAR)
+                ngram[j] = other._alphabet[(int) (key & ORDER_MASKS[1])];
+
+            add(new String(ngram, 0, n), other._counts.get(i));
+        }
+    }
+
+    /**
+     * @param ngram The n-gram
+     * @return The count of the n-gram, or 0 if unknown
+     */
+    public int getCount(CharSequence ngram) {
+        int n = ngram.length();
+        if (n < MIN_ORDER || n > MAX_ORDER) return 0;
+
+        long key = 0;
+        for (int i = 0; i < n; i++) {
+            int code = _charCodes[ngram.charAt(i)];
+            if (code == 0) return 0;
+            key = (key << BITS_PER_CHAR) | code;
+        }
+
+        return lookup(key);
+    }
+
+    /**
+     * Retrieves the count of an n-gram of a word, as if the word were surrounded by the {@value #BOUNDARY} marker
+     *
+     * @param word  The word
+     * @param start The start of the n-gram in the padded word (0 is the leading boundary marker)
+     * @param n     The order
+     * @return The count of the n-gram, or 0 if unknown
+     */
+    public int getCount(CharSequence word, int start, int n) {
+        return Math.max(find(word, start, n), 0);
+    }
+
+    /**
+     * Retrieves the count of an n-gram of a word used to score the word, see {@link #getCount(CharSequence, int, int)}
+     *
+     * @param word  The word
+     * @param start The start of the n-gram in the padded word (0 is the leading boundary marker)
+     * @param n     The order
+     * @return The count of the n-gram (possibly 0), or 1 if unknown
+     */
+    public int getScoringCount(CharSequence word, int start, int n) {
+        int count = find(word, start, n);
+        return (count < 0) ? 1 : count;
+    }
+
+    /**
+     * @param n The order
+     * @return The sum of the counts of all n-grams of the given order
+     */
+    public long getTotal(int n) {
+        return (n >= MIN_ORDER && n <= MAX_ORDER) ? _totals[n] : 0;
+    }
+
+    /**
+     * @param n The order
+     * @return True if the model holds any n-grams of the given order
+     */
+    public boolean hasOrder(int n) {
+        return getTotal(n) > 0;
+    }
+
+    /**
+     * @return The number of distinct n-grams (across all orders)
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Scores a word for a single order
+     *
+     * @param n    The order
+     * @param word The word
+     * @return The n-gram score
+     */
+    public double score(int n, CharSequence word) {
+        double[] scores = new double[MAX_ORDER + 1];
+        score(word, scores, n, n);
+        return scores[n];
+    }
+
+    /**
+     * Scores a word for all the orders between minOrder and maxOrder in a single pass over its characters
+     *
+     * @param word     The word
+     * @param scores   The array receiving the scores, indexed by order (must have at least maxOrder + 1 elements);
+     *                 entries for orders without any n-grams in the model are set to -1
+     * @param minOrder The lowest order to score
+     * @param maxOrder The highest order to score
+     */
+    public void score(CharSequence word, double[] scores, int minOrder, int maxOrder) {
+        minOrder = Math.max(minOrder, MIN_ORDER);
+        maxOrder = Math.min(maxOrder, MAX_ORDER);
+
+        for (int n = minOrder; n <= maxOrder; n++)
+            scores[n] = hasOrder(n) ? 1 : -1;
+
+        int length = word.length() + 2;
+        long key = 0;
+        int lastUnknown = -1;   // position of the last character missing from the alphabet
+
+        for (int p = 0; p < length; p++) {
+            char c = (p == 0 || p == length - 1) ? BOUNDARY : word.charAt(p - 1);
+            int code = _charCodes[c];
+            if (code == 0) lastUnknown = p;
+
+            key = (key << BITS_PER_CHAR) | code;
+
+            for (int n = minOrder, nMax = Math.min(maxOrder, p + 1); n <= nMax; n++) {
+                if (scores[n] < 0) continue;
+
+                // Unknown n-grams count as 1, but n-grams stored with a count of 0 zero the score
+                int count = (lastUnknown > p - n) ? -1 : find(key & ORDER_MASKS[n]);
+                scores[n] *= (double) ((count < 0) ? 1 : count) / _totals[n];
+            }
+        }
+    }
+
+    private int encode(char c) {
+        int code = _charCodes[c];
+        if (code == 0) {
+            if (_alphabetSize == MAX_ALPHABET_SIZE)
+                throw new IllegalStateException(
+                        String.format("Too many distinct characters in the n-grams (maximum: %d)", MAX_ALPHABET_SIZE));
+
+            code = ++_alphabetSize;
+            _charCodes[c] = (short) code;
+            _alphabet[code] = c;
+        }
+
+        return code;
+    }
+
+    private int lookup(long key) {
+        return Math.max(find(key), 0);
+    }
+
+    /**
+     * @return The count of an n-gram of a padded word, or -1 if unknown
+     */
+    private int find(CharSequence word, int start, int n) {
+        if (n < MIN_ORDER || n > MAX_ORDER) return -1;
+
+        int length = word.length() + 2;
+        long key = 0;
+
+        for (int p = start, pMax = start + n; p < pMax; p++) {
+            char c = (p == 0 || p == length - 1) ? BOUNDARY : word.charAt(p - 1);
+            int code = _charCodes[c];
+            if (code == 0) return -1;
+            key = (key << BITS_PER_CHAR) | code;
+        }
+
+        return find(key);
+    }
+
+    /**
+     * @return The count of an n-gram, or -1 if unknown
+     */
+    private int find(long key) {
+        int slot = findSlot(_keys, _mask, key);
+        return _keys.get(slot) == 0 ? -1 : _counts.get(slot);
+    }
+
+    private void rehash(int capacity) {
+        LongBuffer keys = LongBuffer.allocate(capacity);
+        IntBuffer counts = IntBuffer.allocate(capacity);
+        int mask = capacity - 1;
+
+        for (int i = 0, iMax = _keys.limit(); i < iMax; i++) {
+            long key = _keys.get(i);
+            if (key == 0) continue;
+
+            int slot = findSlot(keys, mask, key);
+            keys.put(slot, key);
+            counts.put(slot, _counts.get(i));
+        }
+
+        _keys = keys;
+        _counts = counts;
+        _mask = mask;
+    }
+
+    private static int findSlot(LongBuffer keys, int mask, long key) {
+        int slot = hash(key) & mask;
+        long slotKey;
+        while ((slotKey = keys.get(slot)) != 0 && slotKey != key)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    /**
+     * @return The number of chars padding the alphabet written for a model (without its boundary marker) to 8 bytes
+     */
+    private static int getAlphabetPadding(int alphabetSize) {
+        return (4 - (alphabetSize - 1) % 4) % 4;
+    }
+
+    /**
+     * @return A buffer over the next bytes of a buffer, whose position is moved past them
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+
+        return slice;
+    }
+
+    private static int hash(long key) {
+        // MurmurHash3 64-bit finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+
+        return (int) key;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NGramModel[size: %,d, alphabet: %d, totals: %s]",
+                _size, _alphabetSize, Arrays.toString(Arrays.copyOfRange(_totals, MIN_ORDER, MAX_ORDER + 1)));
+    }
+}
@@ -0,0 +1,137 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Collection;
+
+/**
+ * Per-position n-gram contributions of a (misspelled) word, used to score candidate suggestions incrementally:
+ * a candidate derived from the word by applying a set of non-overlapping {@link Transformation}s differs from it
+ * only in the n-grams overlapping the transformed regions, so only those n-grams are looked up in the model.
+ *
+ * The contributions are kept as prefix sums of log(count / total) per order, with the n-grams of count 0 (which zero
+ * the score) counted separately; scores computed incrementally agree with
+ * {@link NGramModel#score(CharSequence, double[], int, int)} up to floating point rounding.
+ *
+ * @author capitanu
+ */
+public class NGramProfile {
+
+    private final NGramModel _ngramModel;
+    private final String _word;
+    private final int _minOrder;
+    private final int _maxOrder;
+    private final double[][] _logPrefixSums;
+    private final int[][] _zeroPrefixCounts;
+
+    /**
+     * @param ngramModel The n-gram model
+     * @param word       The word
+     * @param minOrder   The lowest order to score
+     * @param maxOrder   The highest order to score
+     */
+    public NGramProfile(NGramModel ngramModel, String word, int minOrder, int maxOrder) {
+        _ngramModel = ngramModel;
+        _word = word;
+        _minOrder = Math.max(minOrder, NGramModel.MIN_ORDER);
+        _maxOrder = Math.min(maxOrder, NGramModel.MAX_ORDER);
+        _logPrefixSums = new double[_maxOrder + 1][];
+        _zeroPrefixCounts = new int[_maxOrder + 1][];
+
+        int length = word.length() + 2;
+
+        for (int n = _minOrder; n <= _maxOrder; n++) {
+            if (!ngramModel.hasOrder(n)) continue;
+
+            int windows = Math.max(length - n + 1, 0);
+            double[] prefixSums = new double[windows + 1];
+            int[] zeroCounts = new int[windows + 1];
+
+            for (int s = 0; s < windows; s++) {
+                int count = ngramModel.getScoringCount(word, s, n);
+                prefixSums[s + 1] = prefixSums[s] + ((count == 0) ? 0 : logFactor(count, n));
+                zeroCounts[s + 1] = zeroCounts[s] + ((count == 0) ? 1 : 0);
+            }
+
+            _logPrefixSums[n] = prefixSums;
+            _zeroPrefixCounts[n] = zeroCounts;
+        }
+    }
+
+    public String getWord() {
+        return _word;
+    }
+
+    /**
+     * Scores a candidate obtained by applying a set of transformations to the word
+     *
+     * @param candidate       The candidate
+     * @param transformations The (non-overlapping) transformations, in index order, that produce the candidate from the word;
+     *                        if empty, the candidate is scored from scratch
+     * @param scores          The array receiving the scores, indexed by order; entries for orders without any n-grams
+     *                        in the model are set to -1
+     */
+    public void score(String candidate, Collection<Transformation> transformations, double[] scores) {
+        if (transformations.isEmpty() && !candidate.equals(_word)) {
+            _ngramModel.score(candidate, scores, _minOrder, _maxOrder);
+            return;
+        }
+
+        int length = _word.length() + 2;
+        int candidateLength = candidate.length() + 2;
+
+        for (int n = _minOrder; n <= _maxOrder; n++) {
+            double[] prefixSums = _logPrefixSums[n];
+            if (prefixSums == null) {
+                scores[n] = -1;
+                continue;
+            }
+
+            int[] zeroCounts = _zeroPrefixCounts[n];
+            int windows = prefixSums.length - 1;
+            int candidateWindows = Math.max(candidateLength - n + 1, 0);
+            double logScore = prefixSums[windows];
+            int zeroCount = zeroCounts[windows];
+
+            // The end of the last range of affected n-gram windows processed (exclusive), in the word and the candidate
+            int oldEnd = 0, newEnd = 0;
+            int adjust = 0;
+
+            for (Transformation transformation : transformations) {
+                int index = transformation.getIndex();
+                int originalLength = transformation.getOriginal().length();
+                int replacementLength = transformation.getReplacement().length();
+
+                // Regions [a, b) of the padded word and candidate changed by the transformation
+                int oldA = index + 1, oldB = oldA + originalLength;
+                int newA = oldA + adjust, newB = newA + replacementLength;
+
+                // Windows starting in [a - n + 1, b - 1] overlap the changed region (or span the edit point if empty)
+                int oldStart = Math.max(Math.max(oldA - n + 1, 0), oldEnd);
+                int oldStop = Math.min(oldB, windows);
+                if (oldStart < oldStop) {
+                    logScore -= prefixSums[oldStop] - prefixSums[oldStart];
+                    zeroCount -= zeroCounts[oldStop] - zeroCounts[oldStart];
+                    oldEnd = oldStop;
+                }
+
+                int newStart = Math.max(Math.max(newA - n + 1, 0), newEnd);
+                int newStop = Math.min(newB, candidateWindows);
+                for (int s = newStart; s < newStop; s++) {
+                    int count = _ngramModel.getScoringCount(candidate, s, n);
+                    if (count == 0)
+                        zeroCount++;
+                    else
+                        logScore += logFactor(count, n);
+                }
+                newEnd = Math.max(newEnd, newStop);
+
+                adjust += replacementLength - originalLength;
+            }
+
+            scores[n] = (zeroCount > 0) ? 0 : Math.exp(logScore);
+        }
+    }
+
+    private double logFactor(int count, int n) {
+        return Math.log((double) count / _ngramModel.getTotal(n));
+    }
+}
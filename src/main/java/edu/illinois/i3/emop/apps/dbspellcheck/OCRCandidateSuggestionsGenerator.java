@@ -22,10 +22,10 @@ public class OCRCandidateSuggestionsGenerator implements Iterable<Suggestion> {
 	private static final Logger log = LoggerFactory.getLogger(OCRCandidateSuggestionsGenerator.class);
 
 	private final Misspelling _misspelling;
-	private final Set<Transformation> _transformations;
+	private final Collection<Transformation> _transformations;
 	private final Predicate<Suggestion> _predicate;
 
-	public OCRCandidateSuggestionsGenerator(Misspelling misspelling, Set<Transformation> transformations) {
+	public OCRCandidateSuggestionsGenerator(Misspelling misspelling, Collection<Transformation> transformations) {
 		this(misspelling, transformations, new Predicate<Suggestion>() {
 			public boolean apply(Suggestion suggestion) {
 				return true;
@@ -33,7 +33,7 @@ public class OCRCandidateSuggestionsGenerator implements Iterable<Suggestion> {
 		});
 	}
 
-	public OCRCandidateSuggestionsGenerator(Misspelling misspelling, Set<Transformation> transformations, Predicate<Suggestion> predicate) {
+	public OCRCandidateSuggestionsGenerator(Misspelling misspelling, Collection<Transformation> transformations, Predicate<Suggestion> predicate) {
 		_misspelling = misspelling;
 		_transformations = transformations;
 		_predicate = predicate;
@@ -81,7 +81,7 @@ public class OCRCandidateSuggestionsGenerator implements Iterable<Suggestion> {
 		private final Iterator<List<Transformation>> _applicableTransformations;
 		private final Set<String> _suggestionCache;
 
-		public OCRCandidateSuggestionsIterator(Misspelling misspelling, Set<Transformation> transformations, Predicate<Suggestion> predicate) {
+		public OCRCandidateSuggestionsIterator(Misspelling misspelling, Collection<Transformation> transformations, Predicate<Suggestion> predicate) {
 			_misspelling = misspelling;
 			_predicate = predicate;
 			_applicableTransformations =
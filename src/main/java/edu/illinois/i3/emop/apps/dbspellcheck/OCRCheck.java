@@ -1,17 +1,20 @@
 package edu.illinois.i3.emop.apps.dbspellcheck;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.jolbox.bonecp.BoneCP;
 import edu.illinois.i3.spellcheck.engine.Configuration;
 import edu.illinois.i3.spellcheck.engine.SpellDictionary;
-import edu.illinois.i3.spellcheck.engine.Word;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,12 +25,21 @@ public class OCRCheck {
 
     public static final double NGRAM_SCALE_FACTOR = 1e10;
     private static final Logger log = LoggerFactory.getLogger(OCRCheck.class);
-    private static final Set<String> CACHE = Sets.newHashSet();
     protected final BoneCP _connectionPool;
     protected final OCRDocument _document;
     protected final PushBackIterator<String> _tokenIterator;
-    protected Map<String, Integer> _bigramCounts;
-    protected Map<String, Integer> _trigramCounts;
+    protected final double[] _ngramScores = new double[NGramModel.MAX_ORDER + 1];
+    protected NGramModel _ngramModel;
+    protected TokenCache _tokenCache;
+    protected PrefixLexicon _prefixLexicon;
+    protected int _maxSuggestions = 0;
+    protected int _bestFirstMaxSuggestions = 0;
+    protected int _bestFirstCostSlack = 0;
+    protected SymSpellIndex _symSpellIndex;
+    protected int _symSpellDistance = 0;
+    protected WordSegmenter _wordSegmenter;
+    protected Metrics _metrics;
+    protected Metrics.Recorder _recorder = Metrics.Recorder.DISABLED;
 
 
     public OCRCheck(OCRDocument document, BoneCP connectionPool) throws SQLException {
@@ -40,199 +52,574 @@ public class OCRCheck {
         return token.toLowerCase();
     }
 
-    public void setBigramCounts(Map<String, Integer> bigramCounts) {
-        _bigramCounts = bigramCounts;
+    public void setNGramModel(NGramModel ngramModel) {
+        _ngramModel = ngramModel;
     }
 
-    public void setTrigramCounts(Map<String, Integer> trigramCounts) {
-        _trigramCounts = trigramCounts;
+    public void setTokenCache(TokenCache tokenCache) {
+        _tokenCache = tokenCache;
     }
 
-    public void processDocument(final SpellDictionary dictionary, Map<String, Set<String>> ocrRules) throws IOException {
+    /**
+     * Sets the dictionary words used to prune the candidate suggestions by prefix; if not set,
+     * all combinations of transformations are enumerated
+     *
+     * @param prefixLexicon The dictionary words
+     */
+    public void setPrefixLexicon(PrefixLexicon prefixLexicon) {
+        _prefixLexicon = prefixLexicon;
+    }
+
+    /**
+     * Generates the candidate suggestions best-first (fewest transformations first), stopping early
+     * (see {@link BestFirstCandidateSuggestionsGenerator}); the prefix lexicon, if set, is used to prune the search
+     *
+     * @param maxSuggestions The number of valid suggestions after which the search stops
+     * @param costSlack      The number of transformations, beyond those of the best valid suggestion, after which the search stops
+     */
+    public void setBestFirstSearch(int maxSuggestions, int costSlack) {
+        _bestFirstMaxSuggestions = maxSuggestions;
+        _bestFirstCostSlack = costSlack;
+    }
+
+    /**
+     * Sets the index used to add the dictionary words within a small edit distance of a misspelling
+     * to the candidate suggestions produced by the OCR rules
+     *
+     * @param symSpellIndex The index
+     * @param maxDistance   The maximum edit distance of the added suggestions
+     */
+    public void setSymSpellIndex(SymSpellIndex symSpellIndex, int maxDistance) {
+        _symSpellIndex = symSpellIndex;
+        _symSpellDistance = maxDistance;
+    }
+
+    /**
+     * Sets the segmenter used to suggest a segmentation into dictionary words for the misspellings without
+     * other candidate suggestions (e.g. run-together words); if not set, such misspellings have no suggestions
+     *
+     * @param wordSegmenter The segmenter
+     */
+    public void setWordSegmenter(WordSegmenter wordSegmenter) {
+        _wordSegmenter = wordSegmenter;
+    }
+
+    /**
+     * Sets the maximum number of (best) suggestions kept for each misspelling
+     *
+     * @param maxSuggestions The maximum number of suggestions (0 to keep all of them)
+     */
+    public void setMaxSuggestions(int maxSuggestions) {
+        _maxSuggestions = maxSuggestions;
+    }
+
+    /**
+     * Sets the metrics receiving the counters and stage timings of the check (recorded by the thread processing
+     * the document); if not set, nothing is recorded
+     *
+     * @param metrics The metrics
+     */
+    public void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    public void processDocument(SpellDictionary dictionary, Map<String, Set<String>> ocrRules) throws IOException {
+        processDocument(dictionary, new OCRRuleMatcher(ocrRules));
+    }
+
+    /**
+     * Spellchecks the document
+     *
+     * @param dictionary  The dictionary
+     * @param ruleMatcher The (compiled) OCR rules
+     * @throws IOException
+     */
+    public void processDocument(SpellDictionary dictionary, OCRRuleMatcher ruleMatcher) throws IOException {
         ValidSuggestionPredicate validSuggestionPredicate = new ValidSuggestionPredicate(dictionary);
+        _recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
 
-        while (_tokenIterator.hasNext()) {
-            String token = _tokenIterator.next().trim();
+        _document.start();
+        processTokens(_tokenIterator, dictionary, ruleMatcher, validSuggestionPredicate, null);
+        _document.finish();
+    }
 
-            // If token ends with hyphen, combine with next token
-            if (token.endsWith("-") && _tokenIterator.hasNext()) {
-                String nextToken = _tokenIterator.next().trim();
-                token = token.substring(0, token.length() - 1) + nextToken;
+    /**
+     * Spellchecks the tokens of a part of a document (e.g. a range of pages), recording the misspellings into the
+     * document without starting or finishing it. Since a hyphenated token may be continued in the next part,
+     * the tokens around the boundaries of the part are not checked, but returned so they can be checked
+     * once the neighbouring parts are known.
+     *
+     * @param dictionary     The dictionary
+     * @param ruleMatcher    The (compiled) OCR rules
+     * @param isFirst        True if this is the first part of the document
+     * @param leadingTokens  Receives the leading tokens of the part, up to and including the first one not ending
+     *                       with a hyphen (none for the first part), which may continue a hyphenated token
+     * @param trailingTokens Receives the last token of the part if it ends with a hyphen and is not continued
+     *                       within the part
+     * @throws IOException
+     */
+    public void processDocumentPart(SpellDictionary dictionary, OCRRuleMatcher ruleMatcher, boolean isFirst,
+                                    List<String> leadingTokens, List<String> trailingTokens) throws IOException {
+        ValidSuggestionPredicate validSuggestionPredicate = new ValidSuggestionPredicate(dictionary);
+        _recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+
+        if (!isFirst)
+            while (_tokenIterator.hasNext()) {
+                String token = _tokenIterator.next();
+                leadingTokens.add(token);
+                if (!token.trim().endsWith("-"))
+                    break;
             }
 
-            // Clean and normalize the token
+        processTokens(_tokenIterator, dictionary, ruleMatcher, validSuggestionPredicate, trailingTokens);
+    }
+
+    /**
+     * Copies the settings (n-gram model, cache, candidate generation, metrics) of another check
+     *
+     * @param ocrCheck The check
+     */
+    public void copySettingsFrom(OCRCheck ocrCheck) {
+        _ngramModel = ocrCheck._ngramModel;
+        _tokenCache = ocrCheck._tokenCache;
+        _prefixLexicon = ocrCheck._prefixLexicon;
+        _maxSuggestions = ocrCheck._maxSuggestions;
+        _bestFirstMaxSuggestions = ocrCheck._bestFirstMaxSuggestions;
+        _bestFirstCostSlack = ocrCheck._bestFirstCostSlack;
+        _symSpellIndex = ocrCheck._symSpellIndex;
+        _symSpellDistance = ocrCheck._symSpellDistance;
+        _wordSegmenter = ocrCheck._wordSegmenter;
+        _metrics = ocrCheck._metrics;
+    }
+
+    /**
+     * Spellchecks a sequence of tokens, recording the misspellings into the document
+     *
+     * @param tokens                   The tokens
+     * @param dictionary               The dictionary
+     * @param ruleMatcher              The OCR rules
+     * @param validSuggestionPredicate The predicate used to filter the candidate suggestions
+     * @param trailingTokens           Receives the last token if it ends with a hyphen, instead of checking it
+     *                                 (null to check it)
+     * @throws IOException
+     */
+    protected void processTokens(PushBackIterator<String> tokens, SpellDictionary dictionary, OCRRuleMatcher ruleMatcher,
+                                 ValidSuggestionPredicate validSuggestionPredicate, List<String> trailingTokens) throws IOException {
+        while (tokens.hasNext()) {
+            String token = nextToken(tokens, trailingTokens);
+            if (token == null)
+                break;
+
+            long start = _recorder.startTimer();
+
+            _recorder.increment(Metrics.Counter.TOKENS);
+
+            // Clean the token
             String cleanedToken = cleanToken(token);
-            String normWord = normalizeToken(cleanedToken);
+            start = _recorder.record(Metrics.Stage.CLEAN, start);
 
             if (cleanedToken.isEmpty()) {
                 log.debug("Discarding junk token '{}'", token);
+                _recorder.increment(Metrics.Counter.JUNK_TOKENS);
                 continue;
             }
 
-            if (CACHE.contains(cleanedToken))
-                continue;
+            TokenCheckResult result = (_tokenCache != null) ? _tokenCache.get(cleanedToken) : null;
+            if (result == null) {
+                result = checkToken(cleanedToken, dictionary, ruleMatcher, validSuggestionPredicate);
+                _recorder.record(Metrics.Stage.TOKEN_CHECK, start);
+                if (_tokenCache != null)
+                    _tokenCache.put(cleanedToken, result);
+            }
             else
-                CACHE.add(cleanedToken);
+                _recorder.increment(Metrics.Counter.CACHE_HITS);
 
-            double bigramScore = -1;
-            double trigramScore = -1;
+            switch (result.getType()) {
+                case CORRECT:
+                    _recorder.increment(Metrics.Counter.DICTIONARY_HITS);
+                    break;
+
+                case MISSPELLING:
+                    _recorder.increment(Metrics.Counter.MISSPELLINGS);
+                    _document.addMisspelling(result.getMisspelling());
+                    break;
+
+                case SPLIT:
+                    tokens.pushBack(result.getParts());
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Counts the cleaned tokens of the document, without checking them (see {@link CorpusTypeCheck})
+     *
+     * @param tokenCounts Receives the occurrences of each (non-junk) cleaned token
+     */
+    public void collectTokens(Multiset<String> tokenCounts) {
+        _recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+
+        while (_tokenIterator.hasNext()) {
+            String token = nextToken(_tokenIterator, null);
+            long start = _recorder.startTimer();
+            _recorder.increment(Metrics.Counter.TOKENS);
+
+            String cleanedToken = cleanToken(token);
+            _recorder.record(Metrics.Stage.CLEAN, start);
+
+            if (cleanedToken.isEmpty())
+                _recorder.increment(Metrics.Counter.JUNK_TOKENS);
+            else
+                tokenCounts.add(cleanedToken);
+        }
+    }
 
-            if (_bigramCounts != null)
-                // Compute the 2-gram score
-                bigramScore = computeNGramScore(2, normWord, _bigramCounts) * NGRAM_SCALE_FACTOR;
+    /**
+     * Spellchecks a list of cleaned tokens independently of the document (e.g. the distinct tokens of a corpus);
+     * the token cache is not used
+     *
+     * @param cleanedTokens The cleaned tokens
+     * @param dictionary    The dictionary
+     * @param ruleMatcher   The (compiled) OCR rules
+     * @return The outcome of the check of each token
+     * @throws IOException
+     */
+    public List<TokenCheckResult> checkTokens(List<String> cleanedTokens, SpellDictionary dictionary, OCRRuleMatcher ruleMatcher) throws IOException {
+        ValidSuggestionPredicate validSuggestionPredicate = new ValidSuggestionPredicate(dictionary);
+        _recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
 
-            if (_trigramCounts != null)
-                // Compute the 3-gram score
-                trigramScore = computeNGramScore(3, normWord, _trigramCounts) * NGRAM_SCALE_FACTOR;
+        List<TokenCheckResult> results = Lists.newArrayListWithCapacity(cleanedTokens.size());
+        for (String cleanedToken : cleanedTokens) {
+            long start = _recorder.startTimer();
+            results.add(checkToken(cleanedToken, dictionary, ruleMatcher, validSuggestionPredicate));
+            _recorder.record(Metrics.Stage.TOKEN_CHECK, start);
+        }
 
-            if (bigramScore == 0 || trigramScore == 0)
-                log.warn("ZERO SCORE: {} (2gram: {}, 3gram: {})", normWord, bigramScore, trigramScore);
+        return results;
+    }
 
-            // Check if word is in dictionary
-            if (!dictionary.isCorrect(normWord)) {
-                validSuggestionPredicate.resetCount();
+    /**
+     * Reads the next token; if the token ends with a hyphen, it is combined with the following one
+     *
+     * @param tokens         The tokens
+     * @param trailingTokens Receives the last token if it ends with a hyphen (null to return it)
+     * @return The (trimmed) token, or null if it was added to the trailing tokens
+     */
+    protected static String nextToken(PushBackIterator<String> tokens, List<String> trailingTokens) {
+        String token = tokens.next().trim();
 
-                Misspelling misspelling = new Misspelling(cleanedToken, bigramScore, trigramScore);
-                Set<Transformation> transformations = computePossibleTransformations(misspelling, ocrRules);
-                OCRCandidateSuggestionsGenerator candidateSuggestions =
-                        new OCRCandidateSuggestionsGenerator(misspelling, transformations, validSuggestionPredicate);
+        // If token ends with hyphen, combine with next token
+        if (token.endsWith("-")) {
+            if (tokens.hasNext()) {
+                String nextToken = tokens.next().trim();
+                token = token.substring(0, token.length() - 1) + nextToken;
+            }
+            else if (trailingTokens != null) {
+                trailingTokens.add(token);
+                return null;
+            }
+        }
 
-                log.debug("Checking '{}'...", cleanedToken);
+        return token;
+    }
 
-                // TODO: instead of splitting on \W, split on any non-alphanumeric character except those contained in the transformation rules
+    /**
+     * Spellchecks a cleaned token, computing and scoring the candidate suggestions if the token is misspelled
+     *
+     * @param cleanedToken             The cleaned token
+     * @param dictionary               The dictionary
+     * @param ruleMatcher              The OCR rules
+     * @param validSuggestionPredicate The predicate used to filter the candidate suggestions
+     * @return The outcome of the check
+     * @throws IOException
+     */
+    protected TokenCheckResult checkToken(String cleanedToken, SpellDictionary dictionary, OCRRuleMatcher ruleMatcher,
+                                          ValidSuggestionPredicate validSuggestionPredicate) throws IOException {
+        long start = _recorder.startTimer();
+        String normWord = normalizeToken(cleanedToken);
+
+        // Compute the 2-gram and 3-gram scores
+        computeNGramScores(normWord);
+        start = _recorder.record(Metrics.Stage.NGRAM_SCORING, start);
+        double bigramScore = _ngramScores[2];
+        double trigramScore = _ngramScores[3];
+
+        if (bigramScore == 0 || trigramScore == 0)
+            log.warn("ZERO SCORE: {} (2gram: {}, 3gram: {})", normWord, bigramScore, trigramScore);
+
+        // Check if word is in dictionary
+        if (dictionary.isCorrect(normWord))
+            return TokenCheckResult.correct();
+
+        validSuggestionPredicate.resetCount();
+
+        Misspelling misspelling = new Misspelling(cleanedToken, bigramScore, trigramScore, _maxSuggestions);
+        List<Transformation> transformations = computePossibleTransformations(misspelling, ruleMatcher);
+        start = _recorder.record(Metrics.Stage.TRANSFORMATION_MATCHING, start);
+        Iterable<Suggestion> ruleCandidateSuggestions;
+        if (_bestFirstMaxSuggestions > 0)
+            ruleCandidateSuggestions = new BestFirstCandidateSuggestionsGenerator(misspelling, transformations, ruleMatcher, _prefixLexicon,
+                    validSuggestionPredicate, _bestFirstMaxSuggestions, _bestFirstCostSlack);
+        else if (_prefixLexicon != null)
+            ruleCandidateSuggestions = new TrieCandidateSuggestionsGenerator(misspelling, transformations, _prefixLexicon, validSuggestionPredicate);
+        else
+            ruleCandidateSuggestions = new OCRCandidateSuggestionsGenerator(misspelling, transformations, validSuggestionPredicate);
+
+        log.debug("Checking '{}'...", cleanedToken);
+
+        // TODO: instead of splitting on \W, split on any non-alphanumeric character except those contained in the transformation rules
+
+        List<Suggestion> candidateSuggestions;
+
+        if (cleanedToken.length() > 18) {
+            String[] parts = TokenCleaner.splitNonWord(cleanedToken);
+            if (parts.length > 1)
+                return TokenCheckResult.split(parts);
+
+            // Too long for the OCR rules, but possibly run-together words
+            Suggestion segmentation = segmentWord(misspelling, transformations);
+            start = recordCandidateGeneration(start, validSuggestionPredicate, segmentation);
+            if (segmentation == null) {
+                log.warn("Word '{}' too long ({} characters) - ignoring...", cleanedToken, cleanedToken.length());
+                return TokenCheckResult.ignored();
+            }
 
-                if (cleanedToken.length() > 18) {
-                    String[] parts = cleanedToken.split("\\W+");
-                    if (parts.length > 1)
-                        _tokenIterator.pushBack(parts);
-                    else
-                        log.warn("Word '{}' too long ({} characters) - ignoring...", cleanedToken, cleanedToken.length());
-                    continue;
+            candidateSuggestions = Lists.newArrayList(segmentation);
+        }
+        else {
+            candidateSuggestions = collectCandidateSuggestions(misspelling, ruleCandidateSuggestions, validSuggestionPredicate);
+
+            Suggestion segmentation = null;
+            if (candidateSuggestions.isEmpty()) {
+                // If no candidate suggestions can be found, check to see if misspelling is a composed word
+                String[] parts = TokenCleaner.splitNonWord(cleanedToken);
+                if (parts.length > 1) {
+                    recordCandidateGeneration(start, validSuggestionPredicate, null);
+                    return TokenCheckResult.split(parts);
                 }
 
-                if (!candidateSuggestions.iterator().hasNext()) {
-                    // If no candidate suggestions can be found, check to see if misspelling is a composed word
-                    String[] parts = cleanedToken.split("\\W+");
-                    if (parts.length > 1) {
-                        _tokenIterator.pushBack(parts);
-                        continue;
-                    } else {
-                        if (cleanedToken.matches("\\p{Lu}\\p{Ll}{3,}")) {
-                            log.warn("Possible proper name: '{}' - ignoring...", cleanedToken);
-                            continue;
-                        }
-                    }
+                if (TokenCleaner.isCapitalizedWord(cleanedToken)) {
+                    recordCandidateGeneration(start, validSuggestionPredicate, null);
+                    log.warn("Possible proper name: '{}' - ignoring...", cleanedToken);
+                    return TokenCheckResult.ignored();
                 }
 
-                _document.addMisspelling(misspelling);
+                // ... or run-together words
+                segmentation = segmentWord(misspelling, transformations);
+                if (segmentation != null)
+                    candidateSuggestions.add(segmentation);
+            }
 
-                log.debug("Misspelling: '{}'", cleanedToken);
+            start = recordCandidateGeneration(start, validSuggestionPredicate, segmentation);
+        }
 
-                for (Word suggestion: dictionary.getSuggestions(cleanedToken, 300)) {
-                    log.debug("\tdict: '{}' -> '{}' (score: {})", cleanedToken, suggestion.getWord(), suggestion.getCost());
-                }
+        log.debug("Misspelling: '{}'", cleanedToken);
 
-                int correctCount = 0;
-                for (Suggestion suggestion : candidateSuggestions) {
-                    correctCount++;
+        // The candidates differ from the misspelling only around the applied transformations, so they are rescored incrementally
+        NGramProfile ngramProfile = (_ngramModel != null) ? new NGramProfile(_ngramModel, cleanedToken, 2, 3) : null;
 
-                    String suggestedReplacement = suggestion.getSuggestion();
-                    double suggestionBigramScore = computeNGramScore(2, suggestedReplacement, _bigramCounts) * NGRAM_SCALE_FACTOR;
-                    double suggestionTrigramScore = computeNGramScore(3, suggestedReplacement, _trigramCounts) * NGRAM_SCALE_FACTOR;
-                    int levenshteinScore = Levenshtein.distance(misspelling.getMisspelledWord(), suggestedReplacement);
+        int correctCount = 0;
+        for (Suggestion suggestion : candidateSuggestions) {
+            correctCount++;
 
-                    Score score = new Score();
-                    score.setBigramScore(suggestionBigramScore);
-                    score.setTrigramScore(suggestionTrigramScore);
-                    score.setLevenshteinScore(levenshteinScore);
+            String suggestedReplacement = suggestion.getSuggestion();
+            computeNGramScores(suggestion, ngramProfile);
+            double suggestionBigramScore = _ngramScores[2];
+            double suggestionTrigramScore = _ngramScores[3];
+            Integer editDistance = suggestion.getEditDistance();
+            int levenshteinScore = (editDistance != null) ?
+                    editDistance : Levenshtein.distance(misspelling.getMisspelledWord(), suggestedReplacement);
 
-                    suggestion.setScore(score);
-                    misspelling.addSuggestion(suggestion);
+            Score score = new Score();
+            score.setBigramScore(suggestionBigramScore);
+            score.setTrigramScore(suggestionTrigramScore);
+            score.setLevenshteinScore(levenshteinScore);
 
-                    log.debug("\t'{}' -> '{}' (score: {})", cleanedToken, suggestion.getSuggestion(), score);
-                }
+            suggestion.setScore(score);
+            misspelling.addSuggestion(suggestion);
 
-                log.debug("\t{} total candidate suggestions ({} valid words)", validSuggestionPredicate.getCount(), correctCount);
-            }
+            log.debug("\t'{}' -> '{}' (score: {})", cleanedToken, suggestion.getSuggestion(), score);
         }
+
+        _recorder.record(Metrics.Stage.SCORING, start);
+        log.debug("\t{} total candidate suggestions ({} valid words)", validSuggestionPredicate.getCount(), correctCount);
+
+        return TokenCheckResult.misspelling(misspelling);
     }
 
     /**
-     * Computes the possible transformations that can be applied
-     * to a misspelled word based on the provided OCR rules
+     * Records the time spent generating the candidate suggestions of a misspelling, and the number of candidates
+     * generated and accepted (a segmentation counts as one of each)
      *
-     * @param misspelling The misspelling
-     * @param ocrRules    The OCR rules
-     * @return A set of all possible transformations
+     * @param start                    The start of the candidate generation (see {@link Metrics.Recorder#startTimer()})
+     * @param validSuggestionPredicate The predicate that filtered the candidate suggestions
+     * @param segmentation             The segmentation of the misspelling, or null if none
+     * @return The end of the candidate generation
      */
-    protected Set<Transformation> computePossibleTransformations(Misspelling misspelling, Map<String, Set<String>> ocrRules) {
-        Set<Transformation> transformations = Sets.newTreeSet(new Comparator<Transformation>() {
-            public int compare(Transformation t1, Transformation t2) {
-                Integer index1 = t1.getIndex();
-                Integer index2 = t2.getIndex();
+    private long recordCandidateGeneration(long start, ValidSuggestionPredicate validSuggestionPredicate, Suggestion segmentation) {
+        int segmentations = (segmentation != null) ? 1 : 0;
+        _recorder.add(Metrics.Counter.CANDIDATES_GENERATED, validSuggestionPredicate.getCount() + segmentations);
+        _recorder.add(Metrics.Counter.CANDIDATES_ACCEPTED, validSuggestionPredicate.getAcceptedCount() + segmentations);
 
-                if (index1 != index2)
-                    return index1.compareTo(index2);
+        return _recorder.record(Metrics.Stage.CANDIDATE_GENERATION, start);
+    }
 
-                String o1 = t1.getOriginal();
-                String o2 = t2.getOriginal();
+    /**
+     * Segments a misspelled word into dictionary words, if a word segmenter is set; the words and segmentations
+     * longer than the columns of the result tables are not segmented (so the longer words are still ignored)
+     *
+     * @param misspelling     The misspelling
+     * @param transformations The transformations that can be applied to the misspelled word
+     * @return The segmentation, or null if the word cannot be segmented
+     */
+    protected Suggestion segmentWord(Misspelling misspelling, List<Transformation> transformations) {
+        if (_wordSegmenter == null || misspelling.getMisspelledWord().length() > Constants.MAX_MISSPELLING_LENGTH)
+            return null;
 
-                if (!o1.equals(o2))
-                    return o1.compareTo(o2);
+        Suggestion segmentation = _wordSegmenter.segment(misspelling, transformations);
+        if (segmentation == null || segmentation.getSuggestion().length() > Constants.MAX_SUGGESTION_LENGTH)
+            return null;
 
-                String r1 = t1.getReplacement();
-                String r2 = t2.getReplacement();
+        log.debug("Segmented '{}' into '{}'", misspelling.getMisspelledWord(), segmentation.getSuggestion());
 
-                return r1.compareTo(r2);
-            }
-        });
+        return segmentation;
+    }
+
+    /**
+     * Merges the candidate suggestions produced by the OCR rules with the (valid) dictionary words within a small
+     * edit distance of the misspelling, if a SymSpell index is set; the latter are given the case of the misspelling
+     *
+     * @param misspelling     The misspelling
+     * @param ruleCandidates  The candidate suggestions produced by the OCR rules
+     * @param predicate       The predicate the suggestions must satisfy
+     * @return The candidate suggestions
+     */
+    protected List<Suggestion> collectCandidateSuggestions(Misspelling misspelling, Iterable<Suggestion> ruleCandidates,
+                                                           Predicate<Suggestion> predicate) {
+        List<Suggestion> candidates = Lists.newArrayList(ruleCandidates);
+        if (_symSpellIndex == null)
+            return candidates;
 
         String misspelledWord = misspelling.getMisspelledWord();
+        Set<String> suggested = Sets.newHashSet();
+        for (Suggestion candidate : candidates)
+            suggested.add(normalizeToken(candidate.getSuggestion()));
 
-        for (Map.Entry<String, Set<String>> entry : ocrRules.entrySet()) {
-            String ocrErr = entry.getKey();
-            int n;
+        for (SymSpellIndex.Match match : _symSpellIndex.lookup(misspelledWord, _symSpellDistance)) {
+            if (!suggested.add(match.getWord()))
+                continue;
 
-            for (int i = 0; (n = misspelledWord.indexOf(ocrErr, i)) != -1; i = n + 1)
-                for (String replacement : entry.getValue())
-                    transformations.add(new Transformation(ocrErr, replacement, n));
+            Suggestion candidate = new Suggestion(misspelling, matchCase(match.getWord(), misspelledWord),
+                    ImmutableSet.<Transformation>of());
+            if (predicate.apply(candidate))
+                candidates.add(candidate);
         }
 
-        return transformations;
+        return candidates;
     }
 
-    protected double computeNGramScore(int n, String word, Map<String, Integer> ngramCounts) {
-        word = "#" + word + "#";
+    /**
+     * Capitalizes a (lowercase) word like another word: all uppercase, or only the first letter
+     */
+    protected static String matchCase(String word, String model) {
+        if (word.isEmpty() || model.isEmpty() || !Character.isUpperCase(model.charAt(0)))
+            return word;
 
-        // Retrieve the sum of all the counts of the dictionary ngrams
-        int ngramSum = ngramCounts.get("+");
+        if (model.length() > 1 && model.equals(model.toUpperCase()))
+            return word.toUpperCase();
 
-        double score = 1;
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
 
-        for (int i = 0, iMax = word.length() - n; i <= iMax; i++) {
-            String ngram = word.substring(i, i + n);
+    /**
+     * Computes the possible transformations that can be applied
+     * to a misspelled word based on the provided OCR rules
+     *
+     * @param misspelling The misspelling
+     * @param ruleMatcher The OCR rules
+     * @return All possible transformations, ordered by index, then original, then replacement
+     */
+    protected List<Transformation> computePossibleTransformations(Misspelling misspelling, OCRRuleMatcher ruleMatcher) {
+        return ruleMatcher.findTransformations(misspelling.getMisspelledWord());
+    }
 
-            Integer ngramCount = ngramCounts.get(ngram);
-            if (ngramCount == null) ngramCount = 1;
+    /**
+     * Computes the (scaled) 2-gram and 3-gram scores of a word into {@link #_ngramScores};
+     * the scores are -1 for orders not available in the n-gram model
+     *
+     * @param word The word
+     */
+    protected void computeNGramScores(String word) {
+        if (_ngramModel == null) {
+            Arrays.fill(_ngramScores, -1);
+            return;
+        }
+
+        _ngramModel.score(word, _ngramScores, 2, 3);
+
+        for (int n = 2; n <= 3; n++)
+            if (_ngramScores[n] >= 0)
+                _ngramScores[n] *= NGRAM_SCALE_FACTOR;
+    }
 
-            score *= (double) ngramCount / ngramSum;
+    /**
+     * Computes the (scaled) 2-gram and 3-gram scores of a candidate suggestion into {@link #_ngramScores}
+     * by rescoring only the n-grams affected by its transformations
+     *
+     * @param suggestion   The suggestion
+     * @param ngramProfile The n-gram profile of the misspelled word (null if no n-gram model is available)
+     */
+    protected void computeNGramScores(Suggestion suggestion, NGramProfile ngramProfile) {
+        if (ngramProfile == null) {
+            Arrays.fill(_ngramScores, -1);
+            return;
+        }
+
+        if (suggestion instanceof WordSegmenter.SegmentedSuggestion) {
+            computeNGramScores((WordSegmenter.SegmentedSuggestion) suggestion);
+            return;
         }
 
-        // TODO adjust score based on word length
+        ngramProfile.score(suggestion.getSuggestion(), suggestion.getTransformations(), _ngramScores);
 
-        return score;
+        for (int n = 2; n <= 3; n++)
+            if (_ngramScores[n] >= 0)
+                _ngramScores[n] *= NGRAM_SCALE_FACTOR;
     }
 
-    protected String cleanToken(String token) {
-        // discard all tokens containing only numbers and periods
-        if (token.replaceAll("[\\p{N}.,]", "").isEmpty()) return "";
+    /**
+     * Computes the (scaled) 2-gram and 3-gram scores of a segmentation into {@link #_ngramScores},
+     * as the product of the scores of its segments (each scored as a word)
+     *
+     * @param segmentation The segmentation
+     */
+    protected void computeNGramScores(WordSegmenter.SegmentedSuggestion segmentation) {
+        double[] segmentScores = new double[_ngramScores.length];
+        Arrays.fill(_ngramScores, 1);
+
+        for (String segment : segmentation.getSegments()) {
+            _ngramModel.score(normalizeToken(segment), segmentScores, 2, 3);
+            for (int n = 2; n <= 3; n++)
+                _ngramScores[n] = (_ngramScores[n] < 0 || segmentScores[n] < 0) ? -1 : _ngramScores[n] * segmentScores[n];
+        }
 
-        return token.replaceAll("^[^\\p{Alnum}]+", "").replaceAll("[^\\p{Alnum}]+$", "");
+        for (int n = 2; n <= 3; n++)
+            if (_ngramScores[n] >= 0)
+                _ngramScores[n] *= NGRAM_SCALE_FACTOR;
     }
 
-    private static class ValidSuggestionPredicate implements Predicate<Suggestion> {
+    protected String cleanToken(String token) {
+        // discard all tokens containing only numbers and periods, and strip the leading and trailing non-alphanumerics
+        return TokenCleaner.clean(token);
+    }
+
+    protected static class ValidSuggestionPredicate implements Predicate<Suggestion> {
         private final SpellDictionary _dictionary;
         private int _count = 0;
+        private int _acceptedCount = 0;
 
         public ValidSuggestionPredicate(SpellDictionary dictionary) {
             _dictionary = dictionary;
@@ -241,19 +628,42 @@ public class OCRCheck {
         public boolean apply(Suggestion suggestion) {
             _count++;
 
-            String normMisspelling = normalizeToken(suggestion.getMisspelling().getMisspelledWord());
+            String misspelledWord = suggestion.getMisspelling().getMisspelledWord();
+            String normMisspelling = normalizeToken(misspelledWord);
             String normSuggestion = normalizeToken(suggestion.getSuggestion());
 
-            return Levenshtein.distance(normMisspelling, normSuggestion) < normMisspelling.length()
-                    && _dictionary.isCorrect(normSuggestion);
+            // Only need to know whether the distance is below the length of the misspelling
+            int maxDistance = normMisspelling.length() - 1;
+            int distance = Levenshtein.distance(normMisspelling, normSuggestion, maxDistance);
+
+            if (distance > maxDistance || !_dictionary.isCorrect(normSuggestion))
+                return false;
+
+            // If normalizing did not change the words, this is also the distance used for scoring
+            if (normMisspelling.equals(misspelledWord) && normSuggestion.equals(suggestion.getSuggestion()))
+                suggestion.setEditDistance(distance);
+
+            _acceptedCount++;
+            return true;
         }
 
         public void resetCount() {
             _count = 0;
+            _acceptedCount = 0;
         }
 
+        /**
+         * @return The number of suggestions tested since the last reset
+         */
         public int getCount() {
             return _count;
         }
+
+        /**
+         * @return The number of suggestions accepted since the last reset
+         */
+        public int getAcceptedCount() {
+            return _acceptedCount;
+        }
     }
 }
@@ -1,5 +1,6 @@
 package edu.illinois.i3.emop.apps.dbspellcheck;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -9,12 +10,23 @@ public class OCRDocument {
 
 	private final String _name;
 	private final Iterator<String> _tokenIterator;
-	private final Map<Misspelling, Integer> _misspellings;
+	protected final Map<Misspelling, Integer> _misspellings;
+	protected final ResultSink _resultSink;
 
 	public OCRDocument(String name, Iterator<String> tokenIterator) {
+		this(name, tokenIterator, null);
+	}
+
+	/**
+	 * @param name          The document name
+	 * @param tokenIterator The document tokens
+	 * @param resultSink    The sink receiving the misspellings as they are found (null if not needed)
+	 */
+	public OCRDocument(String name, Iterator<String> tokenIterator, ResultSink resultSink) {
 		_name = name;
 		_tokenIterator = tokenIterator;
 		_misspellings = new HashMap<Misspelling, Integer>();
+		_resultSink = resultSink;
 	}
 
 	public String getName() {
@@ -33,13 +45,64 @@ public class OCRDocument {
 		return _misspellings;
 	}
 
-	public int addMisspelling(Misspelling misspelling) {
+	/**
+	 * Signals that the processing of the document begins
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		if (_resultSink != null)
+			_resultSink.startDocument(_name);
+	}
+
+	/**
+	 * Records an occurrence of a misspelling, passing it to the result sink the first time it is found
+	 *
+	 * @param misspelling The misspelling
+	 * @return The number of occurrences of the misspelling so far
+	 * @throws IOException
+	 */
+	public int addMisspelling(Misspelling misspelling) throws IOException {
+		return addMisspelling(misspelling, 1);
+	}
+
+	/**
+	 * Records a number of occurrences of a misspelling (e.g. found in a part of the document checked separately),
+	 * passing it to the result sink the first time it is found
+	 *
+	 * @param misspelling The misspelling
+	 * @param occurrences The number of occurrences
+	 * @return The number of occurrences of the misspelling so far
+	 * @throws IOException
+	 */
+	public int addMisspelling(Misspelling misspelling, int occurrences) throws IOException {
 		Integer count = _misspellings.get(misspelling);
-		if (count == null)
-			count = 0;
+		boolean isNew = (count == null);
+		count = isNew ? occurrences : count + occurrences;
 
-		_misspellings.put(misspelling, ++count);
+		_misspellings.put(misspelling, count);
+
+		if (isNew && _resultSink != null)
+			_resultSink.writeMisspelling(_name, misspelling);
 
 		return count;
 	}
+
+	/**
+	 * Signals that the processing of the document has ended, passing the misspelling counts to the result sink
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (_resultSink == null)
+			return;
+
+		writeCounts();
+		_resultSink.endDocument(_name);
+	}
+
+	protected void writeCounts() throws IOException {
+		for (Map.Entry<Misspelling, Integer> entry : _misspellings.entrySet())
+			_resultSink.writeCount(_name, entry.getKey(), entry.getValue());
+	}
 }
@@ -0,0 +1,343 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The OCR rules compiled into an Aho-Corasick automaton over the OCR errors, finding all the occurrences of all the
+ * errors in a word in a single pass over its characters.
+ *
+ * The errors are numbered in sorted order, so sorting the matches (packed into longs as start index and error number)
+ * yields the transformations in (index, original, replacement) order. The corrections (pairs of an error and one of
+ * its replacements) are numbered in the same order; a matcher can be derived that weighs the corrections by their
+ * usage, so the best-first candidate search tries the most used ones first, possibly skipping the unused ones
+ * (see {@link #orderedBy(long[], boolean)}). The matcher is immutable and can be shared between threads.
+ *
+ * @author capitanu
+ */
+public class OCRRuleMatcher {
+
+	private static final int ROOT = 0;
+
+	private final String[] _originals;			// the OCR errors, sorted
+	private final String[][] _replacements;		// the corrections of each OCR error returned, sorted
+	private final String[][] _sortedReplacements;	// all the corrections of each OCR error, sorted
+	private final double[] _correctionCosts;		// the cost of each correction, or null if the usage is unknown
+	private final int[] _correctionStart;		// the corrections of error p are numbered from _correctionStart[p]
+	private final int[] _transitionStart;		// transitions of node s are at [_transitionStart[s], _transitionStart[s + 1])
+	private final char[] _labels;
+	private final int[] _targets;
+	private final int[] _fail;
+	private final int[] _pattern;				// the OCR error ending at each node, or -1
+	private final int[] _outputLink;			// the nearest node on the failure chain where an OCR error ends, or -1
+
+	/**
+	 * @param ocrRules The OCR rules, mapping the OCR errors to their possible corrections (empty errors are ignored)
+	 */
+	public OCRRuleMatcher(Map<String, Set<String>> ocrRules) {
+		TreeMap<String, Set<String>> sortedRules = Maps.newTreeMap();
+		for (Map.Entry<String, Set<String>> entry : ocrRules.entrySet())
+			if (!entry.getKey().isEmpty() && !entry.getValue().isEmpty())
+				sortedRules.put(entry.getKey(), entry.getValue());
+
+		_originals = sortedRules.keySet().toArray(new String[sortedRules.size()]);
+		_sortedReplacements = new String[_originals.length][];
+		_correctionStart = new int[_originals.length + 1];
+		for (int p = 0; p < _originals.length; p++) {
+			Set<String> replacements = sortedRules.get(_originals[p]);
+			_sortedReplacements[p] = replacements.toArray(new String[replacements.size()]);
+			Arrays.sort(_sortedReplacements[p]);
+			_correctionStart[p + 1] = _correctionStart[p] + replacements.size();
+		}
+		_replacements = _sortedReplacements;
+		_correctionCosts = null;
+
+		// Build the trie of the OCR errors
+		List<TreeMap<Character, Integer>> children = Lists.newArrayList();
+		List<Integer> patterns = Lists.newArrayList();
+		children.add(new TreeMap<Character, Integer>());
+		patterns.add(-1);
+
+		int transitionCount = 0;
+		for (int p = 0; p < _originals.length; p++) {
+			int node = ROOT;
+			for (char c : _originals[p].toCharArray()) {
+				Integer child = children.get(node).get(c);
+				if (child == null) {
+					child = children.size();
+					children.get(node).put(c, child);
+					children.add(new TreeMap<Character, Integer>());
+					patterns.add(-1);
+					transitionCount++;
+				}
+				node = child;
+			}
+			patterns.set(node, p);
+		}
+
+		int nodeCount = children.size();
+		_transitionStart = new int[nodeCount + 1];
+		_labels = new char[transitionCount];
+		_targets = new int[transitionCount];
+		_pattern = new int[nodeCount];
+
+		int t = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			_transitionStart[node] = t;
+			_pattern[node] = patterns.get(node);
+			for (Map.Entry<Character, Integer> transition : children.get(node).entrySet()) {
+				_labels[t] = transition.getKey();
+				_targets[t] = transition.getValue();
+				t++;
+			}
+		}
+		_transitionStart[nodeCount] = t;
+
+		// Compute the failure and output links breadth-first
+		_fail = new int[nodeCount];
+		_outputLink = new int[nodeCount];
+		_outputLink[ROOT] = -1;
+
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		for (int i = _transitionStart[ROOT]; i < _transitionStart[ROOT + 1]; i++) {
+			int child = _targets[i];
+			_fail[child] = ROOT;
+			_outputLink[child] = -1;
+			queue.add(child);
+		}
+
+		while (!queue.isEmpty()) {
+			int node = queue.remove();
+
+			for (int i = _transitionStart[node]; i < _transitionStart[node + 1]; i++) {
+				char c = _labels[i];
+				int child = _targets[i];
+
+				int fail = _fail[node];
+				while (fail != ROOT && getChild(fail, c) == -1)
+					fail = _fail[fail];
+				int failChild = getChild(fail, c);
+				_fail[child] = (failChild != -1) ? failChild : ROOT;
+
+				int failTarget = _fail[child];
+				_outputLink[child] = (_pattern[failTarget] != -1) ? failTarget : _outputLink[failTarget];
+
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Shares the automaton of another matcher, returning other replacements
+	 */
+	private OCRRuleMatcher(OCRRuleMatcher matcher, String[][] replacements, double[] correctionCosts) {
+		_originals = matcher._originals;
+		_replacements = replacements;
+		_correctionCosts = correctionCosts;
+		_sortedReplacements = matcher._sortedReplacements;
+		_correctionStart = matcher._correctionStart;
+		_transitionStart = matcher._transitionStart;
+		_labels = matcher._labels;
+		_targets = matcher._targets;
+		_fail = matcher._fail;
+		_pattern = matcher._pattern;
+		_outputLink = matcher._outputLink;
+	}
+
+	/**
+	 * Derives a matcher weighing the corrections by their usage: the cost of a correction is -log of its (add-one
+	 * smoothed) share of all the uses, so the best-first candidate search tries the candidates applying the most used
+	 * corrections first, and finds them before it stops (see {@link BestFirstCandidateSuggestionsGenerator}); the other
+	 * candidate generators enumerate all the candidates, so for them only skipping corrections changes the results
+	 *
+	 * @param correctionCounts The usage count of each correction, indexed by correction number
+	 * @param skipUnused       True to also drop the corrections never used
+	 * @return The matcher
+	 */
+	public OCRRuleMatcher orderedBy(long[] correctionCounts, boolean skipUnused) {
+		if (correctionCounts.length != getCorrectionCount())
+			throw new IllegalArgumentException(String.format("Expected %d correction counts, got %d",
+					getCorrectionCount(), correctionCounts.length));
+
+		long total = 0;
+		for (long count : correctionCounts)
+			total += count;
+
+		double[] correctionCosts = new double[correctionCounts.length];
+		for (int c = 0; c < correctionCounts.length; c++)
+			correctionCosts[c] = -Math.log((correctionCounts[c] + 1.0) / (total + correctionCounts.length));
+
+		String[][] replacements = _sortedReplacements;
+		if (skipUnused) {
+			replacements = new String[_originals.length][];
+
+			for (int p = 0; p < _originals.length; p++) {
+				List<String> used = Lists.newArrayListWithCapacity(_sortedReplacements[p].length);
+				for (int c = _correctionStart[p]; c < _correctionStart[p + 1]; c++)
+					if (correctionCounts[c] > 0)
+						used.add(getReplacement(c));
+
+				replacements[p] = used.toArray(new String[used.size()]);
+			}
+		}
+
+		return new OCRRuleMatcher(this, replacements, correctionCosts);
+	}
+
+	/**
+	 * The cost of applying a correction (see {@link #orderedBy(long[], boolean)}); lower costs are tried first
+	 *
+	 * @param original    The OCR error
+	 * @param replacement The replacement
+	 * @return The cost, or 0 if the usage of the corrections is unknown or the correction is not one of the OCR rules
+	 */
+	public double getCorrectionCost(String original, String replacement) {
+		if (_correctionCosts == null)
+			return 0;
+
+		int c = getCorrection(original, replacement);
+
+		return (c != -1) ? _correctionCosts[c] : 0;
+	}
+
+	/**
+	 * Finds all the transformations that can be applied to a word
+	 *
+	 * @param word The word
+	 * @return The transformations, ordered by index, then original, then replacement
+	 */
+	public List<Transformation> findTransformations(String word) {
+		long[] matches = new long[16];
+		int matchCount = 0;
+		int transformationCount = 0;
+
+		int node = ROOT;
+		for (int i = 0, iMax = word.length(); i < iMax; i++) {
+			char c = word.charAt(i);
+
+			int child;
+			while ((child = getChild(node, c)) == -1 && node != ROOT)
+				node = _fail[node];
+			node = (child != -1) ? child : ROOT;
+
+			for (int n = (_pattern[node] != -1) ? node : _outputLink[node]; n != -1; n = _outputLink[n]) {
+				int p = _pattern[n];
+				int start = i - _originals[p].length() + 1;
+
+				if (_replacements[p].length == 0)
+					continue;
+
+				if (matchCount == matches.length)
+					matches = Arrays.copyOf(matches, matchCount * 2);
+				matches[matchCount++] = ((long) start << 32) | p;
+				transformationCount += _replacements[p].length;
+			}
+		}
+
+		Arrays.sort(matches, 0, matchCount);
+
+		List<Transformation> transformations = Lists.newArrayListWithCapacity(transformationCount);
+		for (int m = 0; m < matchCount; m++) {
+			int start = (int) (matches[m] >>> 32);
+			int p = (int) matches[m];
+
+			for (String replacement : _replacements[p])
+				transformations.add(new Transformation(_originals[p], replacement, start));
+		}
+
+		return transformations;
+	}
+
+	/**
+	 * @return The number of OCR errors
+	 */
+	public int getRuleCount() {
+		return _originals.length;
+	}
+
+	/**
+	 * @return The number of corrections (pairs of an OCR error and one of its replacements)
+	 */
+	public int getCorrectionCount() {
+		return _correctionStart[_originals.length];
+	}
+
+	/**
+	 * Numbers a correction; the corrections are numbered in (original, replacement) order
+	 *
+	 * @param original    The OCR error
+	 * @param replacement The replacement
+	 * @return The correction number, or -1 if the correction is not one of the OCR rules
+	 */
+	public int getCorrection(String original, String replacement) {
+		int p = Arrays.binarySearch(_originals, original);
+		if (p < 0)
+			return -1;
+
+		int r = Arrays.binarySearch(_sortedReplacements[p], replacement);
+
+		return (r >= 0) ? _correctionStart[p] + r : -1;
+	}
+
+	/**
+	 * @param correction The correction number
+	 * @return The OCR error of the correction
+	 */
+	public String getOriginal(int correction) {
+		return _originals[getError(correction)];
+	}
+
+	/**
+	 * @param correction The correction number
+	 * @return The replacement of the correction
+	 */
+	public String getReplacement(int correction) {
+		int p = getError(correction);
+		return _sortedReplacements[p][correction - _correctionStart[p]];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("OCRRuleMatcher[errors: %,d, corrections: %,d, states: %,d]",
+				_originals.length, getCorrectionCount(), _pattern.length);
+	}
+
+	/**
+	 * @return The OCR error of a correction
+	 */
+	private int getError(int correction) {
+		if (correction < 0 || correction >= getCorrectionCount())
+			throw new IndexOutOfBoundsException("Correction: " + correction);
+
+		// The last error whose corrections start at or before the correction (errors have at least one correction)
+		int p = Arrays.binarySearch(_correctionStart, correction);
+		return (p >= 0) ? p : -p - 2;
+	}
+
+	private int getChild(int node, char c) {
+		int low = _transitionStart[node];
+		int high = _transitionStart[node + 1] - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char label = _labels[mid];
+
+			if (label < c)
+				low = mid + 1;
+			else if (label > c)
+				high = mid - 1;
+			else
+				return _targets[mid];
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,18 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the word tokens of an OCR document, in document order
+ *
+ * @author capitanu
+ */
+public interface OCRTokenIterator extends Iterator<String> {
+
+	/**
+	 * @return The (0-based) index of the page containing the token last returned by {@link #next()},
+	 *         or -1 if no token has been returned yet
+	 */
+	int getPageIndex();
+
+}
@@ -0,0 +1,168 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming (StAX) counterpart of {@link OCRXMLTokenIterator}; returns the text of the
+ * /book/text/page/pageContent//wd elements in document order without building a DOM,
+ * so memory use does not depend on the size of the document
+ *
+ * Note: a <wd> nested inside another <wd> is not returned separately; its text is part of the enclosing token
+ *
+ * @author capitanu
+ */
+public class OCRXMLStreamTokenIterator implements OCRTokenIterator {
+
+	private static final Logger log = LoggerFactory.getLogger(OCRXMLStreamTokenIterator.class);
+
+	private static final String[] PAGE_PATH = { "book", "text", "page" };
+	private static final String PAGE_CONTENT = "pageContent";
+	private static final String TOKEN = "wd";
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+	private final XMLStreamReader _reader;
+	private final StringBuilder _tokenText = new StringBuilder();
+
+	private int _depth = 0;				// depth of the current element (the root element is at depth 1)
+	private int _pathDepth = 0;			// how many of the PAGE_PATH elements are currently open
+	private int _pageContentDepth = 0;	// depth of the open pageContent element (0 if none)
+	private int _tokenDepth = 0;		// depth of the open wd element (0 if none)
+	private int _readerPageIndex = -1;
+
+	private String _nextToken;
+	private int _nextTokenPageIndex = -1;
+	private int _pageIndex = -1;
+
+
+	public OCRXMLStreamTokenIterator(InputStream ocrXmlDocumentStream) throws XMLStreamException {
+		_reader = XML_INPUT_FACTORY.createXMLStreamReader(ocrXmlDocumentStream);
+
+		advance();
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		// Equivalent of the "load-external-dtd" feature disabled for the DOM parser (JDK specific)
+		try {
+			factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+		}
+		catch (IllegalArgumentException e) {
+			log.debug("The StAX implementation does not support ignoring external DTDs");
+		}
+
+		return factory;
+	}
+
+	public boolean hasNext() {
+		return _nextToken != null;
+	}
+
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		String token = _nextToken;
+		_pageIndex = _nextTokenPageIndex;
+
+		// Advance to next token
+		advance();
+
+		return token;
+	}
+
+	public int getPageIndex() {
+		return _pageIndex;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	protected void advance() {
+		_nextToken = null;
+
+		try {
+			while (_nextToken == null && _reader.hasNext()) {
+				switch (_reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						startElement();
+						break;
+
+					case XMLStreamConstants.END_ELEMENT:
+						endElement();
+						break;
+
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (_tokenDepth > 0)
+							_tokenText.append(_reader.getTextCharacters(), _reader.getTextStart(), _reader.getTextLength());
+						break;
+
+					default:
+						break;
+				}
+			}
+
+			if (_nextToken == null)
+				_reader.close();
+		}
+		catch (XMLStreamException e) {
+			log.error("Error parsing OCR XML document", e);
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void startElement() {
+		_depth++;
+
+		if (_tokenDepth > 0 || !isUnqualified())
+			return;
+
+		String name = _reader.getLocalName();
+
+		if (_pathDepth == _depth - 1 && _pathDepth < PAGE_PATH.length && name.equals(PAGE_PATH[_pathDepth])) {
+			_pathDepth++;
+			if (_pathDepth == PAGE_PATH.length)
+				_readerPageIndex++;
+		}
+		else if (_pathDepth == PAGE_PATH.length && _pageContentDepth == 0 && _depth == PAGE_PATH.length + 1 && name.equals(PAGE_CONTENT))
+			_pageContentDepth = _depth;
+		else if (_pageContentDepth > 0 && name.equals(TOKEN)) {
+			_tokenDepth = _depth;
+			_tokenText.setLength(0);
+		}
+	}
+
+	private void endElement() {
+		if (_depth == _tokenDepth) {
+			_tokenDepth = 0;
+			_nextToken = _tokenText.toString();
+			_nextTokenPageIndex = _readerPageIndex;
+		}
+		else if (_depth == _pageContentDepth)
+			_pageContentDepth = 0;
+		else if (_depth == _pathDepth)
+			_pathDepth--;
+
+		_depth--;
+	}
+
+	private boolean isUnqualified() {
+		String namespaceURI = _reader.getNamespaceURI();
+		return namespaceURI == null || namespaceURI.isEmpty();
+	}
+}
@@ -13,10 +13,9 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.*;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-public class OCRXMLTokenIterator implements Iterator<String> {
+public class OCRXMLTokenIterator implements OCRTokenIterator {
 
 	private static final Logger log = LoggerFactory.getLogger(OCRXMLTokenIterator.class);
 
@@ -29,6 +28,7 @@ public class OCRXMLTokenIterator implements Iterator<String> {
 	private NodeList _currentPageTokens;
 	private int _currentPageTokenCount;
 	private int _currentTokenIndex;
+	private int _pageIndex = -1;
 
 
 	public OCRXMLTokenIterator(InputStream ocrXmlDocumentStream) throws XPathExpressionException, SAXException, IOException, ParserConfigurationException {
@@ -61,6 +61,7 @@ public class OCRXMLTokenIterator implements Iterator<String> {
 			throw new NoSuchElementException();
 
 		String token = _currentPageTokens.item(_currentTokenIndex).getTextContent();
+		_pageIndex = _currentPageIndex;
 
 		// Advance to next token
 		advance();
@@ -68,6 +69,10 @@ public class OCRXMLTokenIterator implements Iterator<String> {
 		return token;
 	}
 
+	public int getPageIndex() {
+		return _pageIndex;
+	}
+
 	public void remove() {
 		throw new UnsupportedOperationException();
 	}
@@ -75,24 +80,26 @@ public class OCRXMLTokenIterator implements Iterator<String> {
 	protected void advance() {
 		_currentTokenIndex++;
 
-		if (_currentTokenIndex >= _currentPageTokenCount) {
-			// No more tokens on current page - try to advance to next page
+		// No more tokens on current page - advance to the next page with tokens
+		while (_currentTokenIndex >= _currentPageTokenCount) {
 			_currentPageIndex++;
 			_currentTokenIndex = 0;
 
-			if (_currentPageIndex < _pageCount) {
-				Node currentPage = _pages.item(_currentPageIndex);
-				try {
-					_currentPageTokens = (NodeList) _xpathToken.evaluate(currentPage, XPathConstants.NODESET);
-					_currentPageTokenCount = _currentPageTokens.getLength();
-				}
-				catch (XPathExpressionException e) {
-					log.error("SHOULD NOT HAPPEN: Invalid XPath Expression", e);
-					throw new RuntimeException(e);
-				}
-			} else
+			if (_currentPageIndex >= _pageCount) {
 				// No more pages
 				_currentPageTokens = null;
+				return;
+			}
+
+			Node currentPage = _pages.item(_currentPageIndex);
+			try {
+				_currentPageTokens = (NodeList) _xpathToken.evaluate(currentPage, XPathConstants.NODESET);
+				_currentPageTokenCount = _currentPageTokens.getLength();
+			}
+			catch (XPathExpressionException e) {
+				log.error("SHOULD NOT HAPPEN: Invalid XPath Expression", e);
+				throw new RuntimeException(e);
+			}
 		}
 	}
 }
@@ -0,0 +1,395 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Byte offsets of the /book/text/page elements of an OCR XML document, found by a lightweight scan of the raw bytes
+ * (tracking only tags, comments, CDATA sections, processing instructions and the DOCTYPE), so that page ranges can
+ * be parsed independently of each other.
+ *
+ * A page range is parsed as a standalone document made of the document prolog, the start tags of the book and
+ * text elements, the pages of the range and the matching end tags; the namespace declarations and internal DTD
+ * subset of the document are therefore preserved. Only ASCII-compatible encodings (e.g. UTF-8, ISO-8859-1) can be
+ * scanned.
+ *
+ * @author capitanu
+ */
+public class PageIndex {
+
+	private static final byte[] PAGE_PATH_END = "</text></book>".getBytes(Charset.forName("US-ASCII"));
+	private static final String[] PAGE_PATH = { "book", "text", "page" };
+
+	private final ByteBuffer _data;
+	private final byte[] _header;
+	private final int[] _pageStarts;
+	private final int[] _pageEnds;
+
+	private PageIndex(ByteBuffer data, byte[] header, int[] pageStarts, int[] pageEnds) {
+		_data = data;
+		_header = header;
+		_pageStarts = pageStarts;
+		_pageEnds = pageEnds;
+	}
+
+	/**
+	 * Indexes a file, mapping it into memory
+	 *
+	 * @param file The OCR XML file
+	 * @return The index, or null if the file cannot be indexed (unsupported encoding or unexpected structure)
+	 * @throws IOException
+	 */
+	public static PageIndex build(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				return null;
+
+			return build(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Indexes a document
+	 *
+	 * @param data The OCR XML document
+	 * @return The index, or null if the document cannot be indexed (unsupported encoding or unexpected structure)
+	 */
+	public static PageIndex build(ByteBuffer data) {
+		return new Scanner(data).scan();
+	}
+
+	public int getPageCount() {
+		return _pageStarts.length;
+	}
+
+	/**
+	 * @param page The page (0-based)
+	 * @return The offset of the first byte of the page element
+	 */
+	public int getPageStart(int page) {
+		return _pageStarts[page];
+	}
+
+	/**
+	 * @param page The page (0-based)
+	 * @return The offset following the last byte of the page element
+	 */
+	public int getPageEnd(int page) {
+		return _pageEnds[page];
+	}
+
+	/**
+	 * Opens a range of pages as a standalone OCR XML document
+	 *
+	 * @param fromPage The first page (inclusive)
+	 * @param toPage   The last page (exclusive)
+	 * @return The document
+	 */
+	public InputStream openPages(int fromPage, int toPage) {
+		if (fromPage < 0 || toPage > getPageCount() || fromPage >= toPage)
+			throw new IndexOutOfBoundsException(String.format("Invalid page range [%d, %d) of %d pages", fromPage, toPage, getPageCount()));
+
+		ByteBuffer pages = _data.duplicate();
+		pages.limit(_pageEnds[toPage - 1]).position(_pageStarts[fromPage]);
+
+		return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+				new ByteArrayInputStream(_header), new ByteBufferInputStream(pages.slice()), new ByteArrayInputStream(PAGE_PATH_END))));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PageIndex[pages: %,d, size: %,d bytes]", getPageCount(), _data.limit());
+	}
+
+	/**
+	 * Scans the document for the start and end of the book, text and page elements
+	 */
+	private static class Scanner {
+		private final ByteBuffer _data;
+		private final int _length;
+		private int _pos = 0;
+
+		private int _depth = 0;		// number of open elements
+		private int _pathDepth = 0;	// number of PAGE_PATH elements open
+		private int _bookTagEnd = -1;
+		private int _textTagStart = -1, _textTagEnd = -1;
+		private int _pageStart = -1;
+		private int[] _pageStarts = new int[64];
+		private int[] _pageEnds = new int[64];
+		private int _pageCount = 0;
+
+		Scanner(ByteBuffer data) {
+			_data = data;
+			_length = data.limit();
+		}
+
+		PageIndex scan() {
+			if (!isAsciiCompatible())
+				return null;
+
+			while (true) {
+				int tagStart = indexOf('<', _pos);
+				if (tagStart < 0 || tagStart + 1 >= _length)
+					break;
+
+				byte next = _data.get(tagStart + 1);
+				int tagEnd;
+
+				if (next == '?')
+					tagEnd = endOf("?>", tagStart + 2);
+				else if (next == '!') {
+					if (startsWith("<!--", tagStart))
+						tagEnd = endOf("-->", tagStart + 4);
+					else if (startsWith("<![CDATA[", tagStart))
+						tagEnd = endOf("]]>", tagStart + 9);
+					else
+						tagEnd = endOfDeclaration(tagStart + 2);
+				}
+				else if (next == '/') {
+					tagEnd = endOfTag(tagStart + 2);
+					if (tagEnd < 0 || !endElement(tagEnd))
+						return null;
+				}
+				else {
+					tagEnd = endOfTag(tagStart + 1);
+					if (tagEnd < 0)
+						return null;
+
+					boolean isEmpty = _data.get(tagEnd - 2) == '/';
+					startElement(readName(tagStart + 1), tagStart, tagEnd);
+					if (isEmpty && !endElement(tagEnd))
+						return null;
+				}
+
+				if (tagEnd < 0)
+					return null;
+
+				_pos = tagEnd;
+			}
+
+			if (_depth != 0 || _bookTagEnd < 0 || _textTagStart < 0)
+				return null;
+
+			// The header is the prolog and the start tag of the book element, followed by the start tag of the text element
+			byte[] header = new byte[_bookTagEnd + _textTagEnd - _textTagStart];
+			ByteBuffer data = _data.duplicate();
+			data.position(0);
+			data.get(header, 0, _bookTagEnd);
+			data.position(_textTagStart);
+			data.get(header, _bookTagEnd, _textTagEnd - _textTagStart);
+
+			return new PageIndex(_data, header,
+					Arrays.copyOf(_pageStarts, _pageCount), Arrays.copyOf(_pageEnds, _pageCount));
+		}
+
+		private void startElement(String name, int tagStart, int tagEnd) {
+			if (_pathDepth == _depth && _pathDepth < PAGE_PATH.length && name.equals(PAGE_PATH[_pathDepth])) {
+				_pathDepth++;
+
+				switch (_pathDepth) {
+					case 1:
+						_bookTagEnd = tagEnd;
+						break;
+
+					case 2:
+						if (_textTagStart < 0) {
+							_textTagStart = tagStart;
+							_textTagEnd = tagEnd;
+						}
+						break;
+
+					default:
+						_pageStart = tagStart;
+						break;
+				}
+			}
+
+			_depth++;
+		}
+
+		/**
+		 * @return False if the element does not match any start tag
+		 */
+		private boolean endElement(int tagEnd) {
+			if (_depth == 0)
+				return false;
+
+			if (_depth == _pathDepth) {
+				if (_pathDepth == PAGE_PATH.length)
+					addPage(_pageStart, tagEnd);
+
+				_pathDepth--;
+			}
+
+			_depth--;
+
+			return true;
+		}
+
+		private void addPage(int start, int end) {
+			if (_pageCount == _pageStarts.length) {
+				_pageStarts = Arrays.copyOf(_pageStarts, _pageCount * 2);
+				_pageEnds = Arrays.copyOf(_pageEnds, _pageCount * 2);
+			}
+
+			_pageStarts[_pageCount] = start;
+			_pageEnds[_pageCount] = end;
+			_pageCount++;
+		}
+
+		/**
+		 * UTF-16 and UTF-32 documents start with a byte order mark or a NUL byte in their first characters
+		 */
+		private boolean isAsciiCompatible() {
+			for (int i = 0, iMax = Math.min(_length, 4); i < iMax; i++) {
+				int b = _data.get(i) & 0xff;
+				if (b == 0 || b == 0xfe || b == 0xff)
+					return false;
+			}
+
+			return true;
+		}
+
+		private String readName(int start) {
+			int end = start;
+			while (end < _length && !isNameEnd(_data.get(end)))
+				end++;
+
+			byte[] name = new byte[end - start];
+			for (int i = 0; i < name.length; i++)
+				name[i] = _data.get(start + i);
+
+			return new String(name, Charset.forName("US-ASCII"));
+		}
+
+		private static boolean isNameEnd(byte b) {
+			return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '>' || b == '/';
+		}
+
+		/**
+		 * @return The offset following the '>' ending a start or end tag (skipping quoted attribute values), or -1
+		 */
+		private int endOfTag(int from) {
+			byte quote = 0;
+			for (int i = from; i < _length; i++) {
+				byte b = _data.get(i);
+				if (quote != 0) {
+					if (b == quote)
+						quote = 0;
+				}
+				else if (b == '"' || b == '\'')
+					quote = b;
+				else if (b == '>')
+					return i + 1;
+			}
+
+			return -1;
+		}
+
+		/**
+		 * @return The offset following the '>' ending a declaration (such as the DOCTYPE, including its internal
+		 *         subset), or -1
+		 */
+		private int endOfDeclaration(int from) {
+			byte quote = 0;
+			int brackets = 0;
+
+			for (int i = from; i < _length; i++) {
+				byte b = _data.get(i);
+				if (quote != 0) {
+					if (b == quote)
+						quote = 0;
+				}
+				else if (b == '"' || b == '\'')
+					quote = b;
+				else if (b == '<' && startsWith("<!--", i))
+					i = endOf("-->", i + 4) - 1;
+				else if (b == '[')
+					brackets++;
+				else if (b == ']')
+					brackets--;
+				else if (b == '>' && brackets == 0)
+					return i + 1;
+
+				if (i < 0)
+					return -1;
+			}
+
+			return -1;
+		}
+
+		/**
+		 * @return The offset following the first occurrence of the delimiter, or -1
+		 */
+		private int endOf(String delimiter, int from) {
+			int first = delimiter.charAt(0);
+			for (int i = indexOf(first, from); i >= 0; i = indexOf(first, i + 1))
+				if (startsWith(delimiter, i))
+					return i + delimiter.length();
+
+			return -1;
+		}
+
+		private int indexOf(int b, int from) {
+			for (int i = from; i < _length; i++)
+				if (_data.get(i) == b)
+					return i;
+
+			return -1;
+		}
+
+		private boolean startsWith(String prefix, int at) {
+			if (at + prefix.length() > _length)
+				return false;
+
+			for (int i = 0, iMax = prefix.length(); i < iMax; i++)
+				if (_data.get(at + i) != prefix.charAt(i))
+					return false;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of a buffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer _buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			_buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!_buffer.hasRemaining())
+				return -1;
+
+			int count = Ints.min(length, _buffer.remaining());
+			_buffer.get(bytes, offset, count);
+
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return _buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import com.google.common.collect.Lists;
+import com.jolbox.bonecp.BoneCP;
+import edu.illinois.i3.spellcheck.engine.SpellDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Spellchecks a (large) document by splitting it into ranges of pages (see {@link PageIndex}) that are checked
+ * concurrently, then merging the misspelling counts of the ranges into the document, in page order.
+ *
+ * A token ending with a hyphen is combined with the next token, which may be on the next range; the tokens around
+ * the range boundaries are therefore checked last, once all the ranges are done, so that the results are the same
+ * as when checking the whole document sequentially. The token iterator of the document is not used.
+ *
+ * @author capitanu
+ */
+public class PageParallelOCRCheck extends OCRCheck {
+
+    private static final Logger log = LoggerFactory.getLogger(PageParallelOCRCheck.class);
+
+    private final PageIndex _pageIndex;
+    private final int _pagesPerTask;
+    private final boolean _useDomParser;
+    private final ExecutorService _executor;
+
+    /**
+     * @param document       The document receiving the results
+     * @param pageIndex      The page index of the document
+     * @param pagesPerTask   The number of pages checked by each task
+     * @param useDomParser   True to tokenize the pages using the DOM/XPath parser, False to use the streaming parser
+     * @param executor       The executor running the tasks (must not be the one running this check, to avoid deadlocks)
+     * @param connectionPool The DB connection pool
+     * @throws SQLException
+     */
+    public PageParallelOCRCheck(OCRDocument document, PageIndex pageIndex, int pagesPerTask, boolean useDomParser,
+                                ExecutorService executor, BoneCP connectionPool) throws SQLException {
+        super(document, connectionPool);
+
+        if (pagesPerTask <= 0)
+            throw new IllegalArgumentException("pagesPerTask must be positive");
+
+        _pageIndex = pageIndex;
+        _pagesPerTask = pagesPerTask;
+        _useDomParser = useDomParser;
+        _executor = executor;
+    }
+
+    @Override
+    public void processDocument(final SpellDictionary dictionary, final OCRRuleMatcher ruleMatcher) throws IOException {
+        _recorder = (_metrics != null) ? _metrics.getRecorder() : Metrics.Recorder.DISABLED;
+
+        int pageCount = _pageIndex.getPageCount();
+        List<Future<PartResult>> parts = Lists.newArrayList();
+
+        for (int fromPage = 0; fromPage < pageCount; fromPage += _pagesPerTask) {
+            final int from = fromPage;
+            final int to = Math.min(fromPage + _pagesPerTask, pageCount);
+
+            parts.add(_executor.submit(new Callable<PartResult>() {
+                public PartResult call() throws Exception {
+                    return processPages(from, to, dictionary, ruleMatcher);
+                }
+            }));
+        }
+
+        log.debug("Checking {} in {} range(s) of up to {} pages", _document.getName(), parts.size(), _pagesPerTask);
+
+        _document.start();
+
+        try {
+            List<String> boundaryTokens = Lists.newArrayList();
+            long parseNanos = 0;
+
+            for (Future<PartResult> part : parts) {
+                PartResult result = get(part);
+                parseNanos += result.parseNanos;
+
+                for (Map.Entry<Misspelling, Integer> entry : result.misspellingCounts.entrySet())
+                    _document.addMisspelling(entry.getKey(), entry.getValue());
+
+                boundaryTokens.addAll(result.leadingTokens);
+                boundaryTokens.addAll(result.trailingTokens);
+            }
+
+            // The leading and trailing tokens of consecutive ranges are adjacent in the document
+            processTokens(new PushBackIterator<>(boundaryTokens.iterator()), dictionary, ruleMatcher,
+                    new ValidSuggestionPredicate(dictionary), null);
+
+            _recorder.recordNanos(Metrics.Stage.PARSE, parseNanos);
+        }
+        finally {
+            for (Future<PartResult> part : parts)
+                part.cancel(true);
+        }
+
+        _document.finish();
+    }
+
+    private PartResult processPages(int fromPage, int toPage, SpellDictionary dictionary, OCRRuleMatcher ruleMatcher) throws Exception {
+        InputStream pagesStream = _pageIndex.openPages(fromPage, toPage);
+
+        try {
+            long start = _recorder.startTimer();
+            OCRTokenIterator tokenIterator = _useDomParser ?
+                    new OCRXMLTokenIterator(pagesStream) : new OCRXMLStreamTokenIterator(pagesStream);
+            if (_recorder.isEnabled())
+                tokenIterator = new TimedTokenIterator(tokenIterator, System.nanoTime() - start);
+
+            OCRDocument part = new OCRDocument(String.format("%s[%d-%d]", _document.getName(), fromPage, toPage), tokenIterator);
+            OCRCheck ocrCheck = new OCRCheck(part, _connectionPool);
+            ocrCheck.copySettingsFrom(this);
+
+            PartResult result = new PartResult(part.getMisspellingCounts());
+            ocrCheck.processDocumentPart(dictionary, ruleMatcher, fromPage == 0, result.leadingTokens, result.trailingTokens);
+            if (tokenIterator instanceof TimedTokenIterator)
+                result.parseNanos = ((TimedTokenIterator) tokenIterator).getNanos();
+
+            return result;
+        }
+        finally {
+            pagesStream.close();
+        }
+    }
+
+    /**
+     * Waits for a range to be checked, rethrowing its errors; parse errors are reported as unchecked exceptions,
+     * as by the token iterators
+     */
+    private static PartResult get(Future<PartResult> part) throws IOException {
+        try {
+            return part.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static class PartResult {
+        final Map<Misspelling, Integer> misspellingCounts;
+        final List<String> leadingTokens = Lists.newArrayList();
+        final List<String> trailingTokens = Lists.newArrayList();
+        long parseNanos;
+
+        PartResult(Map<Misspelling, Integer> misspellingCounts) {
+            this.misspellingCounts = misspellingCounts;
+        }
+    }
+}
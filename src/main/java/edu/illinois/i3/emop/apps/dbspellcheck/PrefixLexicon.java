@@ -0,0 +1,30 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+/**
+ * A set of words that can be traversed character by character, allowing callers to stop exploring
+ * as soon as the characters produced so far are not a prefix of any word.
+ * Nodes are identified by non-negative integers; traversal is read-only and does not allocate.
+ *
+ * @author capitanu
+ */
+public interface PrefixLexicon {
+
+	/**
+	 * @return The node corresponding to the empty prefix
+	 */
+	int getRoot();
+
+	/**
+	 * @param node The node of a prefix
+	 * @param c    The next character
+	 * @return The node of the prefix extended by the character, or -1 if no word starts with the extended prefix
+	 */
+	int getChild(int node, char c);
+
+	/**
+	 * @param node The node of a prefix
+	 * @return True if the prefix is a word
+	 */
+	boolean isWord(int node);
+
+}
@@ -0,0 +1,48 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the spellcheck results as the documents are processed.
+ *
+ * For each document, {@link #startDocument(String)} is called first, then {@link #writeMisspelling(String, Misspelling)}
+ * the first time each misspelling is found, then {@link #writeCount(String, Misspelling, int)} with the number of
+ * occurrences of the misspellings, and finally {@link #endDocument(String)} (or {@link #abortDocument(String)} if the
+ * document could not be processed). Counts are additive: the same misspelling
+ * may be reported more than once per document, in which case its total is the sum of the reported counts.
+ *
+ * Several documents may be processed concurrently, so implementations must be thread-safe.
+ *
+ * @author capitanu
+ */
+public interface ResultSink extends Closeable {
+
+	void startDocument(String documentName) throws IOException;
+
+	/**
+	 * @param documentName The document
+	 * @param misspelling  The misspelling, along with its scored suggestions
+	 * @throws IOException
+	 */
+	void writeMisspelling(String documentName, Misspelling misspelling) throws IOException;
+
+	/**
+	 * @param documentName The document
+	 * @param misspelling  The misspelling (already passed to {@link #writeMisspelling(String, Misspelling)})
+	 * @param count        The number of (additional) occurrences of the misspelling in the document
+	 * @throws IOException
+	 */
+	void writeCount(String documentName, Misspelling misspelling, int count) throws IOException;
+
+	void endDocument(String documentName) throws IOException;
+
+	/**
+	 * Discards the results of a document whose processing failed, or was interrupted in an earlier run
+	 * (in which case the document was not started in this run)
+	 *
+	 * @param documentName The document
+	 * @throws IOException
+	 */
+	void abortDocument(String documentName) throws IOException;
+}
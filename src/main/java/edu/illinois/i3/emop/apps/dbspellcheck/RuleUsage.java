@@ -0,0 +1,190 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Files;
+
+/**
+ * Counts how often each OCR correction (an OCR error and one of its replacements) is used by the suggestions of the
+ * misspellings found (once per distinct misspelling per document), accumulating the counts across runs in a file:
+ *
+ * <pre>
+ * {"corrections": [[original, replacement, count], ...]}
+ * </pre>
+ *
+ * The counts of a document are only added to the totals once the document ends, so aborted documents are not counted.
+ * If an output file is set, the totals are rewritten to it each time a document ends, so the usage of the documents
+ * completed before a crash is kept (the documents skipped by the resumed run are not counted again). The counts read
+ * from the file are used to derive a rule matcher weighing the corrections by their usage (see
+ * {@link OCRRuleMatcher#orderedBy(long[], boolean)}).
+ *
+ * @author capitanu
+ */
+public class RuleUsage implements ResultSink {
+
+	private static final Logger log = LoggerFactory.getLogger(RuleUsage.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final OCRRuleMatcher _ruleMatcher;
+	private final long[] _previousCounts;				// the counts of the earlier runs
+	private final long[] _counts;						// the counts of the documents ended in this run, guarded by this
+	private final ConcurrentMap<String, long[]> _documentCounts = new ConcurrentHashMap<String, long[]>();
+	private File _outputFile;
+
+	/**
+	 * @param ruleMatcher The OCR rules
+	 */
+	public RuleUsage(OCRRuleMatcher ruleMatcher) {
+		_ruleMatcher = ruleMatcher;
+		_previousCounts = new long[ruleMatcher.getCorrectionCount()];
+		_counts = new long[_previousCounts.length];
+	}
+
+	/**
+	 * Sets the file the counts are written to each time a document ends. A document that ended, but was not yet
+	 * recorded as completed by the run journal (e.g. while its results are committed), is counted again if a resumed
+	 * run processes it again.
+	 *
+	 * @param file The file (null to only write the counts with {@link #writeTo(File)})
+	 */
+	public synchronized void setOutputFile(File file) {
+		_outputFile = file;
+	}
+
+	/**
+	 * Adds the counts of earlier runs; the counts of corrections no longer among the OCR rules are ignored
+	 *
+	 * @param file The file written by {@link #writeTo(File)}
+	 * @return The number of correction uses read
+	 * @throws IOException
+	 */
+	public long readFrom(File file) throws IOException {
+		long total = 0;
+		int ignored = 0;
+
+		try {
+			JSONArray corrections = new JSONObject(Files.toString(file, UTF8)).getJSONArray("corrections");
+			for (int i = 0, iMax = corrections.length(); i < iMax; i++) {
+				JSONArray correction = corrections.getJSONArray(i);
+				int c = _ruleMatcher.getCorrection(correction.getString(0), correction.getString(1));
+				if (c == -1) {
+					ignored++;
+					continue;
+				}
+
+				long count = correction.getLong(2);
+				_previousCounts[c] += count;
+				total += count;
+			}
+		}
+		catch (JSONException e) {
+			throw new IOException("Cannot read the rule usage from " + file, e);
+		}
+
+		if (ignored > 0)
+			log.warn("Ignored the usage of {} correction(s) no longer among the OCR rules", ignored);
+
+		return total;
+	}
+
+	/**
+	 * Writes the counts of this run and those read from earlier runs (replacing the file atomically)
+	 *
+	 * @param file The file
+	 * @throws IOException
+	 */
+	public synchronized void writeTo(File file) throws IOException {
+		long[] counts = getCounts();
+
+		try {
+			JSONArray corrections = new JSONArray();
+			for (int c = 0; c < counts.length; c++)
+				if (counts[c] > 0)
+					corrections.put(new JSONArray()
+							.put(_ruleMatcher.getOriginal(c))
+							.put(_ruleMatcher.getReplacement(c))
+							.put(counts[c]));
+
+			File tempFile = new File(file.getPath() + ".tmp");
+			Files.write(new JSONObject().put("corrections", corrections).toString(), tempFile, UTF8);
+			java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (JSONException e) {
+			throw new IOException("Cannot write the rule usage to " + file, e);
+		}
+	}
+
+	/**
+	 * @return The counts read from earlier runs, indexed by correction number
+	 */
+	public long[] getPreviousCounts() {
+		return _previousCounts.clone();
+	}
+
+	/**
+	 * @return The counts of this run and those read from earlier runs, indexed by correction number
+	 */
+	public synchronized long[] getCounts() {
+		long[] counts = _previousCounts.clone();
+		for (int c = 0; c < counts.length; c++)
+			counts[c] += _counts[c];
+
+		return counts;
+	}
+
+	public void startDocument(String documentName) {
+		_documentCounts.put(documentName, new long[_counts.length]);
+	}
+
+	public void writeMisspelling(String documentName, Misspelling misspelling) {
+		// A document is only processed by one worker at a time, so its counts are not shared
+		long[] documentCounts = _documentCounts.get(documentName);
+		for (Suggestion suggestion : misspelling.getSuggestions())
+			for (Transformation transformation : suggestion.getTransformations()) {
+				int c = _ruleMatcher.getCorrection(transformation.getOriginal(), transformation.getReplacement());
+				if (c != -1)
+					documentCounts[c]++;
+			}
+	}
+
+	public void writeCount(String documentName, Misspelling misspelling, int count) {
+	}
+
+	public void endDocument(String documentName) throws IOException {
+		long[] documentCounts = _documentCounts.remove(documentName);
+		if (documentCounts == null)
+			return;
+
+		synchronized (this) {
+			for (int c = 0; c < documentCounts.length; c++)
+				_counts[c] += documentCounts[c];
+
+			if (_outputFile != null)
+				writeTo(_outputFile);
+		}
+	}
+
+	public void abortDocument(String documentName) {
+		_documentCounts.remove(documentName);
+	}
+
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RuleUsage[corrections: %,d, documents: %d]", _previousCounts.length, _documentCounts.size());
+	}
+}
@@ -0,0 +1,360 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Journal of the documents processed by the runs over a corpus, so an interrupted run can be resumed.
+ *
+ * The journal is an append-only JSON Lines file, with one event per line:
+ *
+ * <pre>
+ * {"event": "started", "document": ..., "sha1": ..., "lexicon": ..., "rules": ..., "time": ...}
+ * {"event": "completed", "document": ..., "sha1": ..., "lexicon": ..., "rules": ..., "time": ...,
+ *  "transformations": [[original, replacement, index, count], ...]}
+ * {"event": "quarantined", "document": ..., "sha1": ..., "lexicon": ..., "rules": ..., "time": ..., "error": ...}
+ * </pre>
+ *
+ * The last event of a document determines its state. A document is only journaled as completed once it has been
+ * processed and, if the results are written to the DB, once its rows have been committed (see
+ * {@link DBResultWriter.CommitListener}). A completed document can be skipped as long as its contents (SHA-1), the
+ * lexicon and the OCR rules are unchanged; a quarantined document as long as its contents are unchanged.
+ * Any other document mentioned in the journal may have partial results, which must be discarded before it is
+ * processed again.
+ *
+ * The journal also acts as a result sink, recording the transformation counts of each document.
+ *
+ * @author capitanu
+ */
+public class RunJournal implements ResultSink, DBResultWriter.CommitListener {
+
+	private static final Logger log = LoggerFactory.getLogger(RunJournal.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public enum State { STARTED, COMPLETED, QUARANTINED }
+
+	private final File _file;
+	private final String _lexiconVersion;
+	private final String _rulesVersion;
+	private final boolean _awaitCommit;
+	private final Map<String, Entry> _entries = Maps.newHashMap();		// last journaled entry of each document
+	private final Map<String, Pending> _pending = Maps.newConcurrentMap();	// documents being processed or committed
+	private final Writer _writer;
+
+	/**
+	 * Opens (or creates) a journal
+	 *
+	 * @param file           The journal file
+	 * @param lexiconVersion The version of the lexicon used by this run
+	 * @param rulesVersion   The version of the OCR rules used by this run
+	 * @param awaitCommit    True if the documents are only completed once their results are committed to the DB
+	 * @throws IOException
+	 */
+	public RunJournal(File file, String lexiconVersion, String rulesVersion, boolean awaitCommit) throws IOException {
+		_file = file;
+		_lexiconVersion = lexiconVersion;
+		_rulesVersion = rulesVersion;
+		_awaitCommit = awaitCommit;
+
+		if (file.exists())
+			read(file);
+
+		_writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+	}
+
+	/**
+	 * Computes the version of a file (e.g. the OCR rules or a document)
+	 *
+	 * @param file The file
+	 * @return The hex-encoded SHA-1 of the file
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException {
+		return Files.hash(file, Hashing.sha1()).toString();
+	}
+
+	/**
+	 * @return The number of documents in the journal
+	 */
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	/**
+	 * @param documentName The document
+	 * @param sha1         The hash of the document
+	 * @return True if the document was already processed (or quarantined) and does not need to be processed again
+	 */
+	public synchronized boolean canSkip(String documentName, String sha1) {
+		Entry entry = _entries.get(documentName);
+		if (entry == null || !entry.sha1.equals(sha1))
+			return false;
+
+		switch (entry.state) {
+			case COMPLETED:
+				return entry.lexiconVersion.equals(_lexiconVersion) && entry.rulesVersion.equals(_rulesVersion);
+
+			case QUARANTINED:
+				return true;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param documentName The document
+	 * @return The state of the document in the journal, or null if not journaled
+	 */
+	public synchronized State getState(String documentName) {
+		Entry entry = _entries.get(documentName);
+		return (entry != null) ? entry.state : null;
+	}
+
+	/**
+	 * @param documentName The document
+	 * @return The transformation counts of the document when it was completed (empty if not completed)
+	 */
+	public synchronized Multiset<Transformation> getTransformationCounts(String documentName) {
+		Entry entry = _entries.get(documentName);
+		return (entry != null && entry.transformCounts != null) ?
+				entry.transformCounts : HashMultiset.<Transformation>create();
+	}
+
+	/**
+	 * Journals the start of the processing of a document
+	 *
+	 * @param documentName The document
+	 * @param sha1         The hash of the document
+	 * @throws IOException
+	 */
+	public synchronized void documentStarted(String documentName, String sha1) throws IOException {
+		Pending pending = new Pending();
+		pending.sha1 = sha1;
+		_pending.put(documentName, pending);
+
+		append(new Entry(State.STARTED, documentName, sha1, _lexiconVersion, _rulesVersion, null, null));
+	}
+
+	/**
+	 * Records that the document was fully processed; it is journaled as completed now,
+	 * or once its results are committed to the DB
+	 *
+	 * @param documentName The document
+	 * @throws IOException
+	 */
+	public synchronized void documentProcessed(String documentName) throws IOException {
+		Pending pending = _pending.get(documentName);
+		if (pending == null)
+			throw new IllegalStateException("Document not started: " + documentName);
+
+		pending.processed = true;
+		completeIfDone(documentName, pending);
+	}
+
+	/**
+	 * Notified by the DB writer once the rows of the document are committed
+	 */
+	public synchronized void documentCommitted(String documentName) {
+		Pending pending = _pending.get(documentName);
+		if (pending == null)
+			return;
+
+		pending.committed = true;
+		try {
+			completeIfDone(documentName, pending);
+		}
+		catch (IOException e) {
+			log.error("Could not journal the completion of " + documentName, e);
+		}
+	}
+
+	/**
+	 * Journals a document that could not be processed
+	 *
+	 * @param documentName The document
+	 * @param sha1         The hash of the document
+	 * @param error        The error
+	 * @throws IOException
+	 */
+	public synchronized void documentQuarantined(String documentName, String sha1, Throwable error) throws IOException {
+		_pending.remove(documentName);
+
+		append(new Entry(State.QUARANTINED, documentName, sha1, _lexiconVersion, _rulesVersion, null, String.valueOf(error)));
+	}
+
+	public void startDocument(String documentName) {
+	}
+
+	public void writeMisspelling(String documentName, Misspelling misspelling) {
+		// A document is only processed by one worker at a time, so its counts are not shared
+		Pending pending = _pending.get(documentName);
+		if (pending == null)
+			return;
+
+		for (Suggestion suggestion : misspelling.getSuggestions())
+			pending.transformCounts.addAll(suggestion.getTransformations());
+	}
+
+	public void writeCount(String documentName, Misspelling misspelling, int count) {
+	}
+
+	public void endDocument(String documentName) {
+	}
+
+	public void abortDocument(String documentName) {
+	}
+
+	public synchronized void close() throws IOException {
+		if (!_pending.isEmpty())
+			log.warn("{} document(s) not journaled as completed: {}", _pending.size(), _pending.keySet());
+
+		_writer.close();
+	}
+
+	private void completeIfDone(String documentName, Pending pending) throws IOException {
+		if (!pending.processed || (_awaitCommit && !pending.committed))
+			return;
+
+		_pending.remove(documentName);
+		append(new Entry(State.COMPLETED, documentName, pending.sha1, _lexiconVersion, _rulesVersion,
+				pending.transformCounts, null));
+	}
+
+	private void append(Entry entry) throws IOException {
+		try {
+			JSONObject record = new JSONObject()
+					.put("event", entry.state.toString().toLowerCase())
+					.put("document", entry.documentName)
+					.put("sha1", entry.sha1)
+					.put("lexicon", entry.lexiconVersion)
+					.put("rules", entry.rulesVersion)
+					.put("time", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+
+			if (entry.transformCounts != null) {
+				JSONArray transformations = new JSONArray();
+				for (Multiset.Entry<Transformation> count : entry.transformCounts.entrySet()) {
+					Transformation transformation = count.getElement();
+					transformations.put(new JSONArray()
+							.put(transformation.getOriginal())
+							.put(transformation.getReplacement())
+							.put(transformation.getIndex())
+							.put(count.getCount()));
+				}
+				record.put("transformations", transformations);
+			}
+
+			if (entry.error != null)
+				record.put("error", entry.error);
+
+			_writer.write(record.toString());
+			_writer.write('\n');
+			_writer.flush();
+		}
+		catch (JSONException e) {
+			throw new IOException("Cannot journal " + entry.documentName, e);
+		}
+
+		_entries.put(entry.documentName, entry);
+	}
+
+	private void read(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+
+		try {
+			int lineNumber = 0;
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty()) continue;
+
+				try {
+					JSONObject record = new JSONObject(line);
+
+					Multiset<Transformation> transformCounts = null;
+					JSONArray transformations = record.optJSONArray("transformations");
+					if (transformations != null) {
+						transformCounts = HashMultiset.create();
+						for (int i = 0, iMax = transformations.length(); i < iMax; i++) {
+							JSONArray count = transformations.getJSONArray(i);
+							transformCounts.add(new Transformation(count.getString(0), count.getString(1), count.getInt(2)),
+									count.getInt(3));
+						}
+					}
+
+					Entry entry = new Entry(State.valueOf(record.getString("event").toUpperCase()),
+							record.getString("document"), record.getString("sha1"),
+							record.getString("lexicon"), record.getString("rules"),
+							transformCounts, record.optString("error", null));
+					_entries.put(entry.documentName, entry);
+				}
+				catch (JSONException | IllegalArgumentException e) {
+					// The last line may have been cut short by a crash
+					log.warn("Ignoring malformed line {} of {}: {}", lineNumber, file, e.getMessage());
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		log.info("Read {} journaled document(s) from {}", _entries.size(), file);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RunJournal[file: %s, lexicon: %s, rules: %s]", _file, _lexiconVersion, _rulesVersion);
+	}
+
+	private static class Entry {
+		final State state;
+		final String documentName;
+		final String sha1;
+		final String lexiconVersion;
+		final String rulesVersion;
+		final Multiset<Transformation> transformCounts;
+		final String error;
+
+		Entry(State state, String documentName, String sha1, String lexiconVersion, String rulesVersion,
+			  Multiset<Transformation> transformCounts, String error) {
+			this.state = state;
+			this.documentName = documentName;
+			this.sha1 = sha1;
+			this.lexiconVersion = lexiconVersion;
+			this.rulesVersion = rulesVersion;
+			this.transformCounts = transformCounts;
+			this.error = error;
+		}
+	}
+
+	private static class Pending {
+		String sha1;
+		boolean processed = false;
+		boolean committed = false;
+		final Multiset<Transformation> transformCounts = HashMultiset.create();
+	}
+}
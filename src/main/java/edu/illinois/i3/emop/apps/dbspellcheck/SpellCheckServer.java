@@ -0,0 +1,338 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves spellcheck requests over HTTP (on the loopback interface), so the lexicon is loaded once and stays warm
+ * across requests. The requests are handled concurrently by a pool of workers sharing the lexicon, and the results
+ * are streamed back as JSON Lines, in the format of {@link JsonLinesResultSink}:
+ *
+ * <pre>
+ * POST /documents?name=...   the body is an OCR XML document; returns its "misspelling" and "count" records
+ * POST /tokens               the body is a batch of tokens, one per line; returns a "token" record per token
+ * POST /rules/reload         re-reads the OCR rules file
+ * </pre>
+ *
+ * Each response ends with a "done" record giving the processing time in milliseconds, or an "error" record if the
+ * request failed after the response started. Reloading the rules does not affect the requests in progress; the
+ * later requests use the new rules (and a new token cache), weighed like the rules given at startup if a rule usage
+ * file is set (see {@link #setRuleUsage(File, boolean)}).
+ *
+ * @author capitanu
+ */
+public class SpellCheckServer {
+
+	private static final Logger log = LoggerFactory.getLogger(SpellCheckServer.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private final File _rulesFile;
+	private final long _cacheSize;
+	private final int _threads;
+	private File _ruleUsageFile;
+	private boolean _skipUnusedRules;
+	private volatile DocumentProcessor _processor;
+	private HttpServer _server;
+	private ExecutorService _executor;
+
+	/**
+	 * @param processor The processor whose settings (and lexicon) are used to check the requests
+	 * @param rulesFile The OCR rules file, re-read by /rules/reload
+	 * @param cacheSize The maximum number of tokens of the token cache created when the rules are reloaded
+	 * @param threads   The number of requests handled concurrently
+	 */
+	public SpellCheckServer(DocumentProcessor processor, File rulesFile, long cacheSize, int threads) {
+		_processor = processor;
+		_rulesFile = rulesFile;
+		_cacheSize = cacheSize;
+		_threads = threads;
+	}
+
+	/**
+	 * Weighs the reloaded rules by their usage in earlier runs (see {@link RuleUsage}); the usage is not updated
+	 *
+	 * @param ruleUsageFile   The file holding the usage of the rules (null to not weigh the reloaded rules)
+	 * @param skipUnusedRules True to also drop the corrections never used
+	 */
+	public void setRuleUsage(File ruleUsageFile, boolean skipUnusedRules) {
+		_ruleUsageFile = ruleUsageFile;
+		_skipUnusedRules = skipUnusedRules;
+	}
+
+	/**
+	 * Starts serving requests
+	 *
+	 * @param port The port (on the loopback interface)
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		// Without TCP_NODELAY, the last chunk of a response waits for the (delayed) acknowledgement of the previous ones
+		if (System.getProperty(NODELAY_PROPERTY) == null)
+			System.setProperty(NODELAY_PROPERTY, "true");
+
+		_server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		_executor = Executors.newFixedThreadPool(_threads);
+		_server.setExecutor(_executor);
+
+		_server.createContext("/documents", new RequestHandler() {
+			void handle(HttpExchange exchange, OutputStream out) throws Exception {
+				checkDocument(exchange, out);
+			}
+		});
+		_server.createContext("/tokens", new RequestHandler() {
+			void handle(HttpExchange exchange, OutputStream out) throws Exception {
+				checkTokens(exchange, out);
+			}
+		});
+		_server.createContext("/rules/reload", new RequestHandler() {
+			void handle(HttpExchange exchange, OutputStream out) throws Exception {
+				OCRRuleMatcher ruleMatcher = reloadRules();
+				out.write(JsonLinesResultSink.toLine(new JSONObject()
+						.put("type", "rules")
+						.put("errors", ruleMatcher.getRuleCount())
+						.put("corrections", ruleMatcher.getCorrectionCount())));
+			}
+		});
+
+		_server.start();
+		log.info("Serving spellcheck requests on {} with {} worker(s)", _server.getAddress(), _threads);
+	}
+
+	/**
+	 * Stops serving requests, waiting for the requests in progress for at most a given time
+	 *
+	 * @param delaySeconds The maximum time to wait for the requests in progress
+	 */
+	public void stop(int delaySeconds) {
+		_server.stop(delaySeconds);
+		_executor.shutdownNow();
+		log.info("Stopped serving spellcheck requests");
+	}
+
+	/**
+	 * Re-reads the OCR rules file; the requests received from then on use the new rules
+	 *
+	 * @return The new rules
+	 * @throws Exception
+	 */
+	public OCRRuleMatcher reloadRules() throws Exception {
+		OCRRuleMatcher ruleMatcher;
+		try (InputStream rulesStream = new FileInputStream(_rulesFile)) {
+			ruleMatcher = new OCRRuleMatcher(Main.getTransformationRules(rulesStream));
+		}
+
+		if (_ruleUsageFile != null)
+			ruleMatcher = Main.orderRules(ruleMatcher, new RuleUsage(ruleMatcher), _ruleUsageFile, _skipUnusedRules);
+
+		// The cached results depend on the rules
+		DocumentProcessor processor = new DocumentProcessor(_processor, ruleMatcher, null);
+		processor.setTokenCache(new TokenCache(_cacheSize, _threads));
+		_processor = processor;
+
+		log.info("Reloaded the rules from {}: {}", _rulesFile, ruleMatcher);
+
+		return ruleMatcher;
+	}
+
+	private void checkDocument(HttpExchange exchange, OutputStream out) throws Exception {
+		String documentName = getParameter(exchange, "name");
+		if (documentName == null)
+			documentName = "";
+
+		DocumentProcessor processor = _processor;
+		new DocumentProcessor(processor, processor.getRuleMatcher(), new StreamResultSink(out))
+				.process(documentName, exchange.getRequestBody());
+	}
+
+	private void checkTokens(HttpExchange exchange, OutputStream out) throws Exception {
+		DocumentProcessor processor = _processor;
+		OCRCheck ocrCheck = processor.createOCRCheck(new OCRDocument("", Iterators.<String>emptyIterator()));
+
+		List<String> tokens = Lists.newArrayList();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF8));
+		for (String line; (line = reader.readLine()) != null; ) {
+			String token = line.trim();
+			if (!token.isEmpty())
+				tokens.add(token);
+		}
+
+		for (String token : tokens)
+			checkToken(token, ocrCheck, processor, out);
+	}
+
+	/**
+	 * Checks a token, along with its parts if it is split
+	 */
+	private void checkToken(String token, OCRCheck ocrCheck, DocumentProcessor processor, OutputStream out) throws Exception {
+		JSONObject record = new JSONObject()
+				.put("type", "token")
+				.put("token", token);
+
+		String cleanedToken = ocrCheck.cleanToken(token);
+		if (cleanedToken.isEmpty()) {
+			out.write(JsonLinesResultSink.toLine(record.put("result", "junk")));
+			return;
+		}
+
+		TokenCheckResult result = ocrCheck.checkTokens(Lists.newArrayList(cleanedToken),
+				processor.getDictionary(), processor.getRuleMatcher()).get(0);
+		record.put("result", result.getType().toString().toLowerCase());
+
+		switch (result.getType()) {
+			case MISSPELLING:
+				record.put("misspelling", JsonLinesResultSink.toMisspellingRecord("", result.getMisspelling()));
+				break;
+
+			case SPLIT:
+				record.put("parts", new JSONArray(Lists.newArrayList(result.getParts())));
+				break;
+
+			default:
+				break;
+		}
+
+		out.write(JsonLinesResultSink.toLine(record));
+
+		if (result.getType() == TokenCheckResult.Type.SPLIT)
+			for (String part : result.getParts())
+				if (!part.trim().isEmpty())
+					checkToken(part.trim(), ocrCheck, processor, out);
+	}
+
+	private static String getParameter(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return null;
+
+		for (String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			String parameterName = (separator >= 0) ? parameter.substring(0, separator) : parameter;
+			if (URLDecoder.decode(parameterName, "UTF-8").equals(name))
+				return (separator >= 0) ? URLDecoder.decode(parameter.substring(separator + 1), "UTF-8") : "";
+		}
+
+		return null;
+	}
+
+	/**
+	 * Handles a POST request, streaming the JSON Lines response; the response ends with a "done" record,
+	 * or with an "error" record if the request fails
+	 */
+	private abstract static class RequestHandler implements HttpHandler {
+
+		abstract void handle(HttpExchange exchange, OutputStream out) throws Exception;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+
+				long start = System.nanoTime();
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, 0);
+
+				OutputStream out = new BufferedOutputStream(exchange.getResponseBody());
+				try {
+					handle(exchange, out);
+					out.write(JsonLinesResultSink.toLine(new JSONObject()
+							.put("type", "done")
+							.put("millis", (System.nanoTime() - start) / 1e6)));
+				}
+				catch (Exception e) {
+					log.warn("Request {} failed", exchange.getRequestURI(), e);
+					writeError(out, e);
+				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				exchange.close();
+			}
+		}
+
+		private static void writeError(OutputStream out, Exception error) throws IOException {
+			try {
+				out.write(JsonLinesResultSink.toLine(new JSONObject()
+						.put("type", "error")
+						.put("error", String.valueOf(error.getMessage()))));
+			}
+			catch (JSONException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Streams the results of a single document to the response
+	 */
+	private static class StreamResultSink implements ResultSink {
+		private final OutputStream _out;
+
+		StreamResultSink(OutputStream out) {
+			_out = out;
+		}
+
+		public void startDocument(String documentName) {
+		}
+
+		public void writeMisspelling(String documentName, Misspelling misspelling) throws IOException {
+			try {
+				_out.write(JsonLinesResultSink.toLine(JsonLinesResultSink.toMisspellingRecord(documentName, misspelling)));
+			}
+			catch (JSONException e) {
+				throw new IOException("Cannot encode misspelling: " + misspelling.getMisspelledWord(), e);
+			}
+		}
+
+		public void writeCount(String documentName, Misspelling misspelling, int count) throws IOException {
+			try {
+				_out.write(JsonLinesResultSink.toLine(JsonLinesResultSink.toCountRecord(documentName, misspelling, count)));
+			}
+			catch (JSONException e) {
+				throw new IOException("Cannot encode count of misspelling: " + misspelling.getMisspelledWord(), e);
+			}
+		}
+
+		public void endDocument(String documentName) throws IOException {
+			_out.flush();
+		}
+
+		public void abortDocument(String documentName) {
+		}
+
+		public void close() {
+		}
+	}
+}
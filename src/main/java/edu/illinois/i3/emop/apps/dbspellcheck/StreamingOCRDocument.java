@@ -0,0 +1,112 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A document that does not retain its misspellings: each misspelling is passed to the result sink when first found,
+ * and the occurrence counts are passed on (as partial, additive counts) whenever more than a given number of distinct
+ * misspellings are pending, so the memory used does not grow with the length of the document.
+ *
+ * To recognize the first occurrence of a misspelling, only a 64-bit fingerprint of each misspelled word is kept.
+ * {@link #getMisspellings()} and {@link #getMisspellingCounts()} only return the counts not yet passed on.
+ *
+ * @author capitanu
+ */
+public class StreamingOCRDocument extends OCRDocument {
+
+	private static final HashFunction FINGERPRINT_FUNCTION = Hashing.murmur3_128();
+
+	private final int _maxPendingCounts;
+	private final FingerprintSet _reported = new FingerprintSet();
+
+	/**
+	 * @param name             The document name
+	 * @param tokenIterator    The document tokens
+	 * @param resultSink       The sink receiving the misspellings and their counts
+	 * @param maxPendingCounts The number of distinct misspellings whose counts are kept before passing them on
+	 */
+	public StreamingOCRDocument(String name, Iterator<String> tokenIterator, ResultSink resultSink, int maxPendingCounts) {
+		super(name, tokenIterator, resultSink);
+
+		if (resultSink == null)
+			throw new IllegalArgumentException("A result sink is required");
+
+		_maxPendingCounts = maxPendingCounts;
+	}
+
+	@Override
+	public int addMisspelling(Misspelling misspelling, int occurrences) throws IOException {
+		long fingerprint = FINGERPRINT_FUNCTION.hashString(misspelling.getMisspelledWord(), Charsets.UTF_8).asLong();
+		if (_reported.add(fingerprint))
+			_resultSink.writeMisspelling(getName(), misspelling);
+
+		Integer count = _misspellings.get(misspelling);
+		count = (count == null) ? occurrences : count + occurrences;
+		_misspellings.put(misspelling, count);
+
+		if (_misspellings.size() >= _maxPendingCounts)
+			flushCounts();
+
+		return count;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		flushCounts();
+		_resultSink.endDocument(getName());
+	}
+
+	private void flushCounts() throws IOException {
+		writeCounts();
+		_misspellings.clear();
+	}
+
+	/**
+	 * Open-addressing set of 64-bit fingerprints
+	 */
+	private static class FingerprintSet {
+		private long[] _slots = new long[1024];	// 0 marks an empty slot
+		private int _size = 0;
+
+		boolean add(long fingerprint) {
+			if (fingerprint == 0)
+				fingerprint = 1;
+
+			if ((_size + 1) * 2 > _slots.length)
+				resize();
+
+			int mask = _slots.length - 1;
+			int slot = (int) fingerprint & mask;
+			while (_slots[slot] != 0) {
+				if (_slots[slot] == fingerprint)
+					return false;
+				slot = (slot + 1) & mask;
+			}
+
+			_slots[slot] = fingerprint;
+			_size++;
+
+			return true;
+		}
+
+		private void resize() {
+			long[] slots = _slots;
+			_slots = new long[slots.length * 2];
+			int mask = _slots.length - 1;
+
+			for (long fingerprint : slots) {
+				if (fingerprint == 0) continue;
+
+				int slot = (int) fingerprint & mask;
+				while (_slots[slot] != 0)
+					slot = (slot + 1) & mask;
+				_slots[slot] = fingerprint;
+			}
+		}
+	}
+}
@@ -8,6 +8,7 @@ public class Suggestion {
 	private final ImmutableSet<Transformation> _transformations;
 	private final Misspelling _misspelling;
 	private Score _score;
+	private Integer _editDistance;
 
 	public Suggestion(Misspelling misspelling, String suggestion, ImmutableSet<Transformation> transformations) {
 		_misspelling = misspelling;
@@ -35,6 +36,22 @@ public class Suggestion {
 		return _score;
 	}
 
+	/**
+	 * Records the Levenshtein distance between the misspelled word and the suggestion, if already known
+	 *
+	 * @param editDistance The distance
+	 */
+	public void setEditDistance(Integer editDistance) {
+		_editDistance = editDistance;
+	}
+
+	/**
+	 * @return The Levenshtein distance between the misspelled word and the suggestion, or null if not computed yet
+	 */
+	public Integer getEditDistance() {
+		return _editDistance;
+	}
+
 	@Override
 	public String toString() {
 		return Objects.toStringHelper(this)
@@ -0,0 +1,415 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Symmetric delete index (as in SymSpell) over the (lowercased) dictionary words: every string obtained by deleting up
+ * to maxDistance characters from a word is hashed and indexed, so the words within an edit distance of a given word
+ * are found by looking up the deletes of that word and verifying the matches with {@link Levenshtein}.
+ *
+ * Each entry is a single (non-negative) long, holding a 39-bit hash of the delete and the 24-bit id of the word, and the
+ * entries are kept in a sorted array; a directory of the first entry for each value of the top bits of the hash
+ * narrows a lookup down to a few adjacent entries. Hash collisions are harmless since matches are verified.
+ * The index is immutable and can be shared between threads.
+ *
+ * @author capitanu
+ */
+public class SymSpellIndex {
+
+	public static final int DEFAULT_MAX_DISTANCE = 2;
+
+	private static final int MAGIC = 0x53594d32;	// "SYM2"
+	private static final int HASH_BITS = 39;
+	private static final int ID_BITS = 24;
+	private static final int BUCKET_BITS = 20;
+	private static final int MAX_WORDS = 1 << ID_BITS;
+	private static final long ID_MASK = MAX_WORDS - 1;
+
+	private final String[] _words;
+	private final long[] _entries;
+	private final int[] _bucketStart;	// the entries of bucket b are at [_bucketStart[b], _bucketStart[b + 1])
+	private final int _maxDistance;
+
+	private SymSpellIndex(String[] words, long[] entries, int maxDistance) {
+		_words = words;
+		_entries = entries;
+		_maxDistance = maxDistance;
+
+		_bucketStart = new int[(1 << BUCKET_BITS) + 1];
+		int e = 0;
+		for (int b = 0; b < (1 << BUCKET_BITS); b++) {
+			_bucketStart[b] = e;
+			while (e < entries.length && bucket(entries[e] >>> ID_BITS) == b)
+				e++;
+		}
+		_bucketStart[1 << BUCKET_BITS] = e;
+	}
+
+	/**
+	 * Builds the index, generating and sorting the deletes of the words in parallel
+	 *
+	 * @param words       The dictionary words
+	 * @param maxDistance The maximum edit distance supported by lookups
+	 * @param threads     The number of threads to use
+	 * @return The index
+	 * @throws Exception
+	 */
+	public static SymSpellIndex build(Collection<String> words, final int maxDistance, int threads) throws Exception {
+		Set<String> distinctWords = Sets.newHashSetWithExpectedSize(words.size());
+		for (String word : words)
+			distinctWords.add(word.toLowerCase());
+
+		if (distinctWords.size() > MAX_WORDS)
+			throw new IllegalArgumentException(
+					String.format("Too many words for the index: %,d (maximum: %,d)", distinctWords.size(), MAX_WORDS));
+
+		final String[] sortedWords = distinctWords.toArray(new String[distinctWords.size()]);
+		Arrays.sort(sortedWords);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			int chunkSize = (sortedWords.length + threads - 1) / threads;
+			List<Future<long[]>> chunks = Lists.newArrayListWithCapacity(threads);
+
+			for (int start = 0; start < sortedWords.length; start += chunkSize) {
+				final int from = start;
+				final int to = Math.min(sortedWords.length, start + chunkSize);
+
+				chunks.add(executor.submit(new Callable<long[]>() {
+					public long[] call() {
+						return buildEntries(sortedWords, from, to, maxDistance);
+					}
+				}));
+			}
+
+			List<long[]> sortedChunks = Lists.newArrayListWithCapacity(chunks.size());
+			for (Future<long[]> chunk : chunks) {
+				try {
+					sortedChunks.add(chunk.get());
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw (cause instanceof Exception) ? (Exception) cause : e;
+				}
+			}
+
+			return new SymSpellIndex(sortedWords, merge(sortedChunks), maxDistance);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the version of the lexicon tables an index file was built from
+	 *
+	 * @param file The file written by {@link #writeTo(File, String)}
+	 * @return The version
+	 * @throws IOException If the file is not a SymSpell index file
+	 */
+	public static String readVersion(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+		try {
+			return readHeader(in, file);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #writeTo(File, String)}
+	 *
+	 * @param file The file
+	 * @return The index
+	 * @throws IOException
+	 */
+	public static SymSpellIndex readFrom(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+		try {
+			readHeader(in, file);
+			int maxDistance = in.readInt();
+
+			String[] words = new String[in.readInt()];
+			for (int i = 0; i < words.length; i++)
+				words[i] = in.readUTF();
+
+			long[] entries = new long[in.readInt()];
+			for (int i = 0; i < entries.length; i++)
+				entries[i] = in.readLong();
+
+			return new SymSpellIndex(words, entries, maxDistance);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index to a file
+	 *
+	 * @param file    The file
+	 * @param version The version of the lexicon tables the index was built from (see {@link LexiconLoader#getVersion()})
+	 * @throws IOException
+	 */
+	public void writeTo(File file, String version) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(version);
+			out.writeInt(_maxDistance);
+
+			out.writeInt(_words.length);
+			for (String word : _words)
+				out.writeUTF(word);
+
+			out.writeInt(_entries.length);
+			for (long entry : _entries)
+				out.writeLong(entry);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Finds the dictionary words within an edit distance of a word
+	 *
+	 * @param word        The word (matched in lowercase)
+	 * @param maxDistance The maximum edit distance (at most the distance the index was built for)
+	 * @return The matches, closest first
+	 */
+	public List<Match> lookup(String word, int maxDistance) {
+		if (maxDistance > _maxDistance)
+			throw new IllegalArgumentException(
+					String.format("The index only supports distances up to %d (requested: %d)", _maxDistance, maxDistance));
+
+		final String query = word.toLowerCase();
+		final int distance = maxDistance;
+		final List<Match> matches = Lists.newArrayList();
+		final Set<Integer> checked = Sets.newHashSet();
+
+		forEachDelete(query, distance, new DeleteVisitor() {
+			public void visit(long hash) {
+				int b = bucket(hash);
+				for (int i = _bucketStart[b], iMax = _bucketStart[b + 1]; i < iMax; i++) {
+					if ((_entries[i] >>> ID_BITS) != hash) continue;
+
+					int id = (int) (_entries[i] & ID_MASK);
+					if (!checked.add(id)) continue;
+
+					String candidate = _words[id];
+					int d = Levenshtein.distance(query, candidate, distance);
+					if (d <= distance)
+						matches.add(new Match(candidate, d));
+				}
+			}
+		});
+
+		Collections.sort(matches, new Comparator<Match>() {
+			public int compare(Match m1, Match m2) {
+				int c = Integer.compare(m1.getDistance(), m2.getDistance());
+				return c != 0 ? c : m1.getWord().compareTo(m2.getWord());
+			}
+		});
+
+		return matches;
+	}
+
+	public int getMaxDistance() {
+		return _maxDistance;
+	}
+
+	public int getWordCount() {
+		return _words.length;
+	}
+
+	public int getEntryCount() {
+		return _entries.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SymSpellIndex[words: %,d, entries: %,d, max distance: %d]",
+				_words.length, _entries.length, _maxDistance);
+	}
+
+	/**
+	 * A dictionary word found by a lookup
+	 */
+	public static class Match {
+		private final String _word;
+		private final int _distance;
+
+		Match(String word, int distance) {
+			_word = word;
+			_distance = distance;
+		}
+
+		public String getWord() {
+			return _word;
+		}
+
+		public int getDistance() {
+			return _distance;
+		}
+
+		@Override
+		public String toString() {
+			return _word + " (" + _distance + ")";
+		}
+	}
+
+	private static String readHeader(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a SymSpell index file: " + file);
+
+		return in.readUTF();
+	}
+
+	private static int bucket(long hash) {
+		return (int) (hash >>> (HASH_BITS - BUCKET_BITS));
+	}
+
+	private static long[] buildEntries(String[] words, int from, int to, int maxDistance) {
+		final LongArray entries = new LongArray((to - from) * 16);
+
+		for (int id = from; id < to; id++) {
+			final long wordId = id;
+			forEachDelete(words[id], maxDistance, new DeleteVisitor() {
+				public void visit(long hash) {
+					entries.add((hash << ID_BITS) | wordId);
+				}
+			});
+		}
+
+		// The same delete can be produced more than once from a word
+		long[] sorted = entries.toArray();
+		Arrays.sort(sorted);
+
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (size == 0 || sorted[i] != sorted[size - 1])
+				sorted[size++] = sorted[i];
+
+		return Arrays.copyOf(sorted, size);
+	}
+
+	private static long[] merge(List<long[]> sortedChunks) {
+		int total = 0;
+		for (long[] chunk : sortedChunks)
+			total += chunk.length;
+
+		long[] merged = new long[total];
+		int[] positions = new int[sortedChunks.size()];
+
+		for (int i = 0; i < total; i++) {
+			int min = -1;
+			for (int c = 0; c < positions.length; c++) {
+				long[] chunk = sortedChunks.get(c);
+				if (positions[c] < chunk.length && (min == -1 || chunk[positions[c]] < sortedChunks.get(min)[positions[min]]))
+					min = c;
+			}
+
+			merged[i] = sortedChunks.get(min)[positions[min]++];
+		}
+
+		return merged;
+	}
+
+	private interface DeleteVisitor {
+		/**
+		 * @param hash The 39-bit hash of a delete
+		 */
+		void visit(long hash);
+	}
+
+	/**
+	 * Visits the word and all the strings obtained by deleting up to maxDistance of its characters
+	 */
+	private static void forEachDelete(String word, int maxDistance, DeleteVisitor visitor) {
+		char[][] buffers = new char[maxDistance + 1][];
+		buffers[0] = word.toCharArray();
+		for (int d = 1; d <= maxDistance; d++)
+			buffers[d] = new char[Math.max(0, word.length() - d)];
+
+		forEachDelete(buffers, 0, word.length(), 0, maxDistance, visitor);
+	}
+
+	private static void forEachDelete(char[][] buffers, int depth, int length, int start, int maxDistance, DeleteVisitor visitor) {
+		char[] chars = buffers[depth];
+		visitor.visit(hash(chars, length));
+
+		if (depth == maxDistance || length == 0)
+			return;
+
+		// Deleting positions in increasing order generates each combination of deleted positions once
+		char[] next = buffers[depth + 1];
+		for (int i = start; i < length; i++) {
+			System.arraycopy(chars, 0, next, 0, i);
+			System.arraycopy(chars, i + 1, next, i, length - i - 1);
+			forEachDelete(buffers, depth + 1, length - 1, i, maxDistance, visitor);
+		}
+	}
+
+	private static long hash(char[] chars, int length) {
+		// FNV-1a, followed by the MurmurHash3 64-bit finalizer
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < length; i++)
+			hash = (hash ^ chars[i]) * 0x100000001b3L;
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash >>> (64 - HASH_BITS);
+	}
+
+	/**
+	 * Growable array of longs
+	 */
+	private static class LongArray {
+		private long[] _values;
+		private int _size = 0;
+
+		LongArray(int capacity) {
+			_values = new long[Math.max(16, capacity)];
+		}
+
+		void add(long value) {
+			if (_size == _values.length)
+				_values = Arrays.copyOf(_values, _size * 2);
+			_values[_size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(_values, _size);
+		}
+	}
+}
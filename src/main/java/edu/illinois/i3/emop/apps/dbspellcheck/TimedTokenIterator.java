@@ -0,0 +1,56 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+/**
+ * Token iterator accumulating the time spent reading the tokens of another iterator, i.e. parsing the document
+ *
+ * @author capitanu
+ */
+public class TimedTokenIterator implements OCRTokenIterator {
+
+	private final OCRTokenIterator _tokens;
+	private long _nanos;
+
+	/**
+	 * @param tokens    The tokens
+	 * @param openNanos The time spent opening the tokens (e.g. building the DOM of the document), in nanoseconds
+	 */
+	public TimedTokenIterator(OCRTokenIterator tokens, long openNanos) {
+		_tokens = tokens;
+		_nanos = openNanos;
+	}
+
+	/**
+	 * @return The time spent opening and reading the tokens so far, in nanoseconds
+	 */
+	public long getNanos() {
+		return _nanos;
+	}
+
+	public boolean hasNext() {
+		long start = System.nanoTime();
+		try {
+			return _tokens.hasNext();
+		}
+		finally {
+			_nanos += System.nanoTime() - start;
+		}
+	}
+
+	public String next() {
+		long start = System.nanoTime();
+		try {
+			return _tokens.next();
+		}
+		finally {
+			_nanos += System.nanoTime() - start;
+		}
+	}
+
+	public void remove() {
+		_tokens.remove();
+	}
+
+	public int getPageIndex() {
+		return _tokens.getPageIndex();
+	}
+}
@@ -0,0 +1,75 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, thread-safe memo cache mapping cleaned tokens to their {@link TokenCheckResult};
+ * the least recently used entries are evicted once the maximum size is reached
+ *
+ * @author capitanu
+ */
+public class TokenCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 500000;
+
+    private final Cache<String, TokenCheckResult> _cache;
+
+    public TokenCache() {
+        this(DEFAULT_MAXIMUM_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maximumSize      The maximum number of tokens to remember
+     * @param concurrencyLevel The expected number of threads using the cache concurrently (the number of lock stripes)
+     */
+    public TokenCache(long maximumSize, int concurrencyLevel) {
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .concurrencyLevel(concurrencyLevel)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Retrieves the cached result for a token
+     *
+     * @param cleanedToken The cleaned token
+     * @return The result, or null if the token is not cached
+     */
+    public TokenCheckResult get(String cleanedToken) {
+        return _cache.getIfPresent(cleanedToken);
+    }
+
+    public void put(String cleanedToken, TokenCheckResult result) {
+        _cache.put(cleanedToken, result);
+    }
+
+    public void invalidateAll() {
+        _cache.invalidateAll();
+    }
+
+    public long size() {
+        return _cache.size();
+    }
+
+    public long getHitCount() {
+        return _cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return _cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return _cache.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = _cache.stats();
+        return String.format("size: %,d, hits: %,d, misses: %,d (hit rate: %.2f%%), evictions: %,d",
+                _cache.size(), stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount());
+    }
+}
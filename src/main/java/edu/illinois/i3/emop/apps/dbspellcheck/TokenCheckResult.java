@@ -0,0 +1,80 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import com.google.common.base.Objects;
+
+/**
+ * The outcome of spellchecking a single (cleaned) token; instances are immutable and can be shared
+ * between documents (and threads) through the {@link TokenCache}
+ *
+ * @author capitanu
+ */
+public class TokenCheckResult {
+
+    public enum Type {
+        /** The token is a dictionary word */
+        CORRECT,
+        /** The token is misspelled */
+        MISSPELLING,
+        /** The token was discarded (too long, possible proper name, etc.) */
+        IGNORED,
+        /** The token is a composed word whose parts need to be checked individually */
+        SPLIT
+    }
+
+    private static final TokenCheckResult CORRECT = new TokenCheckResult(Type.CORRECT, null, null);
+    private static final TokenCheckResult IGNORED = new TokenCheckResult(Type.IGNORED, null, null);
+
+    private final Type _type;
+    private final Misspelling _misspelling;
+    private final String[] _parts;
+
+    private TokenCheckResult(Type type, Misspelling misspelling, String[] parts) {
+        _type = type;
+        _misspelling = misspelling;
+        _parts = parts;
+    }
+
+    public static TokenCheckResult correct() {
+        return CORRECT;
+    }
+
+    public static TokenCheckResult ignored() {
+        return IGNORED;
+    }
+
+    public static TokenCheckResult misspelling(Misspelling misspelling) {
+        return new TokenCheckResult(Type.MISSPELLING, misspelling, null);
+    }
+
+    public static TokenCheckResult split(String[] parts) {
+        return new TokenCheckResult(Type.SPLIT, null, parts);
+    }
+
+    public Type getType() {
+        return _type;
+    }
+
+    /**
+     * @return The misspelling (with its scored suggestions), or null if the token is not a misspelling
+     */
+    public Misspelling getMisspelling() {
+        return _misspelling;
+    }
+
+    /**
+     * @return The parts of a composed word, or null if the token was not split
+     */
+    public String[] getParts() {
+        return _parts == null ? null : _parts.clone();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(_type)
+                .add("misspelling", _misspelling)
+                .add("parts", _parts)
+                .omitNullValues()
+                .toString();
+    }
+}
@@ -0,0 +1,172 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass, table-driven versions of the regular expressions applied to each token; the results are identical
+ * to those of the regular expressions, but no pattern is compiled and a new string is only allocated when
+ * the token is changed
+ *
+ * @author capitanu
+ */
+public final class TokenCleaner {
+
+	private static final byte ALNUM = 1;		// \p{Alnum} (US-ASCII letters and digits)
+	private static final byte WORD = 2;			// \w (US-ASCII letters and digits, and '_')
+	private static final byte NUMERIC = 4;		// \p{N}, '.' or ','
+
+	private static final byte[] CHAR_CLASSES = new byte[Character.MAX_VALUE + 1];
+
+	static {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			byte charClass = 0;
+
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))
+				charClass |= ALNUM | WORD;
+			if (c == '_')
+				charClass |= WORD;
+			if (c == '.' || c == ',' || isNumber(c))
+				charClass |= NUMERIC;
+
+			CHAR_CLASSES[c] = charClass;
+		}
+	}
+
+	private TokenCleaner() { }
+
+	/**
+	 * Cleans a token: discards the tokens containing only numbers, periods and commas, and strips the leading and
+	 * trailing characters that are not (US-ASCII) letters or digits; equivalent to
+	 *
+	 * <pre>
+	 * token.replaceAll("[\\p{N}.,]", "").isEmpty() ? "" :
+	 *     token.replaceAll("^[^\\p{Alnum}]+", "").replaceAll("[^\\p{Alnum}]+$", "")
+	 * </pre>
+	 *
+	 * @param token The token
+	 * @return The cleaned token (the token itself if unchanged), or an empty string for junk tokens
+	 */
+	public static String clean(String token) {
+		int length = token.length();
+
+		if (isNumeric(token))
+			return "";
+
+		int start = 0;
+		while (start < length && (CHAR_CLASSES[token.charAt(start)] & ALNUM) == 0)
+			start++;
+
+		if (start == length)
+			return "";
+
+		int end = length;
+		while ((CHAR_CLASSES[token.charAt(end - 1)] & ALNUM) == 0)
+			end--;
+
+		return (start == 0 && end == length) ? token : token.substring(start, end);
+	}
+
+	/**
+	 * Splits a token around the runs of non-word characters; equivalent to {@code token.split("\\W+")}
+	 *
+	 * @param token The token
+	 * @return The parts of the token
+	 */
+	public static String[] splitNonWord(String token) {
+		int length = token.length();
+		List<String> parts = null;
+		int partStart = 0;
+
+		for (int i = 0; i < length; ) {
+			if ((CHAR_CLASSES[token.charAt(i)] & WORD) != 0) {
+				i++;
+				continue;
+			}
+
+			int separatorEnd = i + 1;
+			while (separatorEnd < length && (CHAR_CLASSES[token.charAt(separatorEnd)] & WORD) == 0)
+				separatorEnd++;
+
+			if (parts == null)
+				parts = new ArrayList<>();
+			parts.add(token.substring(partStart, i));
+			partStart = i = separatorEnd;
+		}
+
+		if (parts == null)
+			return new String[] { token };
+
+		parts.add(token.substring(partStart));
+
+		// Trailing empty parts are removed
+		int size = parts.size();
+		while (size > 0 && parts.get(size - 1).isEmpty())
+			size--;
+
+		return parts.subList(0, size).toArray(new String[size]);
+	}
+
+	/**
+	 * Checks whether a token is an uppercase letter followed by at least 3 lowercase letters (e.g. a proper name);
+	 * equivalent to {@code token.matches("\\p{Lu}\\p{Ll}{3,}")}
+	 *
+	 * @param token The token
+	 * @return True if the token is capitalized
+	 */
+	public static boolean isCapitalizedWord(String token) {
+		int length = token.length();
+		if (length < 4)
+			return false;
+
+		int codePoint = token.codePointAt(0);
+		if (Character.getType(codePoint) != Character.UPPERCASE_LETTER)
+			return false;
+
+		int lowercaseCount = 0;
+		for (int i = Character.charCount(codePoint); i < length; i += Character.charCount(codePoint)) {
+			codePoint = token.codePointAt(i);
+			if (Character.getType(codePoint) != Character.LOWERCASE_LETTER)
+				return false;
+			lowercaseCount++;
+		}
+
+		return lowercaseCount >= 3;
+	}
+
+	/**
+	 * @return True if the token only contains numbers (\p{N}), periods and commas (or is empty)
+	 */
+	private static boolean isNumeric(String token) {
+		for (int i = 0, length = token.length(); i < length; ) {
+			char c = token.charAt(i);
+
+			if (!Character.isSurrogate(c)) {
+				if ((CHAR_CLASSES[c] & NUMERIC) == 0)
+					return false;
+				i++;
+			}
+			else {
+				// Numbers outside the BMP (e.g. mathematical digits)
+				int codePoint = token.codePointAt(i);
+				if (!isNumber(codePoint))
+					return false;
+				i += Character.charCount(codePoint);
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isNumber(int codePoint) {
+		switch (Character.getType(codePoint)) {
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.LETTER_NUMBER:
+			case Character.OTHER_NUMBER:
+				return true;
+
+			default:
+				return false;
+		}
+	}
+}
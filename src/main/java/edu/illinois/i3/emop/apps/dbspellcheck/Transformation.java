@@ -1,8 +1,25 @@
 package edu.illinois.i3.emop.apps.dbspellcheck;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Ordering;
 
 public class Transformation {
+
+	/**
+	 * Orders the transformations by index, then by original, then by replacement
+	 */
+	public static final Ordering<Transformation> ORDERING = new Ordering<Transformation>() {
+		@Override
+		public int compare(Transformation t1, Transformation t2) {
+			return ComparisonChain.start()
+					.compare(t1._index, t2._index)
+					.compare(t1._original, t2._original)
+					.compare(t1._replacement, t2._replacement)
+					.result();
+		}
+	};
+
 	private final String _original;
 	private final String _replacement;
 	private final Integer _index;
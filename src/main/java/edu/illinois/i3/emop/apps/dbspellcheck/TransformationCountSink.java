@@ -0,0 +1,65 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * Counts the transformations used by the suggestions of the misspellings found in each document
+ * (once per distinct misspelling per document); the counts of a document are only added to the totals
+ * once the document ends, so aborted documents are not counted
+ *
+ * @author capitanu
+ */
+public class TransformationCountSink implements ResultSink {
+
+	private final Multiset<Transformation> _transformCounts = ConcurrentHashMultiset.create();
+	private final ConcurrentMap<String, Multiset<Transformation>> _documentCounts = new ConcurrentHashMap<String, Multiset<Transformation>>();
+
+	public void startDocument(String documentName) {
+		_documentCounts.put(documentName, HashMultiset.<Transformation>create());
+	}
+
+	public void writeMisspelling(String documentName, Misspelling misspelling) {
+		// A document is only processed by one worker at a time, so its counts are not shared
+		Multiset<Transformation> documentCounts = _documentCounts.get(documentName);
+		for (Suggestion suggestion : misspelling.getSuggestions())
+			documentCounts.addAll(suggestion.getTransformations());
+	}
+
+	public void writeCount(String documentName, Misspelling misspelling, int count) {
+	}
+
+	public void endDocument(String documentName) {
+		Multiset<Transformation> documentCounts = _documentCounts.remove(documentName);
+		if (documentCounts != null)
+			addTransformationCounts(documentCounts);
+	}
+
+	public void abortDocument(String documentName) {
+		_documentCounts.remove(documentName);
+	}
+
+	public void close() {
+	}
+
+	/**
+	 * Adds counts obtained elsewhere (e.g. for documents processed by an earlier run) to the totals
+	 *
+	 * @param transformCounts The counts of the transformations
+	 */
+	public void addTransformationCounts(Multiset<Transformation> transformCounts) {
+		for (Multiset.Entry<Transformation> entry : transformCounts.entrySet())
+			_transformCounts.add(entry.getElement(), entry.getCount());
+	}
+
+	/**
+	 * @return The counts of the transformations
+	 */
+	public Multiset<Transformation> getTransformationCounts() {
+		return _transformCounts;
+	}
+}
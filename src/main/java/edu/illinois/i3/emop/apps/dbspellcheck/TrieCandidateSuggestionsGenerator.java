@@ -0,0 +1,164 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Generates the same candidate suggestions as {@link OCRCandidateSuggestionsGenerator}, but instead of enumerating
+ * all the subsets of the transformations it walks the misspelling left to right, applying only non-overlapping
+ * transformations and abandoning any branch whose (lowercased) output is not a prefix of a dictionary word.
+ *
+ * When several sets of transformations produce the same suggestion, the one that the power set enumeration
+ * would have generated first is kept; suggestions are returned in that same order.
+ *
+ * @author capitanu
+ */
+public class TrieCandidateSuggestionsGenerator implements Iterable<Suggestion> {
+
+	private final Misspelling _misspelling;
+	private final ImmutableList<Transformation> _transformations;
+	private final PrefixLexicon _lexicon;
+	private final Predicate<Suggestion> _predicate;
+
+	public TrieCandidateSuggestionsGenerator(Misspelling misspelling, Collection<Transformation> transformations, PrefixLexicon lexicon) {
+		this(misspelling, transformations, lexicon, Predicates.<Suggestion>alwaysTrue());
+	}
+
+	/**
+	 * @param misspelling     The misspelling
+	 * @param transformations The possible transformations, ordered by index (then original, then replacement)
+	 * @param lexicon         The dictionary words
+	 * @param predicate       The predicate the returned suggestions must satisfy
+	 */
+	public TrieCandidateSuggestionsGenerator(Misspelling misspelling, Collection<Transformation> transformations,
+											 PrefixLexicon lexicon, Predicate<Suggestion> predicate) {
+		_misspelling = misspelling;
+		_transformations = ImmutableList.copyOf(transformations);
+		_lexicon = lexicon;
+		_predicate = predicate;
+	}
+
+	public Iterator<Suggestion> iterator() {
+		final Map<String, int[]> candidates = new CandidateSearch().run();
+
+		List<String> suggestions = Lists.newArrayList(candidates.keySet());
+		Collections.sort(suggestions, new Comparator<String>() {
+			public int compare(String s1, String s2) {
+				return compareSubsets(candidates.get(s1), candidates.get(s2));
+			}
+		});
+
+		List<Suggestion> result = Lists.newArrayListWithCapacity(suggestions.size());
+		for (String suggestion : suggestions) {
+			ImmutableSet.Builder<Transformation> rules = ImmutableSet.builder();
+			for (int t : candidates.get(suggestion))
+				rules.add(_transformations.get(t));
+
+			result.add(new Suggestion(_misspelling, suggestion, rules.build()));
+		}
+
+		return Iterators.filter(result.iterator(), _predicate);
+	}
+
+	/**
+	 * Compares two subsets of transformations (ascending arrays of positions in the transformation list)
+	 * in the order in which they are enumerated by {@link PowerSetGenerator}, i.e. by their bitmask value
+	 */
+	private static int compareSubsets(int[] subset1, int[] subset2) {
+		int i = subset1.length - 1, j = subset2.length - 1;
+
+		for (; i >= 0 && j >= 0; i--, j--)
+			if (subset1[i] != subset2[j])
+				return subset1[i] < subset2[j] ? -1 : 1;
+
+		return (i < 0 && j < 0) ? 0 : (i < 0 ? -1 : 1);
+	}
+
+	/**
+	 * Depth-first search over the misspelling, keeping the dictionary prefix reached by the output produced so far
+	 */
+	private class CandidateSearch {
+		private final String _word = _misspelling.getMisspelledWord();
+		private final StringBuilder _output = new StringBuilder(_word.length() + 8);
+		private final int[] _chosen = new int[_transformations.size()];
+		private int _chosenCount = 0;
+		private final Map<String, int[]> _candidates = Maps.newHashMap();
+
+		Map<String, int[]> run() {
+			search(0, 0, _lexicon.getRoot());
+			return _candidates;
+		}
+
+		/**
+		 * @param pos  The current position in the misspelling
+		 * @param next The position in the transformation list of the first transformation that may still be applied
+		 * @param node The lexicon node of the output produced so far
+		 */
+		private void search(int pos, int next, int node) {
+			if (pos == _word.length() && _chosenCount > 0 && _lexicon.isWord(node))
+				addCandidate();
+
+			int mark = _output.length();
+
+			// Apply each transformation starting at the current position
+			for (int t = next, tMax = _transformations.size(); t < tMax; t++) {
+				Transformation transformation = _transformations.get(t);
+				int index = transformation.getIndex();
+				if (index < pos) continue;
+				if (index > pos) break;
+
+				int child = append(node, transformation.getReplacement());
+				if (child != -1) {
+					_chosen[_chosenCount++] = t;
+					search(pos + transformation.getOriginal().length(), t + 1, child);
+					_chosenCount--;
+				}
+
+				_output.setLength(mark);
+			}
+
+			// Keep the current character
+			if (pos < _word.length()) {
+				char c = _word.charAt(pos);
+				int child = _lexicon.getChild(node, Character.toLowerCase(c));
+				if (child != -1) {
+					_output.append(c);
+					search(pos + 1, next, child);
+					_output.setLength(mark);
+				}
+			}
+		}
+
+		private int append(int node, String text) {
+			for (int i = 0, iMax = text.length(); i < iMax && node != -1; i++) {
+				char c = text.charAt(i);
+				node = _lexicon.getChild(node, Character.toLowerCase(c));
+				_output.append(c);
+			}
+
+			return node;
+		}
+
+		private void addCandidate() {
+			String suggestion = _output.toString();
+			int[] subset = new int[_chosenCount];
+			System.arraycopy(_chosen, 0, subset, 0, _chosenCount);
+
+			int[] existing = _candidates.get(suggestion);
+			if (existing == null || compareSubsets(subset, existing) < 0)
+				_candidates.put(suggestion, subset);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Segments run-together words (e.g. "andthe", a common OCR error) into dictionary words, by dynamic programming
+ * over the positions of the word: for each position reachable at the lowest cost, the dictionary words starting
+ * there are found by walking a {@link PrefixLexicon} along the word (at most the maximum word length), so a
+ * segmentation is found in a single pass of O(n * L) lexicon steps.
+ *
+ * The cost of a segmentation is the number of its segments plus the number of OCR transformations applied
+ * (at most a given number per segment); the transformations are those of the misspelled word, so a segment may
+ * also correct OCR errors (e.g. "andthc" -> "and the"). The lowercased segments are looked up in the lexicon;
+ * the segments keep the case of the word.
+ *
+ * @author capitanu
+ */
+public class WordSegmenter {
+
+	public static final int DEFAULT_MIN_WORD_LENGTH = 2;
+	public static final int DEFAULT_MAX_WORD_LENGTH = 24;
+	public static final int DEFAULT_MAX_TRANSFORMATIONS = 1;
+
+	private static final int SEGMENT_COST = 1;
+	private static final int TRANSFORMATION_COST = 1;
+
+	private final PrefixLexicon _lexicon;
+	private final int _minWordLength;
+	private final int _maxWordLength;
+	private final int _maxTransformations;
+
+	public WordSegmenter(PrefixLexicon lexicon) {
+		this(lexicon, DEFAULT_MIN_WORD_LENGTH, DEFAULT_MAX_WORD_LENGTH, DEFAULT_MAX_TRANSFORMATIONS);
+	}
+
+	/**
+	 * @param lexicon            The dictionary words
+	 * @param minWordLength      The minimum length of a segment (shorter dictionary words are usually noise)
+	 * @param maxWordLength      The maximum length of a segment
+	 * @param maxTransformations The maximum number of OCR transformations applied to a segment
+	 */
+	public WordSegmenter(PrefixLexicon lexicon, int minWordLength, int maxWordLength, int maxTransformations) {
+		_lexicon = lexicon;
+		_minWordLength = minWordLength;
+		_maxWordLength = maxWordLength;
+		_maxTransformations = maxTransformations;
+	}
+
+	/**
+	 * Finds the lowest-cost segmentation of a misspelled word into at least two dictionary words
+	 *
+	 * @param misspelling     The misspelling
+	 * @param transformations The transformations that can be applied to the misspelled word (may be empty)
+	 * @return The segmentation, or null if the word cannot be segmented
+	 */
+	public SegmentedSuggestion segment(Misspelling misspelling, Collection<Transformation> transformations) {
+		return new Search(misspelling.getMisspelledWord(), transformations).run(misspelling);
+	}
+
+	/**
+	 * A segmentation of a misspelled word, suggesting its segments separated by spaces
+	 */
+	public static class SegmentedSuggestion extends Suggestion {
+		private final ImmutableList<String> _segments;
+
+		public SegmentedSuggestion(Misspelling misspelling, List<String> segments, ImmutableSet<Transformation> transformations) {
+			super(misspelling, joinSegments(segments), transformations);
+			_segments = ImmutableList.copyOf(segments);
+		}
+
+		public ImmutableList<String> getSegments() {
+			return _segments;
+		}
+
+		private static String joinSegments(List<String> segments) {
+			StringBuilder suggestion = new StringBuilder();
+			for (String segment : segments) {
+				if (suggestion.length() > 0)
+					suggestion.append(' ');
+				suggestion.append(segment);
+			}
+
+			return suggestion.toString();
+		}
+	}
+
+	/**
+	 * The state of the segmentation of a word: the lowest cost of reaching each position, along with the segment
+	 * (and its transformations) ending there, memoized as the positions are processed left to right
+	 */
+	private class Search {
+		private final String _word;
+		private final int _length;
+		private final Transformation[][] _transformationsAt;	// the transformations starting at each position
+		private final int[] _cost;
+		private final int[] _segmentStart;
+		private final String[] _segment;
+		private final Transformation[][] _segmentTransformations;
+		private final StringBuilder _text = new StringBuilder();
+		private final Deque<Transformation> _applied = new ArrayDeque<>();
+
+		Search(String word, Collection<Transformation> transformations) {
+			_word = word;
+			_length = word.length();
+			_cost = new int[_length + 1];
+			_segmentStart = new int[_length + 1];
+			_segment = new String[_length + 1];
+			_segmentTransformations = new Transformation[_length + 1][];
+			_transformationsAt = new Transformation[_length][];
+
+			Arrays.fill(_cost, Integer.MAX_VALUE);
+			_cost[0] = 0;
+
+			if (_maxTransformations > 0) {
+				List<List<Transformation>> transformationsAt = Lists.newArrayListWithCapacity(_length);
+				for (int i = 0; i < _length; i++)
+					transformationsAt.add(Lists.<Transformation>newArrayList());
+				for (Transformation transformation : transformations)
+					transformationsAt.get(transformation.getIndex()).add(transformation);
+				for (int i = 0; i < _length; i++)
+					if (!transformationsAt.get(i).isEmpty())
+						_transformationsAt[i] = transformationsAt.get(i).toArray(new Transformation[0]);
+			}
+		}
+
+		SegmentedSuggestion run(Misspelling misspelling) {
+			for (int start = 0; start < _length; start++)
+				if (_cost[start] != Integer.MAX_VALUE)
+					extend(start, start, _lexicon.getRoot());
+
+			if (_cost[_length] == Integer.MAX_VALUE)
+				return null;
+
+			List<String> segments = Lists.newArrayList();
+			ImmutableSet.Builder<Transformation> transformations = ImmutableSet.builder();
+			for (int end = _length; end > 0; end = _segmentStart[end]) {
+				segments.add(_segment[end]);
+				transformations.add(_segmentTransformations[end]);
+			}
+
+			return new SegmentedSuggestion(misspelling, Lists.reverse(segments), transformations.build());
+		}
+
+		/**
+		 * Walks the lexicon from a node along the word, recording the dictionary words ending at each position
+		 *
+		 * @param start    The start of the segment in the word
+		 * @param position The current position in the word
+		 * @param node     The lexicon node of the segment so far
+		 */
+		private void extend(int start, int position, int node) {
+			if (_lexicon.isWord(node) && _text.length() >= _minWordLength && !(start == 0 && position == _length))
+				relax(start, position);
+
+			if (position == _length || _text.length() >= _maxWordLength)
+				return;
+
+			char c = _word.charAt(position);
+			int child = _lexicon.getChild(node, Character.toLowerCase(c));
+			if (child != -1) {
+				_text.append(c);
+				extend(start, position + 1, child);
+				_text.setLength(_text.length() - 1);
+			}
+
+			Transformation[] transformations = _transformationsAt[position];
+			if (transformations == null || _applied.size() >= _maxTransformations)
+				return;
+
+			for (Transformation transformation : transformations) {
+				String replacement = transformation.getReplacement();
+				int textLength = _text.length();
+				int replacementNode = node;
+
+				for (int i = 0, iMax = replacement.length(); i < iMax && replacementNode != -1; i++)
+					replacementNode = _lexicon.getChild(replacementNode, Character.toLowerCase(replacement.charAt(i)));
+
+				if (replacementNode == -1 || textLength + replacement.length() > _maxWordLength)
+					continue;
+
+				_text.append(replacement);
+				_applied.addLast(transformation);
+				extend(start, position + transformation.getOriginal().length(), replacementNode);
+				_applied.removeLast();
+				_text.setLength(textLength);
+			}
+		}
+
+		/**
+		 * Records the current segment as the last one of the best segmentation ending at its end, if cheaper
+		 */
+		private void relax(int start, int end) {
+			int cost = _cost[start] + SEGMENT_COST + _applied.size() * TRANSFORMATION_COST;
+			if (cost >= _cost[end])
+				return;
+
+			_cost[end] = cost;
+			_segmentStart[end] = start;
+			_segment[end] = _text.toString();
+			_segmentTransformations[end] = _applied.toArray(new Transformation[_applied.size()]);
+		}
+	}
+}
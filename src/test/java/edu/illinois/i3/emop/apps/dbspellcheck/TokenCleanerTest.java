@@ -0,0 +1,74 @@
+package edu.illinois.i3.emop.apps.dbspellcheck;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Checks that {@link TokenCleaner} gives the same results as the regular expressions previously used by
+ * {@link OCRCheck}, on tokens exercising the edge cases and on random tokens mixing the character classes involved
+ *
+ * @author capitanu
+ */
+public class TokenCleanerTest {
+
+	private static final List<String> EDGE_CASES = Arrays.asList(
+			"", " ", "-", "---", ".", ",.,", "1,234.5", "\u0663\u0664", "\u2163", "\u00bd", "\ud835\udfce\ud835\udfcf",
+			"\ud835\udfce.x", "12a", "(word)", "\"quoted,\"", "word's", "-lead", "trail-", "_under_", "a_b-c",
+			"\u00e9t\u00e9", "caf\u00e9", "\u00c9cole", "na\u00efve-", "\ud83d\ude00smile\ud83d\ude00", "\ud800", "x\udc00y",
+			"Lond", "Lon", "LONDON", "London1", "\u0130stanbul", "\u01c5abc", "Ab\u00dfc", "\u03a3\u03bf\u03c6\u03af\u03b1",
+			"one--two", "one..two,,three", "-a-b-", "a\nb", "\ttab\t", "mid dle");
+
+	// Letters and digits (ASCII and not), punctuation, separators, the word character '_', titlecase and surrogates
+	private static final String ALPHABET = "aZe1.,-_'\" \t\u00e9\u00c9\u00df\u0130\u01c5\u03a3\u0663\u2163\u00bd\ud835\udfce\ud83d\ude00\ud800\udc00";
+
+	private static final int RANDOM_TOKENS = 100000;
+
+	@Test
+	public void testClean() {
+		for (String token : getTokens())
+			assertEquals("clean('" + token + "')", regexClean(token), TokenCleaner.clean(token));
+	}
+
+	@Test
+	public void testSplitNonWord() {
+		for (String token : getTokens())
+			assertArrayEquals("splitNonWord('" + token + "')", token.split("\\W+"), TokenCleaner.splitNonWord(token));
+	}
+
+	@Test
+	public void testIsCapitalizedWord() {
+		for (String token : getTokens())
+			assertEquals("isCapitalizedWord('" + token + "')", token.matches("\\p{Lu}\\p{Ll}{3,}"), TokenCleaner.isCapitalizedWord(token));
+	}
+
+	private static List<String> getTokens() {
+		List<String> tokens = Lists.newArrayList(EDGE_CASES);
+
+		Random random = new Random(21);
+		for (int i = 0; i < RANDOM_TOKENS; i++) {
+			StringBuilder token = new StringBuilder();
+			for (int c = random.nextInt(8); c > 0; c--)
+				token.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			tokens.add(token.toString());
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * The cleaning previously done by OCRCheck.cleanToken
+	 */
+	private static String regexClean(String token) {
+		if (token.replaceAll("[\\p{N}.,]", "").isEmpty()) return "";
+
+		return token.replaceAll("^[^\\p{Alnum}]+", "").replaceAll("[^\\p{Alnum}]+$", "");
+	}
+}